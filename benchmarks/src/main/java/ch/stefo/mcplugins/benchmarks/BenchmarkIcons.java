@@ -0,0 +1,225 @@
+package ch.stefo.mcplugins.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.imageio.ImageIO;
+
+import ch.stefo.mcplugins.library.IconEntry;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Test data shared by the benchmarks: stand-in server icons and generated images.
+ */
+final class BenchmarkIcons {
+
+    private BenchmarkIcons() {
+    }
+
+    /**
+     * A server icon that only carries a name, in place of the icons the server creates.
+     */
+    static final class NamedIcon implements CachedServerIcon {
+
+        private final String name;
+
+        NamedIcon(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getData() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Creates library entries for icons that do not exist on disk.
+     *
+     * @param count  Number of entries.
+     * @param loaded Whether the entries carry their icon, as in a library that is not loaded lazily.
+     * @return The entries.
+     */
+    static List<IconEntry> entries(int count, boolean loaded) {
+        List<IconEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "icon-" + i + ".png";
+            entries.add(new IconEntry(name, new File(name), 2048, "hash-" + i, loaded ? new NamedIcon(name) : null));
+        }
+        return entries;
+    }
+
+    /**
+     * Draws an image with gradients, shapes and a transparent border, similar to a real icon.
+     *
+     * @param width       Image width.
+     * @param height      Image height.
+     * @param seed        Varies the colors and shapes.
+     * @param translucent Whether the image has transparent and translucent pixels.
+     * @return A new ARGB image.
+     */
+    static BufferedImage image(int width, int height, long seed, boolean translucent) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int inset = translucent ? width / 8 : 0;
+        graphics.setPaint(new java.awt.GradientPaint(0, 0, new Color(random.nextInt()), width, height, new Color(random.nextInt())));
+        graphics.fillRoundRect(inset, inset, width - 2 * inset, height - 2 * inset, width / 4, height / 4);
+        for (int i = 0; i < 6; i++) {
+            graphics.setColor(new Color(random.nextInt(), translucent));
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            graphics.fillOval(x - width / 8, y - height / 8, width / 4, height / 4);
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Writes distinct 64x64 PNG icons into a folder.
+     *
+     * @param folder The folder.
+     * @param count  Number of icons.
+     */
+    static void writeIcons(File folder, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            ImageIO.write(image(64, 64, i, i % 2 == 0), "png", new File(folder, "icon-" + i + ".png"));
+        }
+    }
+
+    /**
+     * Writes a large RGBA PNG of gradients and rings row by row, without holding the image in memory,
+     * so images far larger than the heap can be generated.
+     *
+     * @param file   The file.
+     * @param width  Image width.
+     * @param height Image height.
+     */
+    static void writeLargePng(File file, int width, int height) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath()), 64 * 1024))) {
+            out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerData = new DataOutputStream(header);
+            headerData.writeInt(width);
+            headerData.writeInt(height);
+            // 8 bits per channel, RGBA, deflate, adaptive filtering, not interlaced
+            headerData.write(new byte[]{8, 6, 0, 0, 0});
+            writeChunk(out, "IHDR", header.toByteArray(), header.size());
+
+            ChunkStream idat = new ChunkStream(out);
+            Deflater compressor = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(idat, compressor, 64 * 1024)) {
+                byte[] row = new byte[1 + width * 4];
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int dx = x - width / 2;
+                        int dy = y - height / 2;
+                        int ring = (int) (Math.sqrt((double) dx * dx + (double) dy * dy) * 64 / Math.max(width, height));
+                        int i = 1 + x * 4;
+                        row[i] = (byte) (x * 255L / width);
+                        row[i + 1] = (byte) (y * 255L / height);
+                        row[i + 2] = (byte) ((ring & 1) == 0 ? 0xE0 : 0x40);
+                        row[i + 3] = (byte) 0xFF;
+                    }
+                    deflater.write(row);
+                }
+            } finally {
+                compressor.end();
+            }
+            idat.flushChunk();
+            writeChunk(out, "IEND", new byte[0], 0);
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Splits the compressed image data into IDAT chunks of a fixed size.
+     */
+    private static final class ChunkStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[256 * 1024];
+        private int size;
+
+        ChunkStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, buffer.length - size);
+                System.arraycopy(data, offset, buffer, size, count);
+                size += count;
+                offset += count;
+                length -= count;
+                if (size == buffer.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (size > 0) {
+                writeChunk(out, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+
+        @Override
+        public void close() {
+            // The PNG stream is closed by the writer
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path entry : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ch.stefo.mcplugins.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import ch.stefo.mcplugins.image.IconProcessor;
+import ch.stefo.mcplugins.image.IconResampler;
+
+/**
+ * Measures the peak heap and the time needed to turn large generated PNGs into icons, once with a
+ * full decode followed by the resize, as downloads and input icons were handled before, and once with
+ * the bounded, subsampled decode of {@link IconProcessor}.
+ * <p>
+ * The peak is the highest heap use during the conversion above the heap in use before it, summed over
+ * the heap memory pools, which the JVM reports at a coarse granularity; the bytes the conversion allocated
+ * in total are shown as well. Run it with a fixed heap, so a full decode that does not fit shows up as out of memory.
+ * <p>
+ * Usage: {@code java -Xmx1g -cp benchmarks.jar ch.stefo.mcplugins.benchmarks.DecodeMemoryProbe [size]...}
+ */
+public final class DecodeMemoryProbe {
+
+    private static final int[] DEFAULT_SIZES = {1000, 4000, 10000};
+
+    private final IconProcessor processor = new IconProcessor(new IconResampler(IconResampler.Filter.LANCZOS, true), Long.MAX_VALUE);
+    private final IconResampler resampler = new IconResampler(IconResampler.Filter.LANCZOS, true);
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .toList();
+
+    private DecodeMemoryProbe() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        new DecodeMemoryProbe().run(sizes, System.out);
+    }
+
+    private void run(int[] sizes, PrintStream out) throws IOException {
+        out.println("Max heap: " + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB");
+        Path folder = Files.createTempDirectory("decode-probe");
+        try {
+            for (int size : sizes) {
+                File file = new File(folder.toFile(), size + ".png");
+                BenchmarkIcons.writeLargePng(file, size, size);
+                out.printf("%dx%d PNG, %d KB%n", size, size, file.length() / 1024);
+                measure(out, "full", () -> resampler.resize(ImageIO.read(file)));
+                measure(out, "bounded", () -> processor.normalize(processor.decode(file)));
+            }
+        } finally {
+            BenchmarkIcons.deleteRecursively(folder);
+        }
+    }
+
+    private void measure(PrintStream out, String name, Conversion conversion) {
+        long baseline = settle();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        try {
+            BufferedImage icon = conversion.convert();
+            long nanos = System.nanoTime() - start;
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+            out.printf("  %-8s peak heap %6.1f MB, allocated %6.1f MB, %5d ms, %dx%d%n", name,
+                    Math.max(0, peak() - baseline) / (1024.0 * 1024.0), allocated / (1024.0 * 1024.0),
+                    nanos / 1_000_000L, icon.getWidth(), icon.getHeight());
+        } catch (OutOfMemoryError e) {
+            out.printf("  %-8s out of memory after %d ms%n", name, (System.nanoTime() - start) / 1_000_000L);
+        } catch (IOException e) {
+            // ImageIO wraps errors of the decoder, including running out of memory
+            out.printf("  %-8s failed: %s%n", name, e.getCause() != null ? e.getCause() : e.getMessage());
+        }
+    }
+
+    /**
+     * Collects garbage and resets the peaks.
+     *
+     * @return The heap in use afterwards.
+     */
+    private long settle() {
+        System.gc();
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+            used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    private long peak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    @FunctionalInterface
+    private interface Conversion {
+
+        BufferedImage convert() throws IOException;
+    }
+}
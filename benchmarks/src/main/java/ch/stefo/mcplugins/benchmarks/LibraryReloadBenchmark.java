@@ -0,0 +1,95 @@
+package ch.stefo.mcplugins.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.library.IconLibrary;
+import ch.stefo.mcplugins.library.IconLibraryLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to load the whole icons folder into a new library.
+ * <p>
+ * A cold reload decodes every PNG file and writes a new icon pack, a warm reload reads the pixels
+ * from the pack written before. No previous library is passed in, so nothing is reused by content hash.
+ * A lazy reload only hashes the files, or takes the hashes from the pack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LibraryReloadBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int iconCount;
+
+    @Param({"cold", "warm"})
+    public String pack;
+
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    @Param({"4"})
+    public int threads;
+
+    private Path directory;
+    private File folder;
+    private File packFile;
+    private IconLibraryLoader loader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("iconicserver-reload");
+        folder = directory.resolve("icons").toFile();
+        folder.mkdirs();
+        BenchmarkIcons.writeIcons(folder, iconCount);
+        packFile = directory.resolve("icons.pack").toFile();
+        loader = new IconLibraryLoader(image -> new BenchmarkIcons.NamedIcon("icon"), packFile,
+                Logger.getLogger("IconicServer"), threads, lazy);
+        // Writes the pack for the warm runs, lazy loads keep an existing pack
+        IconLibraryLoader packWriter = new IconLibraryLoader(image -> new BenchmarkIcons.NamedIcon("icon"), packFile,
+                Logger.getLogger("IconicServer"), threads, false);
+        packWriter.load(folder, IconLibrary.EMPTY).join();
+        packWriter.shutdown();
+    }
+
+    @Setup(Level.Invocation)
+    public void dropPack() throws IOException {
+        if (pack.equals("cold")) {
+            Files.deleteIfExists(packFile.toPath());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        loader.shutdown();
+        BenchmarkIcons.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public IconLibrary reload() {
+        IconLibraryLoader.Result result = loader.load(folder, IconLibrary.EMPTY).join();
+        if (result.library().size() != iconCount) {
+            throw new IllegalStateException("Loaded " + result.library().size() + " of " + iconCount + " icons");
+        }
+        return result.library();
+    }
+}
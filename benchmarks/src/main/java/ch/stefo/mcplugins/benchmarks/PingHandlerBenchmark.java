@@ -0,0 +1,191 @@
+package ch.stefo.mcplugins.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.library.IconCache;
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.library.IconLibraryLoader;
+import ch.stefo.mcplugins.metrics.PingAnalytics;
+import ch.stefo.mcplugins.metrics.PluginMetrics;
+import ch.stefo.mcplugins.ping.PingHandler;
+import ch.stefo.mcplugins.ping.PingRateLimiter;
+import ch.stefo.mcplugins.ping.ThrottledResponse;
+import ch.stefo.mcplugins.player.PlayerAddressIndex;
+import ch.stefo.mcplugins.render.IconRenderer;
+import ch.stefo.mcplugins.render.OverlayLayers;
+import ch.stefo.mcplugins.render.RenderState;
+import ch.stefo.mcplugins.selection.IconResolver;
+import ch.stefo.mcplugins.selection.IconSelection;
+import ch.stefo.mcplugins.selection.SelectionOptions;
+import org.bukkit.util.CachedServerIcon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of picking the icon for one ping, in every selection mode.
+ * <p>
+ * Pings come from a fixed set of addresses. Each scenario adds one feature to the plain handler:
+ * <ul>
+ *     <li>metrics: ping metrics are recorded.</li>
+ *     <li>player-icons: a quarter of the addresses belong to players with their own icon.</li>
+ *     <li>cache: icons are resolved through the icon cache, with all icons resident.</li>
+ *     <li>weighted: every tenth icon has ten times the weight of the others.</li>
+ *     <li>limited: a per-address limit that the benchmark stays below.</li>
+ *     <li>throttled: a per-address limit that almost every ping exceeds.</li>
+ *     <li>rendered: a player count badge over every selected icon, with all rendered icons cached.</li>
+ *     <li>analytics: the icon shown to every address is recorded for matching joins.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingHandlerBenchmark {
+
+    private static final int ADDRESSES = 1024;
+
+    @Param({"static", "cycle", "random", "per-ping-random"})
+    public String mode;
+
+    @Param({"plain", "metrics", "player-icons", "cache", "weighted", "limited", "throttled", "rendered", "analytics"})
+    public String scenario;
+
+    private PingHandler handler;
+    private InetAddress[] addresses;
+    private IconRenderer renderer;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        boolean cached = scenario.equals("cache");
+        List<IconEntry> entries = BenchmarkIcons.entries(100, !cached);
+        if (scenario.equals("rendered")) {
+            entries = renderedEntries(entries.size());
+        }
+        IconResolver resolver = IconResolver.LOADED;
+        if (cached) {
+            IconCache cache = new IconCache(Long.MAX_VALUE,
+                    entry -> CompletableFuture.completedFuture(new BenchmarkIcons.NamedIcon(entry.name())));
+            cache.prefetch(entries);
+            resolver = cache::get;
+        }
+        Map<String, Double> weights = new HashMap<>();
+        if (scenario.equals("weighted")) {
+            for (int i = 0; i < entries.size(); i += 10) {
+                weights.put(entries.get(i).name(), 10.0);
+            }
+        }
+        PingRateLimiter limiter = switch (scenario) {
+            case "limited" -> new PingRateLimiter(1e9, 1_000_000, 1_000_000_000L);
+            case "throttled" -> new PingRateLimiter(1, 1, 0);
+            default -> PingRateLimiter.UNLIMITED;
+        };
+
+        PlayerAddressIndex playerAddresses = new PlayerAddressIndex(ADDRESSES, TimeUnit.DAYS.toMillis(30));
+        handler = new PingHandler(playerAddresses, new PluginMetrics(scenario.equals("metrics")), limiter, ThrottledResponse.DEFAULT);
+        handler.setSelection(IconSelection.compile(mode, entries, new BenchmarkIcons.NamedIcon("default"), resolver,
+                new SelectionOptions(weights, false)));
+
+        addresses = new InetAddress[ADDRESSES];
+        Map<String, IconEntry> perPlayer = new HashMap<>();
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+            if (i % 4 == 0) {
+                String name = "player" + i;
+                playerAddresses.record(addresses[i], name);
+                perPlayer.put(name, entries.get(i % entries.size()));
+            }
+        }
+        if (scenario.equals("player-icons")) {
+            handler.setPlayerIcons(perPlayer);
+        }
+        if (renderer != null) {
+            handler.setRenderer(renderer);
+            handler.setDefaultEntry(entries.get(0));
+        }
+        if (scenario.equals("analytics")) {
+            handler.setAnalytics(new PingAnalytics(TimeUnit.MINUTES.toMillis(5), 65536));
+        }
+    }
+
+    /**
+     * Writes icon files for the rendered scenario and renders all of them, so pings only hit the render cache.
+     */
+    private List<IconEntry> renderedEntries(int count) throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("iconicserver-render");
+        BenchmarkIcons.writeIcons(directory.toFile(), count);
+        List<IconEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            File file = directory.resolve("icon-" + i + ".png").toFile();
+            entries.add(new IconEntry(file.getName(), file, file.length(), IconLibraryLoader.hash(file), new BenchmarkIcons.NamedIcon(file.getName())));
+        }
+        renderer = new IconRenderer(List.of(OverlayLayers.get("players").create(null)),
+                image -> new BenchmarkIcons.NamedIcon("rendered"), 256, Logger.getLogger("IconicServer"));
+        renderer.setState(new RenderState(42, 100, false, LocalDateTime.now()));
+        for (IconEntry entry : entries) {
+            renderer.render(entry, entry.icon());
+        }
+        while (renderer.size() < count) {
+            Thread.sleep(10);
+        }
+        return entries;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (renderer != null) {
+            renderer.shutdown();
+            BenchmarkIcons.deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Cycles through the addresses, separately for every benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        int next() {
+            return next++ & (ADDRESSES - 1);
+        }
+    }
+
+    @Benchmark
+    public CachedServerIcon ping(Cursor cursor) {
+        return handler.handle(addresses[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CachedServerIcon pingConcurrent(Cursor cursor) {
+        return handler.handle(addresses[cursor.next()]);
+    }
+}
@@ -0,0 +1,268 @@
+package ch.stefo.mcplugins.benchmarks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.stefo.mcplugins.library.IconCache;
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.metrics.LatencyHistogram;
+import ch.stefo.mcplugins.metrics.PluginMetrics;
+import ch.stefo.mcplugins.ping.PingHandler;
+import ch.stefo.mcplugins.ping.PingRateLimiter;
+import ch.stefo.mcplugins.ping.ThrottledResponse;
+import ch.stefo.mcplugins.player.PlayerAddressIndex;
+import ch.stefo.mcplugins.selection.IconResolver;
+import ch.stefo.mcplugins.selection.IconSelection;
+import ch.stefo.mcplugins.selection.IconSelectors;
+import ch.stefo.mcplugins.selection.SelectionOptions;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Fires synthetic pings from many threads while another thread keeps changing the plugin state the
+ * way refreshes, folder changes, commands and rotation ticks do. Reports the ping throughput, the
+ * latency distribution and every inconsistent result.
+ * <p>
+ * A result is inconsistent if handling the ping throws, returns no icon although every published
+ * selection has a default icon, or returns an icon that was never published.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar ch.stefo.mcplugins.benchmarks.PingLoadSimulator [threads] [seconds]}
+ */
+public final class PingLoadSimulator {
+
+    private static final int ADDRESSES = 4096;
+    private static final String[] MODES = IconSelectors.modes().toArray(new String[0]);
+
+    private final int threads;
+    private final PingHandler handler;
+    private final PlayerAddressIndex playerAddresses = new PlayerAddressIndex(ADDRESSES, TimeUnit.DAYS.toMillis(1));
+    private final IconCache cache;
+    private final InetAddress[] addresses = new InetAddress[ADDRESSES];
+
+    // Every icon the mutator has created, checked against the icons the pings return
+    private final Set<CachedServerIcon> published = ConcurrentHashMap.newKeySet();
+    private final Map<String, LongAdder> inconsistencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> mutations = new ConcurrentHashMap<>();
+    private final LongAdder pings = new LongAdder();
+    private final AtomicInteger iconSerial = new AtomicInteger();
+
+    private PingLoadSimulator(int threads) throws UnknownHostException {
+        this.threads = threads;
+        this.cache = new IconCache(64 * 1024, entry -> CompletableFuture.supplyAsync(() -> icon(entry.name())));
+        this.handler = new PingHandler(playerAddresses, new PluginMetrics(true),
+                new PingRateLimiter(100_000, 1000, 0), ThrottledResponse.DEFAULT);
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, 1, (byte) (i >> 8), (byte) i});
+            if (i % 8 == 0) {
+                playerAddresses.record(addresses[i], "player" + i);
+            }
+        }
+        handler.setSelection(IconSelection.compile("cycle", List.of(), icon("default")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        PingLoadSimulator simulator = new PingLoadSimulator(threads);
+        boolean consistent = simulator.run(seconds, System.out);
+        System.exit(consistent ? 0 : 1);
+    }
+
+    private CachedServerIcon icon(String name) {
+        CachedServerIcon icon = new BenchmarkIcons.NamedIcon(name + "#" + iconSerial.incrementAndGet());
+        published.add(icon);
+        return icon;
+    }
+
+    /**
+     * Runs the simulation and prints the report.
+     *
+     * @param seconds How long pings are fired.
+     * @param out     Receives the report.
+     * @return Whether no inconsistency was found.
+     */
+    private boolean run(int seconds, PrintStream out) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<LatencyHistogram> histograms = new ArrayList<>();
+        List<Thread> pingers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histograms.add(histogram);
+            Thread pinger = new Thread(() -> ping(deadline, histogram), "pinger-" + t);
+            pingers.add(pinger);
+        }
+        Thread mutator = new Thread(() -> mutate(deadline), "mutator");
+
+        long start = System.nanoTime();
+        mutator.start();
+        pingers.forEach(Thread::start);
+        for (Thread pinger : pingers) {
+            pinger.join();
+        }
+        mutator.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long[] buckets = new long[LatencyHistogram.BUCKETS];
+        long max = 0;
+        for (LatencyHistogram histogram : histograms) {
+            long[] snapshot = histogram.snapshot();
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += snapshot[i];
+            }
+            max = Math.max(max, histogram.getMaxNanos());
+        }
+        LatencyHistogram merged = histograms.get(0);
+        long total = pings.sum();
+        out.printf("Pings: %d in %.1f s on %d threads (%.0f/s)%n", total, elapsed, threads, total / elapsed);
+        out.println("Latency: p50 <= " + merged.percentile(buckets, 50) + " ns, p99 <= " + merged.percentile(buckets, 99)
+                + " ns, p99.9 <= " + merged.percentile(buckets, 99.9) + " ns, p99.99 <= " + merged.percentile(buckets, 99.99)
+                + " ns, max " + max + " ns");
+        out.println("Mutations: " + sum(mutations) + " " + counts(mutations));
+        out.println("Icon cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions");
+        out.println("Inconsistencies: " + sum(inconsistencies) + (inconsistencies.isEmpty() ? "" : " " + counts(inconsistencies)));
+        return inconsistencies.isEmpty();
+    }
+
+    private void ping(long deadline, LatencyHistogram histogram) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long count = 0;
+        while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+            InetAddress address = addresses[random.nextInt(ADDRESSES)];
+            long start = System.nanoTime();
+            try {
+                CachedServerIcon icon = handler.handle(address);
+                histogram.record(System.nanoTime() - start);
+                if (icon == null) {
+                    inconsistent("empty icon");
+                } else if (!published.contains(icon)) {
+                    inconsistent("unpublished icon");
+                }
+            } catch (RuntimeException e) {
+                inconsistent(e.getClass().getSimpleName());
+            }
+            count++;
+        }
+        pings.add(count);
+    }
+
+    private void inconsistent(String kind) {
+        inconsistencies.computeIfAbsent(kind, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Changes the state in random steps, as fast as possible, until the deadline.
+     * Like the plugin, all changes come from a single thread, except rotation, which runs on a second one.
+     */
+    private void mutate(long deadline) {
+        Thread rotator = new Thread(() -> {
+            while (System.nanoTime() < deadline) {
+                handler.rotate();
+                mutated("rotate");
+                pause();
+            }
+        }, "rotator");
+        rotator.start();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            switch (random.nextInt(6)) {
+                case 0 -> {
+                    // A refresh: a new library of any size, also empty, loaded or lazily loaded
+                    int size = random.nextInt(4) == 0 ? 0 : random.nextInt(1, 300);
+                    boolean lazy = random.nextBoolean();
+                    List<IconEntry> entries = entries(size, lazy);
+                    if (lazy) {
+                        cache.retain(entries);
+                    }
+                    IconResolver resolver = lazy ? cache::get : IconResolver.LOADED;
+                    CachedServerIcon defaultIcon = icon("default");
+                    handler.updateSelection(selection -> selection.withEntries(entries, defaultIcon, resolver));
+                    Map<String, IconEntry> playerIcons = new HashMap<>();
+                    for (int i = 0; i < entries.size() && i < ADDRESSES / 8; i++) {
+                        playerIcons.put("player" + (i * 8), entries.get(i));
+                    }
+                    handler.setPlayerIcons(playerIcons);
+                    mutated("library");
+                }
+                case 1 -> {
+                    String mode = MODES[random.nextInt(MODES.length)];
+                    handler.updateSelection(selection -> selection.withMode(mode));
+                    mutated("mode");
+                }
+                case 2 -> {
+                    CachedServerIcon defaultIcon = icon("default");
+                    handler.updateSelection(selection -> selection.withDefaultIcon(defaultIcon));
+                    mutated("default icon");
+                }
+                case 3 -> {
+                    handler.setScheduledEntry(random.nextInt(4) == 0 ? new IconEntry("scheduled.png", null, 0, "scheduled", icon("scheduled")) : null);
+                    mutated("scheduled icon");
+                }
+                case 4 -> {
+                    Map<String, Double> weights = new HashMap<>();
+                    for (IconEntry entry : handler.getSelection().getEntries()) {
+                        weights.put(entry.name(), (double) random.nextInt(3));
+                    }
+                    SelectionOptions options = new SelectionOptions(weights, random.nextBoolean());
+                    handler.updateSelection(selection -> selection.withOptions(options));
+                    mutated("weights");
+                }
+                default -> {
+                    playerAddresses.record(addresses[random.nextInt(ADDRESSES)], "player" + random.nextInt(ADDRESSES));
+                    mutated("join");
+                }
+            }
+            pause();
+        }
+        try {
+            rotator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(0, 100_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<IconEntry> entries(int size, boolean lazy) {
+        List<IconEntry> entries = new ArrayList<>(size);
+        int generation = iconSerial.get();
+        for (int i = 0; i < size; i++) {
+            String name = "icon-" + generation + "-" + i + ".png";
+            entries.add(new IconEntry(name, new File(name), 2048, name, lazy ? null : icon(name)));
+        }
+        return entries;
+    }
+
+    private void mutated(String kind) {
+        mutations.computeIfAbsent(kind, key -> new LongAdder()).increment();
+    }
+
+    private static long sum(Map<String, LongAdder> counters) {
+        return counters.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    private static Map<String, Long> counts(Map<String, LongAdder> counters) {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((kind, count) -> counts.put(kind, count.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,70 @@
+package ch.stefo.mcplugins.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import ch.stefo.mcplugins.image.PngOptimizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to encode a 64x64 icon with the optimizing encoder, compared with plain ImageIO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PngEncodeBenchmark {
+
+    /**
+     * opaque: full color without alpha, translucent: full color with alpha, palette: few colors.
+     */
+    @Param({"opaque", "translucent", "palette"})
+    public String kind;
+
+    private BufferedImage image;
+    private PngOptimizer optimizer;
+
+    @Setup
+    public void setUp() {
+        optimizer = new PngOptimizer();
+        if (kind.equals("palette")) {
+            image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+            int[] colors = {0xFF1E88E5, 0xFFFFFFFF, 0xFF43A047, 0x00000000};
+            for (int y = 0; y < 64; y++) {
+                for (int x = 0; x < 64; x++) {
+                    image.setRGB(x, y, colors[(x / 8 + y / 16) % colors.length]);
+                }
+            }
+        } else {
+            image = BenchmarkIcons.image(64, 64, 7, kind.equals("translucent"));
+        }
+    }
+
+    @Benchmark
+    public byte[] optimizer() {
+        return optimizer.encode(image);
+    }
+
+    @Benchmark
+    public byte[] imageIO() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
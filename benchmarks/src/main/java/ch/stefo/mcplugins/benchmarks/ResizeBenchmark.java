@@ -0,0 +1,76 @@
+package ch.stefo.mcplugins.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import ch.stefo.mcplugins.image.IconImages;
+import ch.stefo.mcplugins.image.IconResampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to scale a source image down to the icon size, compared with the Graphics2D resize used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResizeBenchmark {
+
+    @Param({"128", "512", "2048"})
+    public int sourceSize;
+
+    private BufferedImage source;
+
+    @Setup
+    public void setUp() {
+        source = BenchmarkIcons.image(sourceSize, sourceSize, 42, true);
+    }
+
+    /**
+     * The resampler for each filter. Only the resampler benchmark takes it, so the Graphics2D
+     * baseline, which has no filter, runs once per source size.
+     */
+    @State(Scope.Benchmark)
+    public static class Resampler {
+
+        @Param({"box", "bilinear", "lanczos"})
+        public String filter;
+
+        private IconResampler resampler;
+
+        @Setup
+        public void setUp() {
+            resampler = new IconResampler(IconResampler.Filter.parse(filter), true);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage resampler(Resampler resampler) {
+        return resampler.resampler.resize(source);
+    }
+
+    /**
+     * The resize the plugin used before, drawImage with default hints (nearest neighbour).
+     */
+    @Benchmark
+    public BufferedImage graphics2d() {
+        BufferedImage resized = new BufferedImage(IconImages.SIZE, IconImages.SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = resized.createGraphics();
+        graphics.drawImage(source, 0, 0, IconImages.SIZE, IconImages.SIZE, null);
+        graphics.dispose();
+        return resized;
+    }
+}
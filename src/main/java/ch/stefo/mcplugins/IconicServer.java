@@ -1,58 +1,162 @@
 package ch.stefo.mcplugins;
 
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.MonthDay;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import javax.imageio.ImageIO;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+import ch.stefo.mcplugins.config.ConfigWriter;
+import ch.stefo.mcplugins.download.IconDownloader;
+import ch.stefo.mcplugins.image.IconProcessor;
+import ch.stefo.mcplugins.image.IconResampler;
+import ch.stefo.mcplugins.image.InputIconProcessor;
+import ch.stefo.mcplugins.library.IconCache;
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.library.IconFolderWatcher;
+import ch.stefo.mcplugins.library.IconIds;
+import ch.stefo.mcplugins.library.IconIndex;
+import ch.stefo.mcplugins.library.IconLibrary;
+import ch.stefo.mcplugins.library.IconLibraryLoader;
+import ch.stefo.mcplugins.library.LibraryLoadQueue;
+import ch.stefo.mcplugins.library.SharedIconStore;
+import ch.stefo.mcplugins.metrics.LatencyHistogram;
+import ch.stefo.mcplugins.metrics.AnalyticsFileWriter;
+import ch.stefo.mcplugins.metrics.MetricsFileWriter;
+import ch.stefo.mcplugins.metrics.PingAnalytics;
+import ch.stefo.mcplugins.metrics.PluginMetrics;
+import ch.stefo.mcplugins.metrics.Timing;
+import ch.stefo.mcplugins.ping.LibraryPublisher;
+import ch.stefo.mcplugins.ping.PingHandler;
+import ch.stefo.mcplugins.ping.PingRateLimiter;
+import ch.stefo.mcplugins.ping.ThrottledResponse;
+import ch.stefo.mcplugins.player.PlayerAddressIndex;
+import ch.stefo.mcplugins.render.IconRenderer;
+import ch.stefo.mcplugins.render.OverlayLayer;
+import ch.stefo.mcplugins.render.OverlayLayerFactory;
+import ch.stefo.mcplugins.render.OverlayLayers;
+import ch.stefo.mcplugins.render.RenderState;
+import ch.stefo.mcplugins.schedule.IconSchedule;
+import ch.stefo.mcplugins.schedule.ScheduleResolver;
+import ch.stefo.mcplugins.schedule.ScheduleRule;
+import ch.stefo.mcplugins.selection.IconResolver;
+import ch.stefo.mcplugins.selection.IconSelection;
+import ch.stefo.mcplugins.selection.IconSelectors;
+import ch.stefo.mcplugins.selection.SelectionOptions;
+import ch.stefo.mcplugins.util.Ticks;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.server.ServerListPingEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.util.CachedServerIcon;
 
 public final class IconicServer extends JavaPlugin implements Listener {
 
-    // List of all icon files available
-    private List<File> icons = new ArrayList<>();
+    // All loaded icons, replaced as a whole on every refresh
+    private volatile IconLibrary library = IconLibrary.EMPTY;
 
-    // List of cached server icons for quick access
-    private List<CachedServerIcon> cachedIcons = new ArrayList<>();
+    // Loads the icon library in parallel off the main thread
+    private IconLibraryLoader libraryLoader;
 
-    // Map of date-specific icons (e.g., for holidays)
-    private Map<String, File> dateSpecificIcons = new HashMap<>();
+    // Runs full reloads and folder-change loads one after the other
+    private LibraryLoadQueue libraryLoads;
+
+    // Keeps recently used icons loaded within icon-cache-budget-kb, or null if all icons stay loaded
+    private IconCache iconCache;
+
+    // Applies changes of the icons folder to the library, or null if watching is disabled
+    private IconFolderWatcher iconFolderWatcher;
+
+    // Decodes, resizes and writes new icons
+    private IconProcessor iconProcessor;
+
+    // Runs /icon download off the main thread
+    private IconDownloader iconDownloader;
+
+    // Processes the input icons folder in parallel
+    private InputIconProcessor inputIconProcessor;
+
+    // Which player last joined from which address, used to show player icons on ping
+    private PlayerAddressIndex playerAddresses;
+
+    // File the player addresses are kept in across restarts
+    private File playerAddressesFile;
+
+    // Ping counters and operation timings, shown by /icon stats
+    private PluginMetrics metrics = PluginMetrics.DISABLED;
+
+    // Which icons were shown to which addresses and led to joins, or null if analytics are disabled
+    private PingAnalytics pingAnalytics;
+    private AnalyticsFileWriter analyticsWriter;
+
+    // Picks the icon for each ping, holds the compiled selection, scheduled icon and player icons
+    private PingHandler pingHandler;
+
+    // Limits pings per address and during ping storms
+    private PingRateLimiter pingLimiter = PingRateLimiter.UNLIMITED;
+
+    // Icon names of the date-specific icons (e.g., for holidays), keyed by dd.MM
+    private Map<String, String> dateSpecificIcons = new TreeMap<>();
+
+    // Takes the icons of the date-specific-icons and icon-schedule rules from the library
+    private ScheduleResolver scheduleResolver;
+
+    // Publishes loaded libraries to the ping handler
+    private LibraryPublisher libraryPublisher;
+
+    // Task ID of the timer firing at the next schedule transition
+    private int scheduleTaskId = -1;
 
     // Folders for storing icons and input icons
     private File iconsFolder;
     private File inputIconsFolder;
 
-    // Random number generator for selecting icons randomly
-    private Random random = new Random();
-
-    // The current icon used in cycle mode
-    private CachedServerIcon currentIcon;
-
     // Task ID for the icon rotation task
     private int rotationTaskId = -1;
 
-    // Index of the last icon used in cycle mode
-    private int lastIconIndex = -1;
+    // Sorted names and IDs of the library icons, rebuilt with every library
+    private volatile IconIndex iconIndex = IconIndex.EMPTY;
+
+    // Stable IDs of the icon names, kept across restarts in iconIdsFile
+    private final IconIds iconIds = new IconIds();
+    private File iconIdsFile;
+
+    // Icons shown per page of /icon list, and names offered by tab completion at most
+    private static final int LIST_PAGE_SIZE = 10;
+    private static final int MAX_COMPLETIONS = 50;
+
+    // Subcommands of /icon, each with the permission icon.<subcommand>
+    private static final List<String> SUBCOMMANDS = List.of("refresh", "download", "set", "list", "process", "setinterval",
+            "setmode", "adddateicon", "removedateicon", "schedule", "rename", "stats", "analytics");
+
+    // Draws overlays with live state over the selected icons, or null if rendered-icon is disabled
+    private IconRenderer iconRenderer;
+
+    // Icon folder shared with other servers, or null if not configured
+    private SharedIconStore sharedStore;
+
+    // Whether this server publishes its icons to the shared store, rather than mirroring it
+    private boolean sharedStorePublisher;
 
-    // Mode for icon selection (cycle, random, per-ping-random, static)
-    private String iconSelectionMode;
+    // Saves configuration changes made by commands shortly after they are made
+    private ConfigWriter configWriter;
 
-    // The default icon to use when no special icons are set
-    private CachedServerIcon defaultIcon;
+    // Time after a configuration change until it is saved, so bursts of commands are saved at once
+    private static final long CONFIG_SAVE_DELAY_MILLIS = 2000L;
 
     @Override
     public void onEnable() {
@@ -70,81 +174,570 @@ public final class IconicServer extends JavaPlugin implements Listener {
 
         // Load configuration and settings
         saveDefaultConfig();
+        configWriter = new ConfigWriter(getConfig(), new File(getDataFolder(), "config.yml"), CONFIG_SAVE_DELAY_MILLIS, getLogger());
+        int reloadThreads = getConfig().getInt("reload-threads", 0);
+        if (reloadThreads <= 0) {
+            reloadThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        IconResampler.Filter resizeFilter = IconResampler.Filter.parse(getConfig().getString("resize-filter", "lanczos"));
+        if (resizeFilter == null) {
+            getLogger().warning("Unknown resize-filter, using lanczos. Valid filters are: box, bilinear, lanczos");
+            resizeFilter = IconResampler.Filter.LANCZOS;
+        }
+        long maxImagePixels = getConfig().getLong("max-image-megapixels", IconProcessor.DEFAULT_MAX_PIXELS / 1_000_000L) * 1_000_000L;
+        iconProcessor = new IconProcessor(new IconResampler(resizeFilter, getConfig().getBoolean("resize-pre-reduce", true)),
+                maxImagePixels > 0 ? maxImagePixels : IconProcessor.DEFAULT_MAX_PIXELS);
+        File packFile = getConfig().getBoolean("icon-pack", true) ? new File(getDataFolder(), "icons.pack") : null;
+        long cacheBudget = getConfig().getLong("icon-cache-budget-kb", 0) * 1024L;
+        libraryLoader = new IconLibraryLoader(Bukkit::loadServerIcon, packFile, getLogger(), reloadThreads, cacheBudget > 0);
+        libraryLoads = new LibraryLoadQueue(getLogger());
+        if (cacheBudget > 0) {
+            iconCache = new IconCache(cacheBudget, libraryLoader::loadIcon);
+        }
+        iconDownloader = new IconDownloader(Math.max(1, getConfig().getInt("download-threads", 2)),
+                Math.max(1, getConfig().getInt("download-queue-size", 16)), IconDownloader.DEFAULT_MAX_BYTES, true);
+        int processThreads = getConfig().getInt("process-threads", 0);
+        if (processThreads <= 0) {
+            processThreads = Runtime.getRuntime().availableProcessors();
+        }
+        inputIconProcessor = new InputIconProcessor(iconProcessor, getLogger(), processThreads);
+        startSharedStore();
+        startMetrics();
+        loadPlayerAddresses();
+        pingHandler = new PingHandler(playerAddresses, metrics, startPingLimiter(), throttledResponse());
+        startIconRenderer();
+        scheduleResolver = new ScheduleResolver(iconCache != null ? iconCache::load : libraryLoader::loadIcon,
+                this::runLater, this::applySchedule, getLogger());
+        libraryPublisher = new LibraryPublisher(pingHandler, scheduleResolver, iconCache,
+                Math.max(0, getConfig().getInt("icon-cache-prefetch", 3)), libraryLoader::loadIcon, this::runLater,
+                iconRenderer, getLogger());
+        startAnalytics();
+        loadIconIds();
+        // Resolve the scheduled icon and set a timer for the next schedule transition
         loadDateSpecificIcons();
-        iconSelectionMode = getConfig().getString("icon-selection-mode", "cycle");
+        pingHandler.setSelection(IconSelection.compile(getConfig().getString("icon-selection-mode", "cycle"),
+                Collections.emptyList(), null, IconResolver.LOADED, loadSelectionOptions()));
 
-        // Process any new icons placed in the input folder
-        processInputIcons();
+        // Process any new icons placed in the input folder, which mirrors of a shared store leave to the publisher
+        if (sharedStore == null || sharedStorePublisher) {
+            processInputIcons(null);
+        }
 
         // Load icons from the icons folder
         refreshIconList();
 
+        // Watch the icons folder for changes
+        if (getConfig().getBoolean("watch-icons-folder", true)) {
+            startIconFolderWatcher();
+        }
+
         // Register event listeners
         Bukkit.getPluginManager().registerEvents(this, this);
 
-        // Start icon rotation task if in cycle mode
-        if (iconSelectionMode.equalsIgnoreCase("cycle")) {
-            startIconRotationTask();
-        }
+        // Start the icon rotation task, modes without rotation ignore it
+        startIconRotationTask();
 
         // Register command executor
         getCommand("icon").setExecutor(this);
     }
 
+    @Override
+    public void onDisable() {
+        if (configWriter != null) {
+            try {
+                configWriter.close();
+            } catch (IOException e) {
+                getLogger().severe("Failed to save the configuration, recent changes made by commands are lost: " + e.getMessage());
+            }
+        }
+        if (iconFolderWatcher != null) {
+            iconFolderWatcher.close();
+        }
+        if (sharedStore != null) {
+            sharedStore.shutdown();
+        }
+        if (iconRenderer != null) {
+            iconRenderer.shutdown();
+        }
+        if (libraryLoader != null) {
+            libraryLoader.shutdown();
+        }
+        if (iconDownloader != null) {
+            iconDownloader.shutdown();
+        }
+        if (inputIconProcessor != null) {
+            inputIconProcessor.shutdown();
+        }
+        savePlayerAddresses();
+        saveIconIds();
+        writeAnalytics();
+    }
+
     /**
-     * Loads date-specific icons from the configuration file.
+     * Reads the icon weights and the no-repeat setting from the configuration.
+     * Weights are read from the leaves of icon-weights, so file names containing dots are kept whole.
+     *
+     * @return The selection options.
+     */
+    private SelectionOptions loadSelectionOptions() {
+        Map<String, Double> weights = new HashMap<>();
+        ConfigurationSection section = getConfig().getConfigurationSection("icon-weights");
+        if (section != null) {
+            for (String name : section.getKeys(true)) {
+                if (!section.isConfigurationSection(name)) {
+                    double weight = section.getDouble(name, 1);
+                    if (weight < 0) {
+                        getLogger().warning("Negative weight of icon " + name + " is treated as 0.");
+                    }
+                    weights.put(name, weight);
+                }
+            }
+        }
+        return new SelectionOptions(weights, getConfig().getBoolean("random-no-repeat", false));
+    }
+
+    /**
+     * Creates the ping rate limiter from the configuration and starts sampling the global ping rate.
+     *
+     * @return The limiter.
+     */
+    private PingRateLimiter startPingLimiter() {
+        pingLimiter = new PingRateLimiter(getConfig().getDouble("ping-limit-per-second", 0),
+                getConfig().getInt("ping-limit-burst", 20), getConfig().getLong("ping-limit-global-per-second", 0));
+        if (pingLimiter.isEnabled()) {
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+                if (pingLimiter.sample()) {
+                    if (pingLimiter.isStorm()) {
+                        getLogger().warning("Ping storm detected (" + pingLimiter.getRate() + " pings/s), answering all pings with the "
+                                + "throttled response.");
+                    } else {
+                        getLogger().info("Ping storm is over (" + pingLimiter.getRate() + " pings/s).");
+                    }
+                }
+            }, 20L, 20L);
+        }
+        return pingLimiter;
+    }
+
+    private ThrottledResponse throttledResponse() {
+        ThrottledResponse response = ThrottledResponse.parse(getConfig().getString("ping-limit-response", "default"));
+        if (response == null) {
+            getLogger().warning("Unknown ping-limit-response, using default. Valid responses are: default, none");
+            response = ThrottledResponse.DEFAULT;
+        }
+        return response;
+    }
+
+    /**
+     * Creates the renderer of the rendered-icon layers if enabled, and publishes the server state to it every second.
+     */
+    private void startIconRenderer() {
+        ConfigurationSection settings = getConfig().getConfigurationSection("rendered-icon");
+        if (settings == null || !settings.getBoolean("enabled", false)) {
+            return;
+        }
+        List<OverlayLayer> layers = new ArrayList<>();
+        for (String name : settings.getStringList("layers")) {
+            OverlayLayerFactory factory = OverlayLayers.get(name);
+            if (factory == null) {
+                getLogger().warning("Unknown overlay layer " + name + ". Valid layers are: " + String.join(", ", OverlayLayers.names()));
+                continue;
+            }
+            try {
+                layers.add(factory.create(settings));
+            } catch (IllegalArgumentException e) {
+                getLogger().warning("Invalid settings of overlay layer " + name + ": " + e.getMessage());
+            }
+        }
+        if (layers.isEmpty()) {
+            getLogger().warning("rendered-icon is enabled but has no valid layers.");
+            return;
+        }
+        iconRenderer = new IconRenderer(layers, Bukkit::loadServerIcon, settings.getInt("max-icons", 256), getLogger());
+        pingHandler.setRenderer(iconRenderer);
+        Bukkit.getScheduler().runTaskTimer(this, () -> iconRenderer.setState(new RenderState(Bukkit.getOnlinePlayers().size(),
+                Bukkit.getMaxPlayers(), Bukkit.hasWhitelist(), LocalDateTime.now())), 0L, 20L);
+    }
+
+    /**
+     * Enables metrics if configured and starts writing them to the metrics file periodically.
+     */
+    private void startMetrics() {
+        if (!getConfig().getBoolean("metrics-enabled", true)) {
+            return;
+        }
+        metrics = new PluginMetrics(true);
+        int interval = getConfig().getInt("metrics-file-interval", 60);
+        if (interval > 0) {
+            MetricsFileWriter writer = new MetricsFileWriter(new File(getDataFolder(), "metrics.log"),
+                    getConfig().getLong("metrics-file-max-kb", 1024) * 1024L, getConfig().getInt("metrics-file-max-files", 3));
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+                try {
+                    writer.write(metrics, iconNamesByHash());
+                } catch (IOException e) {
+                    getLogger().warning("Failed to write metrics: " + e.getMessage());
+                }
+            }, interval * 20L, interval * 20L);
+        }
+    }
+
+    /**
+     * Starts recording which icons lead to joins if analytics are enabled, and writes the analytics
+     * to the analytics file periodically.
+     */
+    private void startAnalytics() {
+        if (!getConfig().getBoolean("analytics-enabled", true)) {
+            return;
+        }
+        pingAnalytics = new PingAnalytics(Math.max(1, getConfig().getLong("analytics-join-window", 300)) * 1000L,
+                Math.max(1, getConfig().getInt("analytics-tracked-addresses", 65536)));
+        pingHandler.setAnalytics(pingAnalytics);
+        int interval = getConfig().getInt("analytics-file-interval", 300);
+        if (interval > 0) {
+            analyticsWriter = new AnalyticsFileWriter(new File(getDataFolder(), "analytics.json"));
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, this::writeAnalytics, interval * 20L, interval * 20L);
+        }
+    }
+
+    private void writeAnalytics() {
+        if (analyticsWriter == null) {
+            return;
+        }
+        try {
+            analyticsWriter.write(pingAnalytics.report(iconNamesByHash()));
+        } catch (IOException e) {
+            getLogger().warning("Failed to write analytics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The names of the library and schedule icons keyed by content hash, for metrics and analytics.
+     * Files with the same content are named after the first of them.
+     */
+    private Map<String, String> iconNamesByHash() {
+        Map<String, String> names = new HashMap<>();
+        for (IconEntry entry : library.getEntries()) {
+            names.putIfAbsent(entry.hash(), entry.name());
+        }
+        scheduleResolver.getIcons().forEach((name, entry) -> names.putIfAbsent(entry.hash(), name));
+        return names;
+    }
+
+    /**
+     * Loads the saved player addresses and starts saving them periodically.
+     */
+    private void loadPlayerAddresses() {
+        playerAddresses = new PlayerAddressIndex(Math.max(1, getConfig().getInt("player-address-max-entries", 10000)),
+                TimeUnit.DAYS.toMillis(Math.max(1, getConfig().getInt("player-address-expiry-days", 30))));
+        playerAddressesFile = new File(getDataFolder(), "player-addresses.txt");
+        try {
+            playerAddresses.load(playerAddressesFile);
+        } catch (IOException e) {
+            getLogger().warning("Failed to load player addresses: " + e.getMessage());
+        }
+        // Save every 5 minutes, only writes if addresses changed
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, this::savePlayerAddresses, 6000L, 6000L);
+    }
+
+    private void savePlayerAddresses() {
+        if (playerAddresses == null) {
+            return;
+        }
+        try {
+            playerAddresses.save(playerAddressesFile);
+        } catch (IOException e) {
+            getLogger().warning("Failed to save player addresses: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the saved icon IDs, so icons keep their IDs across restarts.
+     */
+    private void loadIconIds() {
+        iconIdsFile = new File(getDataFolder(), "icon-ids.txt");
+        try {
+            iconIds.load(iconIdsFile);
+        } catch (IOException e) {
+            getLogger().warning("Failed to load icon IDs: " + e.getMessage());
+        }
+    }
+
+    private void saveIconIds() {
+        if (iconIdsFile == null) {
+            return;
+        }
+        try {
+            iconIds.save(iconIdsFile);
+        } catch (IOException e) {
+            getLogger().warning("Failed to save icon IDs: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The icon file names of player-icons keyed by player name.
+     */
+    private Map<String, String> playerIconNames() {
+        if (!getConfig().isConfigurationSection("player-icons")) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> names = new HashMap<>();
+        for (String playerName : getConfig().getConfigurationSection("player-icons").getKeys(false)) {
+            names.put(playerName, getConfig().getString("player-icons." + playerName));
+        }
+        return names;
+    }
+
+    /**
+     * Loads date-specific icons from the configuration file and compiles the schedule.
+     * Keys are read from the leaves of the section, as the dot in dd.MM nests the keys once saved.
      */
     public void loadDateSpecificIcons() {
         dateSpecificIcons.clear();
-        if (getConfig().isConfigurationSection("date-specific-icons")) {
-            for (String dateKey : getConfig().getConfigurationSection("date-specific-icons").getKeys(false)) {
-                String iconName = getConfig().getString("date-specific-icons." + dateKey);
-                File iconFile = new File(iconsFolder, iconName);
-                if (iconFile.exists()) {
-                    dateSpecificIcons.put(dateKey, iconFile);
-                } else {
-                    getLogger().warning("Icon file " + iconName + " for date " + dateKey + " does not exist.");
+        ConfigurationSection section = getConfig().getConfigurationSection("date-specific-icons");
+        if (section != null) {
+            for (String dateKey : section.getKeys(true)) {
+                if (section.isConfigurationSection(dateKey)) {
+                    continue;
+                }
+                String iconName = section.getString(dateKey);
+                MonthDay day;
+                try {
+                    day = ScheduleRule.parseDay(dateKey);
+                } catch (IllegalArgumentException e) {
+                    getLogger().warning("Invalid date-specific icon date: " + e.getMessage());
+                    continue;
+                }
+                dateSpecificIcons.put(ScheduleRule.forDay(day, iconName).name(), iconName);
+            }
+        }
+        compileSchedule();
+    }
+
+    /**
+     * Sets or removes the date-specific icon of a day in the configuration, replacing entries
+     * written in another form of the same date (such as 1.12 for 01.12).
+     *
+     * @param config   The configuration.
+     * @param dateKey  The day, as dd.MM.
+     * @param iconName The icon file name, or null to remove the icon.
+     */
+    private static void setDateIcon(FileConfiguration config, String dateKey, String iconName) {
+        ConfigurationSection section = config.getConfigurationSection("date-specific-icons");
+        if (section != null) {
+            MonthDay day = ScheduleRule.parseDay(dateKey);
+            for (String key : section.getKeys(true)) {
+                if (!section.isConfigurationSection(key) && isSameDay(key, day)) {
+                    section.set(key, null);
+                }
+            }
+            // Drop the sections left empty, as 25.12 is stored as 12 within 25
+            for (String key : section.getKeys(false)) {
+                if (section.isConfigurationSection(key) && section.getConfigurationSection(key).getKeys(false).isEmpty()) {
+                    section.set(key, null);
                 }
             }
         }
+        if (iconName != null) {
+            config.set("date-specific-icons." + dateKey, iconName);
+        }
+    }
+
+    private static boolean isSameDay(String key, MonthDay day) {
+        try {
+            return ScheduleRule.parseDay(key).equals(day);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compiles the date-specific icons and the icon-schedule rules and resolves their icons from the library.
+     */
+    private void compileSchedule() {
+        scheduleResolver.setRules(ScheduleResolver.compile(dateSpecificIcons, getConfig().getMapList("icon-schedule"), getLogger()));
+    }
+
+    /**
+     * Publishes the icon of the active schedule rule and sets a timer for the next transition.
+     * The timer fires at least once a day, so clock changes are picked up.
+     */
+    private void applySchedule() {
+        if (scheduleTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(scheduleTaskId);
+            scheduleTaskId = -1;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        pingHandler.setScheduledEntry(scheduleResolver.active(now));
+        if (scheduleResolver.getSchedule().getRules().isEmpty()) {
+            return;
+        }
+        long ticks = Ticks.until(now, scheduleResolver.nextUpdate(now), ZoneId.systemDefault());
+        scheduleTaskId = Bukkit.getScheduler().scheduleSyncDelayedTask(this, this::applySchedule, ticks);
     }
 
     /**
      * Refreshes the list of icons and caches them for quick access.
      */
     public void refreshIconList() {
-        icons.clear();
-        cachedIcons.clear();
-
-        if (iconsFolder.exists()) {
-            File[] files = iconsFolder.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
-            if (files != null) {
-                icons.addAll(Arrays.asList(files));
-                for (File iconFile : icons) {
-                    try {
-                        CachedServerIcon icon = Bukkit.loadServerIcon(iconFile);
-                        cachedIcons.add(icon);
-                    } catch (Exception e) {
-                        getLogger().warning("Failed to load icon " + iconFile.getName() + ": " + e.getMessage());
+        refreshIconList(null);
+    }
+
+    /**
+     * Reloads the icon library off the main thread and swaps it in on the main thread once complete.
+     * Pings keep using the previous library until then. Must be called on the main thread.
+     *
+     * @param sender The sender to report the result to, or null.
+     */
+    public void refreshIconList(CommandSender sender) {
+        libraryLoads.queue(published -> libraryLoader.load(iconsFolder, library).whenComplete((result, error) -> {
+            if (!isEnabled()) {
+                return;
+            }
+            Bukkit.getScheduler().runTask(this, () -> {
+                try {
+                    if (error != null) {
+                        getLogger().warning("Failed to refresh icon list: " + error.getMessage());
+                        if (sender != null) {
+                            sender.sendMessage("Failed to refresh icon list: " + error.getMessage());
+                        }
+                        return;
+                    }
+                    metrics.recordTiming("refresh", result.elapsedNanos());
+                    publishLibrary(result.library());
+                    if (sender != null) {
+                        sender.sendMessage("Icon list refreshed: " + result.library().size() + " icons loaded ("
+                                + result.library().distinctIcons() + " distinct, " + result.fromPack() + " from pack, "
+                                + result.decoded() + " decoded), " + result.failed().size() + " failed, in "
+                                + result.elapsedMillis() + " ms.");
                     }
+                } finally {
+                    published.complete(null);
                 }
-            }
+            });
+        }));
+    }
+
+    /**
+     * Starts watching the icons folder, applying created, modified and deleted files to the library.
+     */
+    private void startIconFolderWatcher() {
+        try {
+            iconFolderWatcher = new IconFolderWatcher(iconsFolder.toPath(), 500L,
+                    names -> Bukkit.getScheduler().runTask(this, () -> applyIconChanges(names)),
+                    () -> Bukkit.getScheduler().runTask(this, () -> refreshIconList()), getLogger());
+            iconFolderWatcher.start();
+        } catch (IOException e) {
+            getLogger().warning("Failed to watch icons folder, use /icon refresh after changes: " + e.getMessage());
         }
+    }
 
-        // Load default icon if set
-        String defaultIconName = getConfig().getString("default-icon");
-        if (defaultIconName != null) {
-            File defaultIconFile = new File(iconsFolder, defaultIconName);
-            if (defaultIconFile.exists()) {
+    /**
+     * Loads only the changed icon files and applies them to the library on the main thread.
+     * Must be called on the main thread.
+     *
+     * @param names Names of the created, modified or deleted files.
+     */
+    private void applyIconChanges(Set<String> names) {
+        libraryLoads.queue(published -> libraryLoader.loadChanges(iconsFolder, names, library).whenComplete((changes, error) -> {
+            if (!isEnabled()) {
+                return;
+            }
+            Bukkit.getScheduler().runTask(this, () -> {
                 try {
-                    defaultIcon = Bukkit.loadServerIcon(defaultIconFile);
-                } catch (Exception e) {
-                    getLogger().warning("Failed to load default icon: " + e.getMessage());
+                    if (error != null) {
+                        getLogger().warning("Failed to apply icon folder changes: " + error.getMessage());
+                        return;
+                    }
+                    metrics.recordTiming("folder-change", changes.elapsedNanos());
+                    publishLibrary(library.withChanges(changes.updated(), changes.removed()));
+                    getLogger().info("Icons folder changed: " + changes.updated().size() + " icons loaded, "
+                            + changes.removed().size() + " removed.");
+                } finally {
+                    published.complete(null);
                 }
-            } else {
-                getLogger().warning("Default icon file " + defaultIconName + " does not exist.");
-            }
+            });
+        }));
+    }
+
+    /**
+     * Reloads the library after the plugin itself changed the icons folder.
+     * Not needed while the folder watcher is running, as it picks up the change.
+     */
+    private void iconsChanged() {
+        if (iconFolderWatcher == null) {
+            refreshIconList();
+        }
+    }
+
+    /**
+     * Swaps in a new icon library and recompiles the selection for it.
+     * Must be called on the main thread.
+     *
+     * @param newLibrary The library to publish.
+     */
+    private void publishLibrary(IconLibrary newLibrary) {
+        library = newLibrary;
+        List<String> names = new ArrayList<>(newLibrary.size());
+        for (IconEntry entry : newLibrary.getEntries()) {
+            names.add(entry.name());
+        }
+        iconIndex = new IconIndex(newLibrary.getEntries(), iconIds.assign(names, iconsFolder));
+        Bukkit.getScheduler().runTaskAsynchronously(this, this::saveIconIds);
+        libraryPublisher.publish(newLibrary, getConfig().getString("default-icon"), playerIconNames());
+        if (sharedStore != null && sharedStorePublisher) {
+            sharedStore.publish(newLibrary.getEntries()).whenComplete((manifest, error) -> {
+                if (error != null) {
+                    getLogger().warning("Failed to publish icons to the shared store: " + error.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Opens the shared store if one is configured. Mirrors check it for new versions periodically.
+     */
+    private void startSharedStore() {
+        String path = getConfig().getString("shared-store", "");
+        if (path == null || path.isEmpty()) {
+            return;
         }
+        sharedStorePublisher = getConfig().getBoolean("shared-store-publisher", false);
+        sharedStore = new SharedIconStore(new File(path), new File(getDataFolder(), "shared-store.manifest"), getLogger());
+        if (!sharedStorePublisher) {
+            long ticks = Math.max(1, getConfig().getInt("shared-store-poll-interval", 10)) * 20L;
+            Bukkit.getScheduler().runTaskTimer(this, this::syncSharedStore, 0L, ticks);
+        }
+    }
+
+    /**
+     * Mirrors a new version of the shared store into the icons folder and loads the changed icons.
+     */
+    private void syncSharedStore() {
+        sharedStore.sync(iconsFolder).whenComplete((names, error) -> {
+            if (error != null) {
+                getLogger().warning("Failed to sync the shared store: " + error.getMessage());
+                return;
+            }
+            if (!names.isEmpty()) {
+                getLogger().info("Shared store version " + sharedStore.getVersion() + ": " + names.size() + " icons changed.");
+                // The folder watcher picks up the copied files itself
+                if (iconFolderWatcher == null) {
+                    runLater(() -> applyIconChanges(names));
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A line describing the size and the counters of the icon cache.
+     */
+    private String iconCacheSummary() {
+        long hits = iconCache.getHits();
+        long lookups = hits + iconCache.getMisses();
+        return ChatColor.YELLOW + "Icon cache: " + ChatColor.RESET + iconCache.getResidentCount() + " icons, "
+                + iconCache.getResidentBytes() / 1024 + " of " + iconCache.getBudgetBytes() / 1024 + " KB, "
+                + hits + " hits, " + iconCache.getMisses() + " misses ("
+                + (lookups > 0 ? hits * 100 / lookups : 100) + "% hit rate), " + iconCache.getEvictions() + " evictions";
     }
 
     /**
@@ -153,49 +746,23 @@ public final class IconicServer extends JavaPlugin implements Listener {
      */
     @EventHandler
     public void onServerPing(ServerListPingEvent event) {
-        // Check for date-specific icon
-        String today = new SimpleDateFormat("dd.MM").format(new Date());
-        if (dateSpecificIcons.containsKey(today)) {
-            File iconFile = dateSpecificIcons.get(today);
-            try {
-                event.setServerIcon(Bukkit.loadServerIcon(iconFile));
-            } catch (Exception e) {
-                getLogger().severe("Error setting date-specific server icon: " + e.getMessage());
-            }
-            return;
+        CachedServerIcon icon = pingHandler.handle(event.getAddress());
+        if (icon != null) {
+            event.setServerIcon(icon);
         }
+    }
 
-        // Handle icon selection based on mode
-        if (iconSelectionMode.equalsIgnoreCase("static")) {
-            // Use the default icon
-            if (defaultIcon != null) {
-                event.setServerIcon(defaultIcon);
-            }
-        } else if (iconSelectionMode.equalsIgnoreCase("random")) {
-            // Random icon for all players
-            if (!cachedIcons.isEmpty()) {
-                event.setServerIcon(cachedIcons.get(random.nextInt(cachedIcons.size())));
-            } else if (defaultIcon != null) {
-                event.setServerIcon(defaultIcon);
-            }
-        } else if (iconSelectionMode.equalsIgnoreCase("per-ping-random")) {
-            // Random icon per ping
-            if (!cachedIcons.isEmpty()) {
-                event.setServerIcon(cachedIcons.get(random.nextInt(cachedIcons.size())));
-            } else if (defaultIcon != null) {
-                event.setServerIcon(defaultIcon);
-            }
-        } else if (iconSelectionMode.equalsIgnoreCase("cycle")) {
-            // Cycle through icons
-            if (currentIcon != null) {
-                event.setServerIcon(currentIcon);
-            } else if (defaultIcon != null) {
-                event.setServerIcon(defaultIcon);
-            }
-        } else {
-            // Use default icon if set
-            if (defaultIcon != null) {
-                event.setServerIcon(defaultIcon);
+    /**
+     * Event handler for when a player joins.
+     * Remembers the player's address for player icons, and counts the join for the icon last shown to it.
+     */
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (event.getPlayer().getAddress() != null) {
+            InetAddress address = event.getPlayer().getAddress().getAddress();
+            playerAddresses.record(address, event.getPlayer().getName());
+            if (pingAnalytics != null) {
+                pingAnalytics.recordJoin(address);
             }
         }
     }
@@ -207,7 +774,7 @@ public final class IconicServer extends JavaPlugin implements Listener {
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         // Check if arguments are provided
         if (args.length == 0) {
-            sender.sendMessage("Usage: /icon <refresh | download | set | list | process | setinterval | setmode | adddateicon | removedateicon | rename>");
+            sender.sendMessage("Usage: /icon <" + String.join(" | ", SUBCOMMANDS) + ">");
             return true;
         }
 
@@ -219,8 +786,8 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     sender.sendMessage("You do not have permission to use this command.");
                     return true;
                 }
-                refreshIconList();
-                sender.sendMessage("Icon list refreshed.");
+                sender.sendMessage("Refreshing icon list...");
+                refreshIconList(sender);
                 return true;
             }
             case "download" -> {
@@ -230,19 +797,27 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     return true;
                 }
                 if (args.length < 2) {
-                    sender.sendMessage("Usage: /icon download <URL> [name]");
+                    sender.sendMessage("Usage: /icon download <URL> [name] or /icon download <URL> <URL>...");
                     return true;
                 }
-                String url = args[1];
-                String name = null;
-                if (args.length >= 3) {
-                    name = args[2];
-                }
-                try {
-                    downloadIcon(url, name);
-                    sender.sendMessage("Icon downloaded and converted.");
-                } catch (Exception e) {
-                    sender.sendMessage("Error downloading icon: " + e.getMessage());
+                if (args.length >= 3 && args[2].contains("://")) {
+                    // Batch mode, all URLs are fetched concurrently
+                    List<String> urls = Arrays.asList(args).subList(1, args.length);
+                    sender.sendMessage("Downloading " + urls.size() + " icons...");
+                    List<CompletableFuture<File>> downloads = new ArrayList<>();
+                    for (int i = 0; i < urls.size(); i++) {
+                        CompletableFuture<File> download = downloadIcon(sender, urls.get(i), null, i);
+                        if (download == null) {
+                            break;
+                        }
+                        downloads.add(download.exceptionally(e -> null));
+                    }
+                    CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+                        long succeeded = downloads.stream().filter(download -> download.join() != null).count();
+                        sendLater(sender, "Batch download finished: " + succeeded + " of " + urls.size() + " icons downloaded.");
+                    });
+                } else {
+                    downloadIcon(sender, args[1], args.length >= 3 ? args[2] : null, -1);
                 }
                 return true;
             }
@@ -257,19 +832,25 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     return true;
                 }
                 String iconIdentifier = args[1];
-                File iconFile = getIconFileByIdentifier(iconIdentifier);
-                if (iconFile == null) {
+                IconEntry entry = iconIndex.resolve(iconIdentifier);
+                if (entry == null) {
                     sender.sendMessage("Icon " + iconIdentifier + " does not exist.");
                     return true;
                 }
-                getConfig().set("default-icon", iconFile.getName());
-                saveConfig();
-                try {
-                    defaultIcon = Bukkit.loadServerIcon(iconFile);
-                    sender.sendMessage("Default icon set to " + iconFile.getName());
-                } catch (Exception e) {
-                    sender.sendMessage("Failed to set default icon: " + e.getMessage());
-                }
+                configWriter.update(config -> config.set("default-icon", entry.name()));
+                // Icons of lazily loaded libraries are loaded on a loader thread, from the pack if it is current
+                CompletableFuture<CachedServerIcon> loading = entry.icon() != null
+                        ? CompletableFuture.completedFuture(entry.icon()) : libraryLoader.loadIcon(entry);
+                loading.thenAccept(defaultIcon -> runLater(() -> {
+                    if (defaultIcon == null) {
+                        sender.sendMessage("Failed to set default icon " + entry.name() + ", see the server log.");
+                    } else if (entry.name().equals(getConfig().getString("default-icon"))) {
+                        // Not replaced by a later /icon set in the meantime
+                        pingHandler.updateSelection(selection -> selection.withDefaultIcon(defaultIcon));
+                        pingHandler.setDefaultEntry(entry);
+                        sender.sendMessage("Default icon set to " + entry.name());
+                    }
+                }));
                 return true;
             }
             case "list" -> {
@@ -278,10 +859,41 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     sender.sendMessage("You do not have permission to use this command.");
                     return true;
                 }
-                sender.sendMessage("Available icons:");
-                for (int i = 0; i < icons.size(); i++) {
-                    File icon = icons.get(i);
-                    sender.sendMessage(ChatColor.YELLOW + "[" + i + "] " + ChatColor.RESET + icon.getName());
+                // Either /icon list [page] [prefix] or /icon list <prefix>
+                int page = 1;
+                String prefix = "";
+                if (args.length > 1) {
+                    try {
+                        page = Integer.parseInt(args[1]);
+                        prefix = args.length > 2 ? args[2] : "";
+                    } catch (NumberFormatException e) {
+                        prefix = args[1];
+                    }
+                }
+                IconIndex index = iconIndex;
+                int matching = index.count(prefix);
+                int pages = Math.max(1, (matching + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE);
+                if (page < 1 || page > pages) {
+                    sender.sendMessage("Page " + page + " does not exist, there are " + pages + " pages.");
+                    return true;
+                }
+                sender.sendMessage("Icons" + (prefix.isEmpty() ? "" : " starting with " + prefix) + " (" + matching
+                        + ", page " + page + "/" + pages + "):");
+                for (IconIndex.Item item : index.page(prefix, page - 1, LIST_PAGE_SIZE)) {
+                    sender.sendMessage(ChatColor.YELLOW + "[" + item.id() + "] " + ChatColor.RESET + item.entry().name()
+                            + ChatColor.GRAY + " (" + item.entry().size() + " bytes)");
+                }
+                if (page < pages) {
+                    sender.sendMessage(ChatColor.GRAY + "Next page: /icon list " + (page + 1) + (prefix.isEmpty() ? "" : " " + prefix));
+                }
+                long totalBytes = 0;
+                for (IconEntry icon : library.getEntries()) {
+                    totalBytes += icon.size();
+                }
+                sender.sendMessage("Total: " + library.size() + " icons, " + totalBytes + " bytes, " + iconProcessor.getBytesSaved()
+                        + " bytes saved by PNG optimization since startup.");
+                if (iconCache != null) {
+                    sender.sendMessage(iconCacheSummary());
                 }
                 return true;
             }
@@ -291,8 +903,16 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     sender.sendMessage("You do not have permission to use this command.");
                     return true;
                 }
-                processInputIcons();
-                sender.sendMessage("Processing input icons...");
+                if (sharedStore != null && !sharedStorePublisher) {
+                    sender.sendMessage("Icons of this server come from the shared store, process input icons on the publishing server.");
+                    return true;
+                }
+                if (inputIconProcessor.isRunning()) {
+                    sender.sendMessage("Input icons are already being processed, you will get the result when done.");
+                } else {
+                    sender.sendMessage("Processing input icons...");
+                }
+                processInputIcons(sender);
                 return true;
             }
             case "setinterval" -> {
@@ -311,8 +931,7 @@ public final class IconicServer extends JavaPlugin implements Listener {
                         sender.sendMessage("Interval must be positive.");
                         return true;
                     }
-                    getConfig().set("icon-rotation-interval", interval);
-                    saveConfig();
+                    configWriter.update(config -> config.set("icon-rotation-interval", interval));
                     // Restart rotation task
                     if (rotationTaskId != -1) {
                         Bukkit.getScheduler().cancelTask(rotationTaskId);
@@ -331,26 +950,18 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     return true;
                 }
                 if (args.length < 2) {
-                    sender.sendMessage("Usage: /icon setmode <static|cycle|random|per-ping-random>");
+                    sender.sendMessage("Usage: /icon setmode <" + String.join("|", IconSelectors.modes()) + ">");
                     return true;
                 }
                 String mode = args[1].toLowerCase();
-                if (!mode.equals("static") && !mode.equals("cycle") && !mode.equals("random") && !mode.equals("per-ping-random")) {
-                    sender.sendMessage("Invalid mode. Valid modes are: static, cycle, random, per-ping-random");
+                if (IconSelectors.get(mode) == null) {
+                    sender.sendMessage("Invalid mode. Valid modes are: " + String.join(", ", IconSelectors.modes()));
                     return true;
                 }
-                iconSelectionMode = mode;
-                getConfig().set("icon-selection-mode", mode);
-                saveConfig();
+                pingHandler.updateSelection(selection -> selection.withMode(mode));
+                configWriter.update(config -> config.set("icon-selection-mode", mode));
                 sender.sendMessage("Icon selection mode set to " + mode);
-                // Restart rotation task if necessary
-                if (rotationTaskId != -1) {
-                    Bukkit.getScheduler().cancelTask(rotationTaskId);
-                    rotationTaskId = -1;
-                }
-                if (iconSelectionMode.equalsIgnoreCase("cycle")) {
-                    startIconRotationTask();
-                }
+                libraryPublisher.prefetchUpcoming();
                 return true;
             }
             case "adddateicon" -> {
@@ -363,16 +974,22 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     sender.sendMessage("Usage: /icon adddateicon <dd.MM> <iconName|iconID>");
                     return true;
                 }
-                String dateKey = args[1];
+                String dateKey;
+                try {
+                    dateKey = ScheduleRule.forDay(ScheduleRule.parseDay(args[1]), args[2]).name();
+                } catch (IllegalArgumentException e) {
+                    sender.sendMessage("Invalid date " + args[1] + ", use dd.MM.");
+                    return true;
+                }
                 String dateIconIdentifier = args[2];
                 File dateIconFile = getIconFileByIdentifier(dateIconIdentifier);
                 if (dateIconFile == null) {
                     sender.sendMessage("Icon " + dateIconIdentifier + " does not exist.");
                     return true;
                 }
-                dateSpecificIcons.put(dateKey, dateIconFile);
-                getConfig().set("date-specific-icons." + dateKey, dateIconFile.getName());
-                saveConfig();
+                dateSpecificIcons.put(dateKey, dateIconFile.getName());
+                compileSchedule();
+                configWriter.update(config -> setDateIcon(config, dateKey, dateIconFile.getName()));
                 sender.sendMessage("Added date-specific icon for " + dateKey + ": " + dateIconFile.getName());
                 return true;
             }
@@ -386,11 +1003,17 @@ public final class IconicServer extends JavaPlugin implements Listener {
                     sender.sendMessage("Usage: /icon removedateicon <dd.MM>");
                     return true;
                 }
-                String dateKeyToRemove = args[1];
+                String dateKeyToRemove;
+                try {
+                    dateKeyToRemove = ScheduleRule.forDay(ScheduleRule.parseDay(args[1]), "").name();
+                } catch (IllegalArgumentException e) {
+                    sender.sendMessage("Invalid date " + args[1] + ", use dd.MM.");
+                    return true;
+                }
                 if (dateSpecificIcons.containsKey(dateKeyToRemove)) {
                     dateSpecificIcons.remove(dateKeyToRemove);
-                    getConfig().set("date-specific-icons." + dateKeyToRemove, null);
-                    saveConfig();
+                    compileSchedule();
+                    configWriter.update(config -> setDateIcon(config, dateKeyToRemove, null));
                     sender.sendMessage("Removed date-specific icon for " + dateKeyToRemove);
                 } else {
                     sender.sendMessage("No date-specific icon set for " + dateKeyToRemove);
@@ -424,13 +1047,63 @@ public final class IconicServer extends JavaPlugin implements Listener {
                 }
                 boolean success = oldFile.renameTo(newFile);
                 if (success) {
-                    refreshIconList();
+                    iconIds.rename(oldFile.getName(), newFile.getName());
+                    iconsChanged();
                     sender.sendMessage("Icon renamed from " + oldFile.getName() + " to " + newFile.getName());
                 } else {
                     sender.sendMessage("Failed to rename icon.");
                 }
                 return true;
             }
+            case "stats" -> {
+                // Show ping counters and timings
+                if (!sender.hasPermission("icon.stats")) {
+                    sender.sendMessage("You do not have permission to use this command.");
+                    return true;
+                }
+                sendStats(sender);
+                return true;
+            }
+            case "schedule" -> {
+                // Show the active schedule rule and the upcoming transitions
+                if (!sender.hasPermission("icon.schedule")) {
+                    sender.sendMessage("You do not have permission to use this command.");
+                    return true;
+                }
+                int count = 5;
+                if (args.length > 1) {
+                    try {
+                        count = Math.max(1, Math.min(50, Integer.parseInt(args[1])));
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage("Invalid count.");
+                        return true;
+                    }
+                }
+                sendSchedule(sender, count);
+                return true;
+            }
+            case "analytics" -> {
+                // Show impressions and joins per icon
+                if (!sender.hasPermission("icon.analytics")) {
+                    sender.sendMessage("You do not have permission to use this command.");
+                    return true;
+                }
+                if (pingAnalytics == null) {
+                    sender.sendMessage("Analytics are disabled, set analytics-enabled to true to collect them.");
+                    return true;
+                }
+                int count = 10;
+                if (args.length > 1) {
+                    try {
+                        count = Math.max(1, Math.min(100, Integer.parseInt(args[1])));
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage("Invalid count.");
+                        return true;
+                    }
+                }
+                sendAnalytics(sender, count);
+                return true;
+            }
             default -> {
                 sender.sendMessage("Unknown subcommand.");
                 return true;
@@ -438,160 +1111,279 @@ public final class IconicServer extends JavaPlugin implements Listener {
         }
     }
 
-    /**
-     * Helper method to get an icon file by its name or ID.
-     *
-     * @param identifier The icon name or ID.
-     * @return The icon file, or null if not found.
-     */
-    public File getIconFileByIdentifier(String identifier) {
-        File iconFile = null;
-        try {
-            int iconId = Integer.parseInt(identifier);
-            if (iconId >= 0 && iconId < icons.size()) {
-                iconFile = icons.get(iconId);
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (args.length == 1) {
+            List<String> completions = new ArrayList<>();
+            for (String subcommand : SUBCOMMANDS) {
+                if (subcommand.startsWith(args[0].toLowerCase()) && sender.hasPermission("icon." + subcommand)) {
+                    completions.add(subcommand);
+                }
             }
-        } catch (NumberFormatException e) {
-            iconFile = new File(iconsFolder, identifier);
-            if (!iconFile.exists()) {
-                iconFile = null;
+            return completions;
+        }
+        String subcommand = args[0].toLowerCase();
+        if (!SUBCOMMANDS.contains(subcommand) || !sender.hasPermission("icon." + subcommand)) {
+            return Collections.emptyList();
+        }
+        String partial = args[args.length - 1];
+        boolean iconName = switch (subcommand) {
+            case "set", "rename" -> args.length == 2;
+            case "adddateicon" -> args.length == 3;
+            // The prefix of /icon list [page] [prefix]
+            case "list" -> args.length == 3 || args.length == 2 && !partial.isEmpty() && !Character.isDigit(partial.charAt(0));
+            default -> false;
+        };
+        if (iconName) {
+            return iconIndex.complete(partial, MAX_COMPLETIONS);
+        }
+        Collection<String> options = switch (subcommand) {
+            case "setmode" -> args.length == 2 ? IconSelectors.modes() : Collections.emptyList();
+            case "removedateicon" -> args.length == 2 ? dateSpecificIcons.keySet() : Collections.emptyList();
+            default -> Collections.emptyList();
+        };
+        List<String> completions = new ArrayList<>();
+        for (String option : options) {
+            if (option.startsWith(partial.toLowerCase())) {
+                completions.add(option);
             }
         }
-        return iconFile;
+        return completions;
     }
 
     /**
-     * Downloads an icon from a URL and saves it to the icons folder.
+     * Sends the active schedule rule and the upcoming transitions.
      *
-     * @param urlString The URL of the image.
-     * @param fileName  The desired file name.
-     * @throws IOException If an error occurs during download.
+     * @param sender The receiver.
+     * @param count  The number of transitions.
      */
-    private void downloadIcon(String urlString, String fileName) throws IOException {
-        URL url = new URL(urlString);
-
-        // Check that URL uses HTTPS
-        if (!url.getProtocol().equalsIgnoreCase("https")) {
-            throw new IOException("URL must use HTTPS.");
+    private void sendSchedule(CommandSender sender, int count) {
+        IconSchedule current = scheduleResolver.getSchedule();
+        if (current.getRules().isEmpty()) {
+            sender.sendMessage("No date-specific icons or schedule rules are set.");
+            return;
         }
-
-        // Open connection with timeouts
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setConnectTimeout(5000); // 5 seconds
-        connection.setReadTimeout(5000);
-        connection.setRequestProperty("User-Agent", "Mozilla/5.0");
-
-        // Check HTTP response code
-        int responseCode = connection.getResponseCode();
-        if (responseCode != 200) {
-            throw new IOException("Failed to download image. HTTP response code: " + responseCode);
+        LocalDateTime now = LocalDateTime.now();
+        ScheduleRule active = current.active(now);
+        sender.sendMessage("Schedule: " + current.getRules().size() + " rules, active: "
+                + (active != null ? active.name() + " (" + active.icon() + ")" : "none"));
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("EEE dd.MM HH:mm", Locale.ROOT);
+        for (IconSchedule.Transition transition : current.preview(now, count)) {
+            ScheduleRule rule = transition.rule();
+            sender.sendMessage(transition.at().format(format) + " -> "
+                    + (rule != null ? rule.name() + " (" + rule.icon() + ")" : "none"));
         }
+    }
 
-        // Check content type
-        String contentType = connection.getContentType();
-        if (contentType == null || !contentType.startsWith("image/")) {
-            throw new IOException("URL does not point to an image.");
+    /**
+     * Sends the ping and join totals and the icons shown most, with the joins that followed them.
+     *
+     * @param sender The receiver.
+     * @param count  The number of icons.
+     */
+    private void sendAnalytics(CommandSender sender, int count) {
+        PingAnalytics.Report report = pingAnalytics.report(iconNamesByHash());
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("dd.MM HH:mm", Locale.ROOT);
+        sender.sendMessage(ChatColor.YELLOW + "Analytics since " + LocalDateTime.ofInstant(Instant.ofEpochMilli(report.startMillis()),
+                ZoneId.systemDefault()).format(format) + ": " + ChatColor.RESET + report.pings() + " pings from about "
+                + report.pingers() + " addresses, " + report.joins() + " joins, " + report.matchedJoins() + " within "
+                + pingAnalytics.getWindowMillis() / 60_000L + " min of a ping");
+        if (report.icons().isEmpty()) {
+            sender.sendMessage("No icons shown yet.");
+            return;
+        }
+        for (PingAnalytics.IconCounts icon : report.icons().subList(0, Math.min(count, report.icons().size()))) {
+            sender.sendMessage(icon.name() + ": shown " + icon.impressions() + ", " + icon.conversions() + " joins ("
+                    + String.format(Locale.ROOT, "%.2f", icon.conversionRate()) + "%)");
         }
+        sender.sendMessage("Counts are estimates, kept in " + pingAnalytics.memoryBytes() / 1024 + " KB.");
+    }
 
-        // Limit size (e.g., max 5MB)
-        int contentLength = connection.getContentLength();
-        if (contentLength > 5 * 1024 * 1024) {
-            throw new IOException("Image is too large.");
+    /**
+     * Sends the ping counters, the ping latency and the operation timings.
+     *
+     * @param sender The receiver.
+     */
+    private void sendStats(CommandSender sender) {
+        if (iconCache != null) {
+            sender.sendMessage(iconCacheSummary());
+        }
+        if (pingLimiter.isEnabled()) {
+            sender.sendMessage(ChatColor.YELLOW + "Ping limit: " + ChatColor.RESET + pingLimiter.getThrottledByAddress()
+                    + " throttled per address, " + pingLimiter.getThrottledByStorm() + " during " + pingLimiter.getStorms()
+                    + " storms, " + pingLimiter.getRate() + " pings/s" + (pingLimiter.isStorm() ? ChatColor.RED + " (storm)" : ""));
+        }
+        if (iconRenderer != null) {
+            long lookups = iconRenderer.getHits() + iconRenderer.getMisses();
+            sender.sendMessage(ChatColor.YELLOW + "Rendered icons: " + ChatColor.RESET + iconRenderer.size() + "/" + iconRenderer.getMaxIcons()
+                    + " cached, " + String.format(Locale.ROOT, "%.1f", lookups > 0 ? iconRenderer.getHits() * 100.0 / lookups : 0.0)
+                    + "% hits, " + iconRenderer.getRenders() + " renders (avg "
+                    + String.format(Locale.ROOT, "%.2f", iconRenderer.getAverageRenderNanos() / 1e6) + " ms, max "
+                    + String.format(Locale.ROOT, "%.2f", iconRenderer.getMaxRenderNanos() / 1e6) + " ms), "
+                    + iconRenderer.getEvictions() + " evicted, state "
+                    + iconRenderer.getStateKey());
+        }
+        if (iconProcessor.getSubsampled() > 0 || iconProcessor.getRejected() > 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Large images: " + ChatColor.RESET + iconProcessor.getSubsampled() + " subsampled, "
+                    + iconProcessor.getRejected() + " rejected over " + iconProcessor.getMaxPixels() / 1_000_000L + " megapixels");
+        }
+        if (sharedStore != null) {
+            sender.sendMessage(ChatColor.YELLOW + "Shared store: " + ChatColor.RESET + (sharedStorePublisher ? "publishing" : "mirroring")
+                    + " version " + sharedStore.getVersion() + ", " + sharedStore.getCopied() + " icons copied");
+        }
+        if (configWriter.getChanges() > 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Config: " + ChatColor.RESET + configWriter.getChanges() + " changes saved in "
+                    + configWriter.getWrites() + " writes" + (configWriter.isDirty() ? ", saving soon" : ""));
         }
+        if (!metrics.isEnabled()) {
+            sender.sendMessage("Metrics are disabled, set metrics-enabled to true to collect them.");
+            return;
+        }
+        long seconds = Math.max(1, (System.currentTimeMillis() - metrics.getStartMillis()) / 1000L);
+        long pings = metrics.getPings();
+        sender.sendMessage(ChatColor.YELLOW + "Pings: " + ChatColor.RESET + pings + " in " + seconds + " s ("
+                + String.format(Locale.ROOT, "%.2f", (double) pings / seconds) + "/s)");
+        metrics.getPingsBySource().forEach((source, count) ->
+                sender.sendMessage(ChatColor.GRAY + "  " + source + ": " + count));
 
-        // Read image
-        BufferedImage image = ImageIO.read(connection.getInputStream());
-        connection.disconnect();
+        LatencyHistogram latency = metrics.getPingLatency();
+        long[] buckets = latency.snapshot();
+        sender.sendMessage(ChatColor.YELLOW + "Ping handling: " + ChatColor.RESET
+                + "avg " + (pings > 0 ? latency.getTotalNanos() / pings : 0) + " ns"
+                + ", p50 <= " + latency.percentile(buckets, 50) + " ns"
+                + ", p99 <= " + latency.percentile(buckets, 99) + " ns"
+                + ", max " + latency.getMaxNanos() + " ns");
 
-        if (image == null) {
-            throw new IOException("Failed to read image.");
-        }
+        sender.sendMessage(ChatColor.YELLOW + "Top icons:");
+        metrics.getTopIcons(iconNamesByHash(), 10).forEach((name, count) ->
+                sender.sendMessage(ChatColor.GRAY + "  " + name + ": " + count));
 
-        // Resize image if necessary
-        if (image.getHeight() != 64 || image.getWidth() != 64) {
-            getLogger().info("Downloaded image is not 64x64 pixels. Resizing...");
-            image = resizeToServerIcon(image);
+        for (Map.Entry<String, Timing> entry : metrics.getTimings().entrySet()) {
+            Timing timing = entry.getValue();
+            sender.sendMessage(ChatColor.YELLOW + entry.getKey() + ": " + ChatColor.RESET + timing.getCount() + " times, last "
+                    + timing.getLastMillis() + " ms, avg " + timing.getAverageMillis() + " ms, max " + timing.getMaxMillis() + " ms");
         }
+    }
+
+    /**
+     * Helper method to get an icon file by its name or ID.
+     *
+     * @param identifier The icon name or ID.
+     * @return The icon file, or null if not found.
+     */
+    public File getIconFileByIdentifier(String identifier) {
+        IconEntry entry = iconIndex.resolve(identifier);
+        return entry != null ? entry.file() : null;
+    }
 
+    /**
+     * Queues the download of an icon. The sender is told about progress, completion and errors.
+     *
+     * @param sender     The sender to report to.
+     * @param urlString  The URL of the image.
+     * @param fileName   The desired file name, or null to generate one.
+     * @param batchIndex Position in a batch download, used for generated names, or -1.
+     * @return Future completing with the written icon file, or null if the download queue is full.
+     */
+    private CompletableFuture<File> downloadIcon(CommandSender sender, String urlString, String fileName, int batchIndex) {
         // Use the specified file name or generate one
         if (fileName == null || fileName.isEmpty()) {
-            fileName = "downloaded_" + System.currentTimeMillis() + ".png";
+            fileName = "downloaded_" + System.currentTimeMillis() + (batchIndex >= 0 ? "_" + batchIndex : "") + ".png";
         } else {
             // Ensure filename ends with .png
             if (!fileName.toLowerCase().endsWith(".png")) {
                 fileName += ".png";
             }
         }
-
         File outputFile = new File(iconsFolder, fileName);
-        ImageIO.write(image, "png", outputFile);
-        refreshIconList();
+
+        long start = System.nanoTime();
+        CompletableFuture<File> download = iconDownloader.download(urlString, message -> sendLater(sender, message), data -> {
+            iconProcessor.process(data, outputFile);
+            return outputFile;
+        });
+        if (IconDownloader.isRejected(download)) {
+            sender.sendMessage("Too many downloads in progress, try again later.");
+            return null;
+        }
+        if (iconDownloader.pending() > 1) {
+            sender.sendMessage("Download of " + urlString + " queued.");
+        }
+        return download.whenComplete((file, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause.getCause() instanceof IOException) {
+                    cause = cause.getCause();
+                }
+                sendLater(sender, "Error downloading icon: " + cause.getMessage());
+                return;
+            }
+            metrics.recordTiming("download", System.nanoTime() - start);
+            sendLater(sender, "Icon downloaded and converted: " + file.getName());
+            runLater(this::iconsChanged);
+        });
     }
 
     /**
-     * Processes icons placed in the input icons folder.
-     * This method runs asynchronously to prevent blocking the main thread.
+     * Sends a message from any thread. The message is sent on the main thread.
+     *
+     * @param sender  The receiver.
+     * @param message The message.
      */
-    private void processInputIcons() {
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                File[] files = inputIconsFolder.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
-                if (files != null) {
-                    for (File inputFile : files) {
-                        try {
-                            BufferedImage image = ImageIO.read(inputFile);
-                            if (image == null) {
-                                getLogger().warning("Invalid image file: " + inputFile.getName());
-                                continue;
-                            }
-                            if (image.getHeight() != 64 || image.getWidth() != 64) {
-                                String name = inputFile.getName();
-                                getLogger().info("Image " + name + " is not 64x64 pixels. Resizing...");
-                                image = resizeToServerIcon(image);
-                            }
-                            File outputFile = new File(iconsFolder, inputFile.getName());
-                            ImageIO.write(image, "png", outputFile);
-                            if (inputFile.delete()) {
-                                getLogger().info("Input icon " + inputFile.getName() + " processed and deleted.");
-                            } else {
-                                getLogger().warning("Failed to delete input icon " + inputFile.getName());
-                            }
-                        } catch (IOException e) {
-                            getLogger().warning("Error processing image file " + inputFile.getName() + ": " + e.getMessage());
-                        }
-                    }
-                }
-                // Refresh icon list on the main thread after processing
-                Bukkit.getScheduler().runTask(IconicServer.this, IconicServer.this::refreshIconList);
-            }
-        }.runTaskAsynchronously(this);
+    private void sendLater(CommandSender sender, String message) {
+        runLater(() -> sender.sendMessage(message));
+    }
+
+    /**
+     * Runs a task on the main thread, unless the plugin has been disabled in the meantime.
+     *
+     * @param task The task.
+     */
+    private void runLater(Runnable task) {
+        if (isEnabled()) {
+            Bukkit.getScheduler().runTask(this, task);
+        }
     }
 
     /**
-     * Resizes an image to the server icon size (64x64 pixels).
+     * Processes icons placed in the input icons folder.
+     * This method runs asynchronously to prevent blocking the main thread.
      *
-     * @param originalImage The original image.
-     * @return The resized image.
+     * @param sender The sender to report the summary to, or null.
      */
-    private BufferedImage resizeToServerIcon(BufferedImage originalImage) {
-        BufferedImage resizedImage = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = resizedImage.createGraphics();
-        g.drawImage(originalImage, 0, 0, 64, 64, null);
-        g.dispose();
-        return resizedImage;
+    private void processInputIcons(CommandSender sender) {
+        inputIconProcessor.process(inputIconsFolder, iconsFolder).whenComplete((report, error) -> {
+            if (error != null) {
+                getLogger().warning("Failed to process input icons: " + error.getMessage());
+                if (sender != null) {
+                    sendLater(sender, "Failed to process input icons: " + error.getMessage());
+                }
+                return;
+            }
+            if (report.processed() + report.skipped() + report.failed() > 0) {
+                getLogger().info("Input icons: " + report);
+                metrics.recordTiming("process", report.elapsedNanos());
+            }
+            if (sender != null) {
+                sendLater(sender, "Input icons: " + report);
+            }
+            // Refresh icon list on the main thread after processing
+            if (report.processed() > 0) {
+                runLater(this::iconsChanged);
+            }
+        });
     }
 
     /**
-     * Starts the icon rotation task for cycle mode.
+     * Starts the icon rotation task, which moves the rotating selection modes on every interval.
      */
     private void startIconRotationTask() {
         int interval = getConfig().getInt("icon-rotation-interval", 300); // Default 300 seconds
+        long ticks = interval * 20L; // Convert seconds to ticks (20 ticks per second)
+        // The first icon is shown as soon as the selection is compiled, so the first advance waits one interval
         rotationTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(this, () -> {
-            if (!cachedIcons.isEmpty()) {
-                lastIconIndex = (lastIconIndex + 1) % cachedIcons.size();
-                currentIcon = cachedIcons.get(lastIconIndex);
-            }
-        }, 0L, interval * 20L); // Convert seconds to ticks (20 ticks per second)
+            pingHandler.rotate();
+            libraryPublisher.prefetchUpcoming();
+        }, ticks, ticks);
     }
 }
@@ -0,0 +1,201 @@
+package ch.stefo.mcplugins.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.util.Threads;
+import org.bukkit.configuration.file.FileConfiguration;
+
+/**
+ * Saves a configuration behind the changes made to it.
+ * <p>
+ * Changes are applied to the configuration in memory right away and mark it dirty. The first change
+ * schedules a save after a short delay, and every change made until then is written by that same save,
+ * so a burst of commands costs one serialization and one write. The file is written to a temporary
+ * file and moved over the old one, so a crash never leaves half a configuration behind. A failed save
+ * keeps the changes unsaved and is tried again, waiting twice as long after every failure, up to a minute.
+ * <p>
+ * Changes must go through {@link #update(Consumer)}, which serializes them with the background save.
+ * Reading the configuration needs no lock.
+ */
+public final class ConfigWriter {
+
+    // Longest wait before trying a failed save again
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000L;
+
+    private final FileConfiguration config;
+    private final File file;
+    private final long delayMillis;
+    private final Logger logger;
+    private final ScheduledThreadPoolExecutor executor =
+            new ScheduledThreadPoolExecutor(1, Threads.daemonThreads("IconicServer-config"));
+
+    // Guards changes to the configuration and the counters below
+    private final Object lock = new Object();
+    // Number of changes made, and the number already written
+    private long changes;
+    private long savedChanges;
+    // Whether a save is scheduled
+    private boolean scheduled;
+    // Number of times the file was written
+    private long writes;
+    // Number of saves that failed in a row
+    private int failures;
+
+    /**
+     * @param config      The configuration to save.
+     * @param file        The file to save it to.
+     * @param delayMillis Time after the first unsaved change until the save.
+     * @param logger      Reports failed saves.
+     */
+    public ConfigWriter(FileConfiguration config, File file, long delayMillis, Logger logger) {
+        this.config = config;
+        this.file = file;
+        this.delayMillis = delayMillis;
+        this.logger = logger;
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Applies a change to the configuration and schedules a save.
+     *
+     * @param change Changes the configuration, without side effects elsewhere.
+     */
+    public void update(Consumer<FileConfiguration> change) {
+        synchronized (lock) {
+            change.accept(config);
+            changes++;
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        schedule(delayMillis);
+    }
+
+    /**
+     * Schedules a save, once {@link #scheduled} has been set.
+     */
+    private void schedule(long delay) {
+        try {
+            executor.schedule(this::flushQuietly, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed, the changes are saved by the final flush
+            synchronized (lock) {
+                scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Writes the configuration if it has unsaved changes.
+     *
+     * @throws IOException If the file cannot be written; the changes stay unsaved until the next save.
+     */
+    public synchronized void flush() throws IOException {
+        String yaml;
+        long snapshot;
+        synchronized (lock) {
+            scheduled = false;
+            if (changes == savedChanges) {
+                return;
+            }
+            yaml = config.saveToString();
+            snapshot = changes;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(yaml);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        synchronized (lock) {
+            savedChanges = snapshot;
+            writes++;
+            failures = 0;
+        }
+    }
+
+    /**
+     * Saves in the background, and schedules another try with a longer delay if the save fails.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            long retryMillis;
+            synchronized (lock) {
+                failures++;
+                retryMillis = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(1, delayMillis) << Math.min(failures, 16));
+                if (scheduled) {
+                    // A change scheduled a save in the meantime
+                    retryMillis = -1;
+                } else {
+                    scheduled = true;
+                }
+            }
+            logger.warning("Failed to save the configuration" + (retryMillis > 0 ? ", trying again in " + retryMillis / 1000 + " s" : "")
+                    + ": " + e.getMessage());
+            if (retryMillis > 0) {
+                schedule(retryMillis);
+            }
+        }
+    }
+
+    /**
+     * Stops the background saves and writes any unsaved changes.
+     *
+     * @throws IOException If the final save fails; the changes made since the last save are lost.
+     */
+    public void close() throws IOException {
+        // A save in progress is not interrupted, the flush below waits for it
+        executor.shutdown();
+        flush();
+    }
+
+    /**
+     * @return Number of changes made since startup.
+     */
+    public long getChanges() {
+        synchronized (lock) {
+            return changes;
+        }
+    }
+
+    /**
+     * @return Number of times the file was written since startup.
+     */
+    public long getWrites() {
+        synchronized (lock) {
+            return writes;
+        }
+    }
+
+    /**
+     * @return Whether changes are waiting to be written.
+     */
+    public boolean isDirty() {
+        synchronized (lock) {
+            return changes != savedChanges;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ch.stefo.mcplugins.download;
+
+import java.io.IOException;
+
+/**
+ * Handles the downloaded bytes, on the download worker.
+ *
+ * @param <T> The result type.
+ */
+@FunctionalInterface
+public interface DownloadHandler<T> {
+
+    T handle(byte[] data) throws IOException;
+}
@@ -0,0 +1,179 @@
+package ch.stefo.mcplugins.download;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import ch.stefo.mcplugins.util.Threads;
+
+/**
+ * Downloads images off the main thread.
+ * At most a fixed number of downloads run at once; further downloads wait in a bounded queue
+ * and are rejected when the queue is full. A download that takes longer than the timeout is abandoned,
+ * so a slow server holds a download worker for little longer than that.
+ */
+public final class IconDownloader {
+
+    // Default limit for the size of a downloaded image (5 MB)
+    public static final int DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+    // Default limit for the time a download may take, including connecting
+    public static final int DEFAULT_TIMEOUT_MILLIS = 15_000;
+    // Limit for connecting and for each read, shorter than the whole download may take
+    private static final int SOCKET_TIMEOUT_MILLIS = 5000;
+
+    private final ThreadPoolExecutor executor;
+    private final int maxBytes;
+    private final boolean requireHttps;
+    private final long timeoutNanos;
+
+    /**
+     * Creates a downloader with the default timeout.
+     *
+     * @see #IconDownloader(int, int, int, boolean, int)
+     */
+    public IconDownloader(int concurrency, int queueCapacity, int maxBytes, boolean requireHttps) {
+        this(concurrency, queueCapacity, maxBytes, requireHttps, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param concurrency   Number of downloads running at once.
+     * @param queueCapacity Number of downloads that can wait for a free slot.
+     * @param maxBytes      Maximum size of a downloaded image.
+     * @param requireHttps  Whether only HTTPS URLs are accepted. Only disable this to test against a local server.
+     * @param timeoutMillis Maximum time a download may take.
+     */
+    public IconDownloader(int concurrency, int queueCapacity, int maxBytes, boolean requireHttps, int timeoutMillis) {
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), Threads.daemonThreads("IconicServer-download"));
+        this.maxBytes = maxBytes;
+        this.requireHttps = requireHttps;
+        this.timeoutNanos = timeoutMillis * 1_000_000L;
+    }
+
+    /**
+     * Queues a download.
+     *
+     * @param urlString The URL of the image.
+     * @param progress  Receives progress messages, called on the download worker.
+     * @param handler   Handles the downloaded bytes on the download worker, counting towards the concurrency limit.
+     * @param <T>       The result type.
+     * @return Future completing with the result of the handler,
+     * or failed with a {@link RejectedExecutionException} if the download queue is full.
+     * @see #isRejected(CompletableFuture)
+     */
+    public <T> CompletableFuture<T> download(String urlString, Consumer<String> progress, DownloadHandler<T> handler) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return handler.handle(fetch(urlString, progress));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return Whether a download was rejected because the queue was full.
+     */
+    public static boolean isRejected(CompletableFuture<?> download) {
+        if (!download.isCompletedExceptionally()) {
+            return false;
+        }
+        Throwable error = download.handle((result, e) -> e).join();
+        return (error instanceof CompletionException ? error.getCause() : error) instanceof RejectedExecutionException;
+    }
+
+    /**
+     * @return The number of downloads that are running or waiting.
+     */
+    public int pending() {
+        return executor.getActiveCount() + executor.getQueue().size();
+    }
+
+    /**
+     * Stops the download workers, abandoning running and queued downloads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private byte[] fetch(String urlString, Consumer<String> progress) throws IOException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        URL url = new URL(urlString);
+
+        // Check that URL uses HTTPS
+        if (requireHttps && !url.getProtocol().equalsIgnoreCase("https")) {
+            throw new IOException("URL must use HTTPS.");
+        }
+
+        // Open connection with timeouts
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int socketTimeout = (int) Math.min(SOCKET_TIMEOUT_MILLIS, timeoutNanos / 1_000_000L);
+        connection.setConnectTimeout(socketTimeout);
+        connection.setReadTimeout(socketTimeout);
+        connection.setRequestProperty("User-Agent", "Mozilla/5.0");
+        try {
+            // Check HTTP response code
+            int responseCode = connection.getResponseCode();
+            if (responseCode != 200) {
+                throw new IOException("Failed to download image. HTTP response code: " + responseCode);
+            }
+
+            // Check content type
+            String contentType = connection.getContentType();
+            if (contentType == null || !contentType.startsWith("image/")) {
+                throw new IOException("URL does not point to an image.");
+            }
+
+            // Reject early if the announced size is too large, the limit is enforced while reading as well
+            long contentLength = connection.getContentLengthLong();
+            if (contentLength > maxBytes) {
+                throw new IOException("Image is too large.");
+            }
+
+            progress.accept("Downloading " + urlString + (contentLength > 0 ? " (" + contentLength / 1024 + " KB)" : "") + "...");
+            return readLimited(connection.getInputStream(), contentLength, deadline, progress);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private byte[] readLimited(InputStream in, long contentLength, long deadline, Consumer<String> progress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : 64 * 1024);
+        byte[] buffer = new byte[16 * 1024];
+        int reportStep = contentLength > 0 ? (int) Math.max(contentLength / 4, 1) : 1024 * 1024;
+        long nextReport = reportStep;
+        try (in) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxBytes) {
+                    throw new IOException("Image is too large.");
+                }
+                // The read timeout only bounds the wait for each chunk, a server sending slowly is cut off here
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IOException("Download timed out.");
+                }
+                out.write(buffer, 0, read);
+                if (out.size() >= nextReport && (contentLength <= 0 || out.size() < contentLength)) {
+                    progress.accept("Downloaded " + out.size() / 1024 + " KB"
+                            + (contentLength > 0 ? " of " + contentLength / 1024 + " KB" : "") + "...");
+                    nextReport += reportStep;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,73 @@
+package ch.stefo.mcplugins.image;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Properties of an image's pixels that decide how compactly it can be stored.
+ */
+final class ColorStats {
+
+    // Largest palette a PNG can hold
+    static final int MAX_PALETTE = 256;
+
+    final boolean opaque;
+    // Distinct colors, translucent ones first, or null if there are more than MAX_PALETTE
+    final int[] palette;
+
+    private ColorStats(boolean opaque, int[] palette) {
+        this.opaque = opaque;
+        this.palette = palette;
+    }
+
+    /**
+     * Analyzes ARGB pixels. Fully transparent pixels should have been cleared with {@link #clearInvisible(int[])} first,
+     * so they count as a single color.
+     */
+    static ColorStats of(int[] argb) {
+        boolean opaque = true;
+        Map<Integer, Boolean> colors = new HashMap<>();
+        for (int pixel : argb) {
+            opaque &= pixel >>> 24 == 0xFF;
+            if (colors != null) {
+                colors.put(pixel, Boolean.TRUE);
+                if (colors.size() > MAX_PALETTE) {
+                    colors = null;
+                }
+            }
+        }
+        int[] palette = null;
+        if (colors != null) {
+            // Translucent colors first, so the tRNS chunk can stop after the last of them
+            palette = colors.keySet().stream().mapToInt(Integer::intValue).toArray();
+            Arrays.sort(palette);
+            int[] sorted = new int[palette.length];
+            int next = 0;
+            for (int color : palette) {
+                if (color >>> 24 != 0xFF) {
+                    sorted[next++] = color;
+                }
+            }
+            for (int color : palette) {
+                if (color >>> 24 == 0xFF) {
+                    sorted[next++] = color;
+                }
+            }
+            palette = sorted;
+        }
+        return new ColorStats(opaque, palette);
+    }
+
+    /**
+     * Sets all fully transparent pixels to transparent black. Their color is invisible,
+     * but different values would make the image less compressible.
+     */
+    static void clearInvisible(int[] argb) {
+        for (int i = 0; i < argb.length; i++) {
+            if (argb[i] >>> 24 == 0) {
+                argb[i] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ch.stefo.mcplugins.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+/**
+ * Conversions between images and the normalized pixel form of server icons.
+ */
+public final class IconImages {
+
+    // Width and height of a server icon in pixels
+    public static final int SIZE = 64;
+
+    // Number of pixels of a server icon
+    public static final int PIXELS = SIZE * SIZE;
+
+    // Palettes up to this many colors are always used, their PLTE chunk is small
+    private static final int SMALL_PALETTE = 32;
+
+    private IconImages() {
+    }
+
+    /**
+     * Gets the pixels of a server icon image as ARGB values, row by row.
+     *
+     * @param image The image, which must be 64x64 pixels.
+     * @return The pixels.
+     * @throws IllegalArgumentException If the image is not 64x64 pixels.
+     */
+    public static int[] toPixels(BufferedImage image) {
+        if (image.getWidth() != SIZE || image.getHeight() != SIZE) {
+            throw new IllegalArgumentException("Must be 64 pixels wide and 64 pixels high");
+        }
+        return image.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+
+    /**
+     * Creates a server icon image from ARGB pixels.
+     *
+     * @param pixels The pixels, row by row.
+     * @return The 64x64 image.
+     */
+    public static BufferedImage fromPixels(int[] pixels) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, SIZE, SIZE, pixels, 0, SIZE);
+        return image;
+    }
+
+    /**
+     * Creates a server icon image from ARGB pixels, in the most compact color model the pixels allow.
+     * The server re-encodes icons with ImageIO in the color model of the image it is given, so this
+     * decides the size of the icon in every status response.
+     * <p>
+     * The color model is chosen from the pixels without trial encoding. A palette stores one byte per
+     * pixel rather than three or four, but costs three bytes per color up front, and smooth images
+     * compress well without one since the row filters predict their pixels from their neighbours.
+     * So a palette is used when it is small, or when more pixels than it has colors cannot be predicted.
+     *
+     * @param pixels The pixels, row by row.
+     * @return The 64x64 image: indexed if that pays off, else without alpha if opaque, else ARGB.
+     */
+    public static BufferedImage toCompactImage(int[] pixels) {
+        int[] argb = pixels.clone();
+        ColorStats.clearInvisible(argb);
+        ColorStats stats = ColorStats.of(argb);
+
+        BufferedImage image;
+        if (stats.palette != null
+                && (stats.palette.length <= SMALL_PALETTE || unpredictable(argb, stats.palette.length) > stats.palette.length)) {
+            image = indexedImage(stats.palette);
+        } else if (stats.opaque) {
+            image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        } else {
+            image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        }
+        image.setRGB(0, 0, SIZE, SIZE, argb, 0, SIZE);
+        return image;
+    }
+
+    /**
+     * Counts pixels that differ from the pixel to the left, the pixel above and the linear continuation
+     * of the two pixels to the left, stopping once the count exceeds a limit.
+     */
+    private static int unpredictable(int[] argb, int limit) {
+        int count = 0;
+        for (int i = 0; i < argb.length && count <= limit; i++) {
+            int x = i % SIZE;
+            int color = argb[i];
+            int left = x > 0 ? argb[i - 1] : 0;
+            int above = i >= SIZE ? argb[i - SIZE] : 0;
+            if (color != left && color != above && color != continuation(left, x > 1 ? argb[i - 2] : 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int continuation(int last, int beforeLast) {
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            color |= (2 * (last >>> shift & 0xFF) - (beforeLast >>> shift & 0xFF) & 0xFF) << shift;
+        }
+        return color;
+    }
+
+    private static BufferedImage indexedImage(int[] palette) {
+        byte[] r = new byte[palette.length];
+        byte[] g = new byte[palette.length];
+        byte[] b = new byte[palette.length];
+        byte[] a = new byte[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            r[i] = (byte) (palette[i] >> 16);
+            g[i] = (byte) (palette[i] >> 8);
+            b[i] = (byte) palette[i];
+            a[i] = (byte) (palette[i] >>> 24);
+        }
+        return new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, palette.length, r, g, b, a));
+    }
+}
@@ -0,0 +1,187 @@
+package ch.stefo.mcplugins.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Turns arbitrary images into stored server icons: decode, resize to 64x64 and write as PNG.
+ * Stateless and safe to use from several threads.
+ * <p>
+ * Images are decoded in bounded memory. The dimensions are read from the header first, and images with
+ * more pixels than the budget are rejected before any pixel is decoded. Larger images are decoded with
+ * source subsampling, keeping only every n-th column and row, so the decoded image is never much larger
+ * than {@value #DECODE_SIZE} pixels a side however large the source is. A 10,000x10,000 PNG then needs
+ * about 1 MB of heap rather than 400 MB.
+ */
+public final class IconProcessor {
+
+    // Default limit for the number of pixels of a source image (100 megapixels)
+    public static final long DEFAULT_MAX_PIXELS = 100_000_000L;
+
+    // Sources are subsampled down to no less than this many pixels a side, the resampler filters the rest
+    static final int DECODE_SIZE = IconImages.SIZE * 8;
+
+    private final IconResampler resampler;
+    private final long maxPixels;
+    private final PngOptimizer pngOptimizer = new PngOptimizer();
+
+    // Bytes saved by the optimized PNG encoding compared to the ImageIO PNG writer
+    private final LongAdder bytesSaved = new LongAdder();
+
+    // Images decoded with subsampling, and images rejected for exceeding the pixel budget
+    private final LongAdder subsampled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param resampler Resizes images to the icon size.
+     * @param maxPixels Maximum number of pixels (width times height) of a source image.
+     */
+    public IconProcessor(IconResampler resampler, long maxPixels) {
+        this.resampler = resampler;
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Decodes an image, subsampled if it is much larger than an icon.
+     *
+     * @param data The encoded image.
+     * @return The decoded image.
+     * @throws IOException If the data is not a readable image or has more pixels than the budget.
+     */
+    public BufferedImage decode(byte[] data) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            return decode(input);
+        }
+    }
+
+    /**
+     * Decodes an image file, subsampled if it is much larger than an icon.
+     * The file is read as it is decoded rather than loaded into memory first.
+     *
+     * @param file The image file.
+     * @return The decoded image.
+     * @throws IOException If the file is not a readable image or has more pixels than the budget.
+     */
+    public BufferedImage decode(File file) throws IOException {
+        try (ImageInputStream input = new FileImageInputStream(file)) {
+            return decode(input);
+        }
+    }
+
+    private BufferedImage decode(ImageInputStream input) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Failed to read image.");
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if ((long) width * height > maxPixels) {
+                rejected.increment();
+                throw new IOException("Image is too large (" + width + "x" + height + " pixels, at most "
+                        + maxPixels / 1_000_000L + " megapixels allowed).");
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            int stepX = Math.max(1, width / DECODE_SIZE);
+            int stepY = Math.max(1, height / DECODE_SIZE);
+            if (stepX > 1 || stepY > 1) {
+                param.setSourceSubsampling(stepX, stepY, 0, 0);
+                subsampled.increment();
+            }
+            BufferedImage image = reader.read(0, param);
+            if (image == null) {
+                throw new IOException("Failed to read image.");
+            }
+            return image;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Resizes an image to the server icon size (64x64 pixels), if it is not that size already.
+     *
+     * @param image The image.
+     * @return The 64x64 image.
+     */
+    public BufferedImage normalize(BufferedImage image) {
+        if (image.getWidth() == IconImages.SIZE && image.getHeight() == IconImages.SIZE) {
+            return image;
+        }
+        return resampler.resize(image);
+    }
+
+    /**
+     * Writes an icon as optimized PNG. The file is written under a temporary name first and then renamed,
+     * so the icons folder never contains a partially written icon.
+     *
+     * @param image  The icon.
+     * @param output The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(BufferedImage image, File output) throws IOException {
+        PngOptimizer.Result encoded = pngOptimizer.optimize(image);
+        byte[] png = encoded.png();
+        bytesSaved.add(Math.max(0, encoded.imageIoSize() - png.length));
+
+        // A unique hidden name, so concurrent writes of the same icon and the library scan never see it
+        Path temp = Files.createTempFile(output.getAbsoluteFile().getParentFile().toPath(), "." + output.getName() + ".", ".tmp");
+        try {
+            Files.write(temp, png);
+            Files.move(temp, output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return Bytes saved by the optimized PNG encoding since startup.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    /**
+     * @return Number of images decoded with subsampling since startup.
+     */
+    public long getSubsampled() {
+        return subsampled.sum();
+    }
+
+    /**
+     * @return Number of images rejected for having more pixels than the budget since startup.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Decodes, resizes and writes an icon.
+     *
+     * @param data   The encoded source image.
+     * @param output The icon file to write.
+     * @throws IOException If the image cannot be read or the icon cannot be written.
+     */
+    public void process(byte[] data, File output) throws IOException {
+        write(normalize(decode(data)), output);
+    }
+}
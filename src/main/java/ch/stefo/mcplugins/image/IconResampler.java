@@ -0,0 +1,376 @@
+package ch.stefo.mcplugins.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Downscales images to the 64x64 server icon size.
+ * <p>
+ * The resize is separable: every source row is filtered horizontally down to 64 columns, then the
+ * 64 columns are filtered vertically. Filter weights are kept for the most recently used filters and
+ * source sizes, so a batch of images of the same size computes them only once.
+ * Filtering happens on premultiplied alpha, so transparent pixels do not darken the edges.
+ * Huge sources are first averaged over whole blocks of pixels while their rows are read, which keeps
+ * the work and the scratch memory proportional to the icon rather than to the source.
+ * Scratch buffers are kept per thread, so concurrent resizes do not allocate them again.
+ */
+public final class IconResampler {
+
+    // Sources are pre-reduced by area averaging down to at least this many times the icon size
+    private static final int PRE_REDUCE_FACTOR = 3;
+
+    // Number of filter and source size combinations whose weights are kept
+    private static final int MAX_CONTRIBUTIONS = 32;
+
+    // Least recently used weights are dropped first, guarded by its own lock
+    private static final Map<Long, Contributions> CONTRIBUTIONS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Contributions> eldest) {
+            return size() > MAX_CONTRIBUTIONS;
+        }
+    };
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final Filter filter;
+    private final boolean preReduce;
+
+    /**
+     * @param filter    The resampling filter.
+     * @param preReduce Whether huge sources are pre-reduced by area averaging.
+     */
+    public IconResampler(Filter filter, boolean preReduce) {
+        this.filter = filter;
+        this.preReduce = preReduce;
+    }
+
+    /**
+     * Resizes an image to 64x64 pixels.
+     *
+     * @param source The image.
+     * @return A new 64x64 ARGB image.
+     */
+    public BufferedImage resize(BufferedImage source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int blockX = preReduce ? Math.max(1, width / (IconImages.SIZE * PRE_REDUCE_FACTOR)) : 1;
+        int blockY = preReduce ? Math.max(1, height / (IconImages.SIZE * PRE_REDUCE_FACTOR)) : 1;
+        int reducedWidth = (width + blockX - 1) / blockX;
+        int reducedHeight = (height + blockY - 1) / blockY;
+
+        Contributions horizontal = contributions(filter, reducedWidth);
+        Contributions vertical = contributions(filter, reducedHeight);
+        Scratch scratch = SCRATCH.get();
+        float[] reducedRow = scratch.reducedRow(reducedWidth * 4);
+        float[] columns = scratch.columns(reducedHeight * IconImages.SIZE * 4);
+        int[] row = scratch.row(width * blockY);
+        IntRows rows = IntRows.of(source);
+
+        // Read blocks of rows, average them into one reduced row and filter it down to 64 columns
+        for (int ry = 0; ry < reducedHeight; ry++) {
+            int y0 = ry * blockY;
+            int rowCount = Math.min(blockY, height - y0);
+            rows.read(y0, rowCount, row);
+            reduceRow(row, width, rowCount, blockX, reducedWidth, reducedRow);
+            filterRow(reducedRow, horizontal, columns, ry * IconImages.SIZE * 4);
+        }
+
+        // Filter the 64 columns down to 64 rows
+        int[] out = new int[IconImages.PIXELS];
+        int stride = IconImages.SIZE * 4;
+        for (int y = 0; y < IconImages.SIZE; y++) {
+            int start = vertical.start[y];
+            int count = vertical.count[y];
+            int weightBase = y * vertical.maxCount;
+            for (int x = 0; x < IconImages.SIZE; x++) {
+                float a = 0;
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                int base = start * stride + x * 4;
+                for (int k = 0; k < count; k++) {
+                    float weight = vertical.weights[weightBase + k];
+                    int i = base + k * stride;
+                    a += columns[i] * weight;
+                    r += columns[i + 1] * weight;
+                    g += columns[i + 2] * weight;
+                    b += columns[i + 3] * weight;
+                }
+                out[y * IconImages.SIZE + x] = unpremultiply(a, r, g, b);
+            }
+        }
+        return IconImages.fromPixels(out);
+    }
+
+    /**
+     * Averages blocks of blockX columns by rowCount rows into one premultiplied row.
+     */
+    private static void reduceRow(int[] rows, int width, int rowCount, int blockX, int reducedWidth, float[] out) {
+        for (int rx = 0; rx < reducedWidth; rx++) {
+            int x0 = rx * blockX;
+            int x1 = Math.min(width, x0 + blockX);
+            // Integer sums of alpha and of alpha-weighted colors, converted to floats once per block
+            long a = 0;
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            for (int y = 0; y < rowCount; y++) {
+                int offset = y * width;
+                for (int x = x0; x < x1; x++) {
+                    int pixel = rows[offset + x];
+                    int alpha = pixel >>> 24;
+                    a += alpha;
+                    r += ((pixel >> 16) & 0xFF) * alpha;
+                    g += ((pixel >> 8) & 0xFF) * alpha;
+                    b += (pixel & 0xFF) * alpha;
+                }
+            }
+            float scale = 1f / ((x1 - x0) * rowCount * 255f);
+            int i = rx * 4;
+            out[i] = a * scale;
+            out[i + 1] = r * scale;
+            out[i + 2] = g * scale;
+            out[i + 3] = b * scale;
+        }
+    }
+
+    private static void filterRow(float[] row, Contributions horizontal, float[] out, int outOffset) {
+        for (int x = 0; x < IconImages.SIZE; x++) {
+            int start = horizontal.start[x];
+            int count = horizontal.count[x];
+            int weightBase = x * horizontal.maxCount;
+            float a = 0;
+            float r = 0;
+            float g = 0;
+            float b = 0;
+            for (int k = 0; k < count; k++) {
+                float weight = horizontal.weights[weightBase + k];
+                int i = (start + k) * 4;
+                a += row[i] * weight;
+                r += row[i + 1] * weight;
+                g += row[i + 2] * weight;
+                b += row[i + 3] * weight;
+            }
+            int o = outOffset + x * 4;
+            out[o] = a;
+            out[o + 1] = r;
+            out[o + 2] = g;
+            out[o + 3] = b;
+        }
+    }
+
+    private static int unpremultiply(float a, float r, float g, float b) {
+        int alpha = clamp(Math.round(a * 255f));
+        if (alpha == 0) {
+            return 0;
+        }
+        float inverse = 1f / a;
+        return alpha << 24
+                | clamp(Math.round(r * inverse)) << 16
+                | clamp(Math.round(g * inverse)) << 8
+                | clamp(Math.round(b * inverse));
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    private static Contributions contributions(Filter filter, int sourceSize) {
+        long key = (long) filter.ordinal() << 32 | sourceSize;
+        synchronized (CONTRIBUTIONS) {
+            Contributions contributions = CONTRIBUTIONS.get(key);
+            if (contributions != null) {
+                return contributions;
+            }
+        }
+        // Computed outside the lock, a concurrent resize of the same size may compute the same weights
+        Contributions contributions = new Contributions(filter, sourceSize, IconImages.SIZE);
+        synchronized (CONTRIBUTIONS) {
+            CONTRIBUTIONS.put(key, contributions);
+        }
+        return contributions;
+    }
+
+    /**
+     * Resampling filters, from fastest to sharpest.
+     */
+    public enum Filter {
+        BOX(0.5) {
+            @Override
+            double weight(double x) {
+                return x >= -0.5 && x < 0.5 ? 1.0 : 0.0;
+            }
+        },
+        BILINEAR(1.0) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                return x < 1.0 ? 1.0 - x : 0.0;
+            }
+        },
+        LANCZOS(3.0) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                return x < 3.0 ? sinc(x) * sinc(x / 3.0) : 0.0;
+            }
+        };
+
+        private final double support;
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        abstract double weight(double x);
+
+        private static double sinc(double x) {
+            if (x == 0.0) {
+                return 1.0;
+            }
+            x *= Math.PI;
+            return Math.sin(x) / x;
+        }
+
+        /**
+         * Parses a filter name from the configuration.
+         *
+         * @param name The name (case-insensitive).
+         * @return The filter, or null if the name is unknown.
+         */
+        public static Filter parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Precomputed filter weights for resizing one dimension from a source size to the icon size.
+     */
+    private static final class Contributions {
+
+        final int[] start;
+        final int[] count;
+        final float[] weights;
+        final int maxCount;
+
+        Contributions(Filter filter, int sourceSize, int targetSize) {
+            double scale = (double) sourceSize / targetSize;
+            double filterScale = Math.max(scale, 1.0);
+            double support = filter.support * filterScale;
+            this.maxCount = (int) Math.ceil(support * 2) + 2;
+            this.start = new int[targetSize];
+            this.count = new int[targetSize];
+            this.weights = new float[targetSize * maxCount];
+
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) * scale;
+                int left = Math.max(0, (int) Math.floor(center - support));
+                int right = Math.min(sourceSize, (int) Math.ceil(center + support));
+                double[] raw = new double[right - left];
+                double total = 0;
+                for (int j = left; j < right; j++) {
+                    double weight = filter.weight((j + 0.5 - center) / filterScale);
+                    raw[j - left] = weight;
+                    total += weight;
+                }
+                if (total == 0) {
+                    // Can only happen for the box filter on exact boundaries, use the nearest pixel
+                    int nearest = Math.min(sourceSize - 1, (int) center);
+                    left = nearest;
+                    raw = new double[]{1.0};
+                    total = 1.0;
+                }
+                start[i] = left;
+                count[i] = raw.length;
+                for (int k = 0; k < raw.length; k++) {
+                    weights[i * maxCount + k] = (float) (raw[k] / total);
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-thread buffers, grown as needed and reused across resizes.
+     */
+    private static final class Scratch {
+
+        private int[] row = new int[0];
+        private float[] reducedRow = new float[0];
+        private float[] columns = new float[0];
+
+        int[] row(int size) {
+            if (row.length < size) {
+                row = new int[size];
+            }
+            return row;
+        }
+
+        float[] reducedRow(int size) {
+            if (reducedRow.length < size) {
+                reducedRow = new float[size];
+            }
+            return reducedRow;
+        }
+
+        float[] columns(int size) {
+            if (columns.length < size) {
+                columns = new float[size];
+            }
+            return columns;
+        }
+    }
+
+    /**
+     * Reads rows of an image as ARGB ints, straight from the raster for int-packed images.
+     */
+    private abstract static class IntRows {
+
+        abstract void read(int y, int rowCount, int[] out);
+
+        static IntRows of(BufferedImage image) {
+            int type = image.getType();
+            WritableRaster raster = image.getRaster();
+            if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+                    && raster.getDataBuffer() instanceof DataBufferInt buffer
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel
+                    && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                    && buffer.getOffset() == 0) {
+                int[] data = buffer.getData();
+                int stride = sampleModel.getScanlineStride();
+                int width = image.getWidth();
+                int alpha = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+                return new IntRows() {
+                    @Override
+                    void read(int y, int rowCount, int[] out) {
+                        for (int r = 0; r < rowCount; r++) {
+                            int from = (y + r) * stride;
+                            int to = r * width;
+                            if (alpha == 0) {
+                                System.arraycopy(data, from, out, to, width);
+                            } else {
+                                for (int x = 0; x < width; x++) {
+                                    out[to + x] = data[from + x] | alpha;
+                                }
+                            }
+                        }
+                    }
+                };
+            }
+            int width = image.getWidth();
+            return new IntRows() {
+                @Override
+                void read(int y, int rowCount, int[] out) {
+                    image.getRGB(0, y, width, rowCount, out, 0, width);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ch.stefo.mcplugins.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.util.Threads;
+
+/**
+ * Processes the images in the input folder into icons, spreading the files across worker threads.
+ * Only one run happens at a time; starting a run while one is in progress joins the running one.
+ */
+public final class InputIconProcessor {
+
+    private final IconProcessor iconProcessor;
+    private final Logger logger;
+    private final ThreadPoolExecutor executor;
+    private CompletableFuture<Report> running;
+
+    /**
+     * @param iconProcessor Decodes, resizes and writes the icons.
+     * @param logger        Logger for files that cannot be processed.
+     * @param threads       Number of worker threads, which are stopped while idle.
+     */
+    public InputIconProcessor(IconProcessor iconProcessor, Logger logger, int threads) {
+        this.iconProcessor = iconProcessor;
+        this.logger = logger;
+        this.executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                Threads.daemonThreads("IconicServer-process"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Processes all PNG files of the input folder into the icons folder, deleting each input file once processed.
+     *
+     * @param inputFolder  The input folder.
+     * @param outputFolder The icons folder.
+     * @return Future completing with the report, shared with a run that is already in progress.
+     */
+    public synchronized CompletableFuture<Report> process(File inputFolder, File outputFolder) {
+        if (running != null && !running.isDone()) {
+            return running;
+        }
+        long start = System.nanoTime();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        running = CompletableFuture.supplyAsync(() -> listInputs(inputFolder), executor).thenCompose(files -> {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(files.length);
+            for (File inputFile : files) {
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    switch (processFile(inputFile, outputFolder)) {
+                        case PROCESSED -> processed.incrementAndGet();
+                        case SKIPPED -> skipped.incrementAndGet();
+                        case FAILED -> failed.incrementAndGet();
+                    }
+                }, executor));
+            }
+            return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]));
+        }).thenApply(ignored -> new Report(processed.get(), skipped.get(), failed.get(), System.nanoTime() - start));
+        return running;
+    }
+
+    /**
+     * @return Whether a run is in progress.
+     */
+    public synchronized boolean isRunning() {
+        return running != null && !running.isDone();
+    }
+
+    /**
+     * Stops the worker threads, abandoning a running run.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static File[] listInputs(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+        return files != null ? files : new File[0];
+    }
+
+    private Outcome processFile(File inputFile, File outputFolder) {
+        try {
+            BufferedImage image;
+            try {
+                image = iconProcessor.decode(inputFile);
+            } catch (IOException e) {
+                logger.warning("Invalid image file: " + inputFile.getName() + " (" + e.getMessage() + ")");
+                return Outcome.SKIPPED;
+            }
+            iconProcessor.write(iconProcessor.normalize(image), new File(outputFolder, inputFile.getName()));
+            if (!inputFile.delete()) {
+                logger.warning("Failed to delete input icon " + inputFile.getName());
+            }
+            return Outcome.PROCESSED;
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Error processing image file " + inputFile.getName() + ": " + e.getMessage());
+            return Outcome.FAILED;
+        }
+    }
+
+    private enum Outcome {
+        PROCESSED, SKIPPED, FAILED
+    }
+
+    /**
+     * Summary of a processing run.
+     *
+     * @param processed    Number of icons written.
+     * @param skipped      Number of files that are not readable images or too large, and were left in the input folder.
+     * @param failed       Number of files that could not be processed because of an error.
+     * @param elapsedNanos Time the run took.
+     */
+    public record Report(int processed, int skipped, int failed, long elapsedNanos) {
+
+        public long elapsedMillis() {
+            return elapsedNanos / 1_000_000L;
+        }
+
+        /**
+         * @return Processed icons per second.
+         */
+        public double throughput() {
+            return elapsedNanos > 0 ? processed * 1_000_000_000.0 / elapsedNanos : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return processed + " processed, " + skipped + " skipped, " + failed + " failed in " + elapsedMillis() + " ms ("
+                    + String.format(Locale.ROOT, "%.1f", throughput()) + " icons/s)";
+        }
+    }
+}
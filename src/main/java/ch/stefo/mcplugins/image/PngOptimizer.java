@@ -0,0 +1,290 @@
+package ch.stefo.mcplugins.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder that searches for the smallest encoding of an image.
+ * <p>
+ * It reduces the image to a palette when the pixels allow it, drops the alpha channel
+ * when the image is opaque and writes no chunks besides IHDR, PLTE, tRNS, IDAT and IEND.
+ * Each reduction is compressed with every row filter, an adaptive filter choice and several
+ * deflate settings, and the smallest result is kept.
+ * <p>
+ * Grayscale color types are not used: ImageIO decodes them through a linear gray color space,
+ * which would shift the colors when the server reads the icon back.
+ */
+public final class PngOptimizer {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // The first level and strategy are the defaults of plain encoders
+    private static final int[] LEVELS = {6, 9};
+    private static final int[] STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED};
+    // Filter types 0 to 4 are applied to all rows, this one picks the best filter per row
+    private static final int ADAPTIVE_FILTER = 5;
+    // Deflate level of the ImageIO PNG writer, which writes 32-bit RGBA without row filters
+    private static final int IMAGEIO_LEVEL = 4;
+    // Bytes of a PNG besides the image data: signature, IHDR and the headers of one IDAT and IEND
+    private static final int PNG_OVERHEAD = 8 + 25 + 12 + 12;
+
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_PALETTE = 3;
+    private static final int COLOR_RGBA = 6;
+
+    /**
+     * Encodes an image as small as possible.
+     *
+     * @param image The image.
+     * @return The PNG file content.
+     */
+    public byte[] encode(BufferedImage image) {
+        return optimize(image).png();
+    }
+
+    /**
+     * Encodes an image as small as possible and estimates the size the ImageIO PNG writer would produce.
+     *
+     * @param image The image.
+     * @return The PNG file content and the size of the ImageIO encoding.
+     */
+    public Result optimize(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        int imageIoSize = PNG_OVERHEAD + deflate(filter(directLayout(argb, width, height, COLOR_RGBA, 4), 0),
+                IMAGEIO_LEVEL, Deflater.DEFAULT_STRATEGY).length;
+        ColorStats.clearInvisible(argb);
+        ColorStats stats = ColorStats.of(argb);
+
+        byte[] best = null;
+        for (Layout layout : layouts(argb, width, height, stats)) {
+            byte[] png = encode(layout, width, height);
+            if (best == null || png.length < best.length) {
+                best = png;
+            }
+        }
+        return new Result(best, imageIoSize);
+    }
+
+    private static List<Layout> layouts(int[] argb, int width, int height, ColorStats stats) {
+        List<Layout> layouts = new ArrayList<>();
+        if (stats.palette != null) {
+            layouts.add(paletteLayout(argb, width, height, stats.palette));
+        }
+        layouts.add(stats.opaque
+                ? directLayout(argb, width, height, COLOR_RGB, 3)
+                : directLayout(argb, width, height, COLOR_RGBA, 4));
+        return layouts;
+    }
+
+    private static Layout paletteLayout(int[] argb, int width, int height, int[] palette) {
+        int bitDepth = palette.length <= 2 ? 1 : palette.length <= 4 ? 2 : palette.length <= 16 ? 4 : 8;
+        Map<Integer, Integer> indices = new HashMap<>();
+        for (int i = 0; i < palette.length; i++) {
+            indices.put(palette[i], i);
+        }
+        int rowBytes = (width * bitDepth + 7) / 8;
+        int perByte = 8 / bitDepth;
+        byte[][] rows = new byte[height][rowBytes];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = indices.get(argb[y * width + x]);
+                int shift = (perByte - 1 - x % perByte) * bitDepth;
+                rows[y][x / perByte] |= (byte) (index << shift);
+            }
+        }
+        return new Layout(COLOR_PALETTE, bitDepth, 1, rows, palette);
+    }
+
+    private static Layout directLayout(int[] argb, int width, int height, int colorType, int bytesPerPixel) {
+        byte[][] rows = new byte[height][width * bytesPerPixel];
+        for (int y = 0; y < height; y++) {
+            byte[] row = rows[y];
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[y * width + x];
+                int i = x * bytesPerPixel;
+                row[i] = (byte) (pixel >> 16);
+                row[i + 1] = (byte) (pixel >> 8);
+                row[i + 2] = (byte) pixel;
+                if (colorType == COLOR_RGBA) {
+                    row[i + 3] = (byte) (pixel >>> 24);
+                }
+            }
+        }
+        return new Layout(colorType, 8, bytesPerPixel, rows, null);
+    }
+
+    private static byte[] encode(Layout layout, int width, int height) {
+        byte[] bestData = null;
+        for (int filter = 0; filter <= ADAPTIVE_FILTER; filter++) {
+            byte[] filtered = filter(layout, filter);
+            for (int level : LEVELS) {
+                for (int strategy : STRATEGIES) {
+                    byte[] data = deflate(filtered, level, strategy);
+                    if (bestData == null || data.length < bestData.length) {
+                        bestData = data;
+                    }
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bestData.length + 128);
+        out.writeBytes(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) layout.bitDepth;
+        header[9] = (byte) layout.colorType;
+        writeChunk(out, "IHDR", header);
+        if (layout.palette != null) {
+            byte[] plte = new byte[layout.palette.length * 3];
+            int translucent = 0;
+            for (int i = 0; i < layout.palette.length; i++) {
+                int color = layout.palette[i];
+                plte[i * 3] = (byte) (color >> 16);
+                plte[i * 3 + 1] = (byte) (color >> 8);
+                plte[i * 3 + 2] = (byte) color;
+                if (color >>> 24 != 0xFF) {
+                    translucent = i + 1;
+                }
+            }
+            writeChunk(out, "PLTE", plte);
+            if (translucent > 0) {
+                byte[] trns = new byte[translucent];
+                for (int i = 0; i < translucent; i++) {
+                    trns[i] = (byte) (layout.palette[i] >>> 24);
+                }
+                writeChunk(out, "tRNS", trns);
+            }
+        }
+        writeChunk(out, "IDAT", bestData);
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static byte[] filter(Layout layout, int filter) {
+        byte[][] rows = layout.rows;
+        int rowBytes = rows[0].length;
+        byte[] out = new byte[rows.length * (rowBytes + 1)];
+        byte[] prev = new byte[rowBytes];
+        byte[] candidate = new byte[rowBytes];
+        byte[] best = new byte[rowBytes];
+        int pos = 0;
+        for (byte[] row : rows) {
+            int type = filter;
+            if (filter == ADAPTIVE_FILTER) {
+                // Minimum sum of absolute differences heuristic
+                long bestScore = Long.MAX_VALUE;
+                for (int t = 0; t < ADAPTIVE_FILTER; t++) {
+                    filterRow(t, row, prev, layout.bytesPerPixel, candidate);
+                    long score = 0;
+                    for (byte b : candidate) {
+                        score += Math.abs(b);
+                    }
+                    if (score < bestScore) {
+                        bestScore = score;
+                        type = t;
+                        System.arraycopy(candidate, 0, best, 0, rowBytes);
+                    }
+                }
+            } else {
+                filterRow(type, row, prev, layout.bytesPerPixel, best);
+            }
+            out[pos++] = (byte) type;
+            System.arraycopy(best, 0, out, pos, rowBytes);
+            pos += rowBytes;
+            prev = row;
+        }
+        return out;
+    }
+
+    private static void filterRow(int type, byte[] row, byte[] prev, int bpp, byte[] out) {
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+            int predicted = switch (type) {
+                case 1 -> a;
+                case 2 -> b;
+                case 3 -> (a + b) >>> 1;
+                case 4 -> paeth(a, b, c);
+                default -> 0;
+            };
+            out[i] = (byte) (x - predicted);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static byte[] deflate(byte[] data, int level, int strategy) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setStrategy(strategy);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] length = new byte[4];
+        putInt(length, 0, data.length);
+        out.writeBytes(length);
+        out.writeBytes(typeBytes);
+        out.writeBytes(data);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int) crc.getValue());
+        out.writeBytes(checksum);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    /**
+     * An optimized encoding.
+     *
+     * @param png         The PNG file content.
+     * @param imageIoSize Size of the PNG the ImageIO writer produces for the same image, as icons were
+     *                    written before: 32-bit RGBA, no row filters and its default compression.
+     */
+    public record Result(byte[] png, int imageIoSize) {
+    }
+
+    /**
+     * Scanlines of an image in one PNG color type, before filtering.
+     */
+    private record Layout(int colorType, int bitDepth, int bytesPerPixel, byte[][] rows, int[] palette) {
+    }
+}
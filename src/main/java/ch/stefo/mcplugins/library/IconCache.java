@@ -0,0 +1,196 @@
+package ch.stefo.mcplugins.library;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Keeps the recently used icons of a lazily loaded library within a memory budget.
+ * <p>
+ * Icons are keyed by content hash, so byte-identical files share one resident icon. Lookups never
+ * block: a miss starts loading the icon in the background and returns null. Once the resident icons
+ * exceed the budget, the least recently used ones are evicted. The memory an icon takes is estimated
+ * from its file size, as the server keeps every icon as a base64-encoded PNG.
+ */
+public final class IconCache {
+
+    // Estimated memory an icon takes besides its encoded data
+    private static final long ICON_OVERHEAD = 256;
+
+    private final long budgetBytes;
+    private final Function<IconEntry, CompletableFuture<CachedServerIcon>> loader;
+    private final Map<String, Resident> resident = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CachedServerIcon>> loading = new ConcurrentHashMap<>();
+    // Hashes of icons that failed to load, not retried until the library changes
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Estimated size of the resident icons, guarded by this
+    private long residentBytes;
+
+    /**
+     * @param budgetBytes The memory budget for resident icons.
+     * @param loader      Loads the icon of an entry in the background, completing with null on failure.
+     */
+    public IconCache(long budgetBytes, Function<IconEntry, CompletableFuture<CachedServerIcon>> loader) {
+        this.budgetBytes = budgetBytes;
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the icon of an entry if it is resident, otherwise starts loading it.
+     *
+     * @param entry The entry.
+     * @return The icon, or null if it is not loaded yet.
+     */
+    public CachedServerIcon get(IconEntry entry) {
+        Resident icon = resident.get(entry.hash());
+        if (icon != null) {
+            icon.lastUsed = System.nanoTime();
+            hits.increment();
+            return icon.icon;
+        }
+        misses.increment();
+        if (!failed.contains(entry.hash())) {
+            load(entry);
+        }
+        return null;
+    }
+
+    /**
+     * Loads the icon of an entry unless it is resident or already loading.
+     *
+     * @param entry The entry.
+     * @return Future completing with the icon, or with null if it failed to load.
+     */
+    public CompletableFuture<CachedServerIcon> load(IconEntry entry) {
+        String hash = entry.hash();
+        Resident icon = resident.get(hash);
+        if (icon != null) {
+            return CompletableFuture.completedFuture(icon.icon);
+        }
+        CompletableFuture<CachedServerIcon> created = new CompletableFuture<>();
+        CompletableFuture<CachedServerIcon> existing = loading.putIfAbsent(hash, created);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<CachedServerIcon> load;
+        try {
+            load = loader.apply(entry);
+        } catch (RuntimeException e) {
+            // The loader is shut down
+            loading.remove(hash, created);
+            created.complete(null);
+            return created;
+        }
+        load.whenComplete((loaded, error) -> {
+            if (loaded != null) {
+                admit(hash, loaded, entry.size() * 4 / 3 + ICON_OVERHEAD);
+            } else {
+                failed.add(hash);
+            }
+            loading.remove(hash, created);
+            created.complete(loaded);
+        });
+        return created;
+    }
+
+    /**
+     * Loads the icons of some entries ahead of time.
+     *
+     * @param entries The entries.
+     */
+    public void prefetch(Collection<IconEntry> entries) {
+        for (IconEntry entry : entries) {
+            load(entry);
+        }
+    }
+
+    private synchronized void admit(String hash, CachedServerIcon icon, long bytes) {
+        if (resident.putIfAbsent(hash, new Resident(icon, bytes)) != null) {
+            return;
+        }
+        residentBytes += bytes;
+        // A linear scan per eviction, evictions only happen on loads and the resident set is bounded by the budget
+        while (residentBytes > budgetBytes && resident.size() > 1) {
+            String oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Map.Entry<String, Resident> candidate : resident.entrySet()) {
+                if (candidate.getValue().lastUsed < oldestUse) {
+                    oldestUse = candidate.getValue().lastUsed;
+                    oldest = candidate.getKey();
+                }
+            }
+            residentBytes -= resident.remove(oldest).bytes;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Drops the icons that are no longer part of a library and forgets failed loads.
+     *
+     * @param entries The entries of the new library.
+     */
+    public synchronized void retain(Collection<IconEntry> entries) {
+        Set<String> hashes = new HashSet<>();
+        for (IconEntry entry : entries) {
+            hashes.add(entry.hash());
+        }
+        Iterator<Map.Entry<String, Resident>> iterator = resident.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Resident> icon = iterator.next();
+            if (!hashes.contains(icon.getKey())) {
+                residentBytes -= icon.getValue().bytes;
+                iterator.remove();
+            }
+        }
+        failed.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    private static final class Resident {
+
+        private final CachedServerIcon icon;
+        private final long bytes;
+        // System.nanoTime() of the last lookup, written without locking by the ping threads
+        private volatile long lastUsed = System.nanoTime();
+
+        private Resident(CachedServerIcon icon, long bytes) {
+            this.icon = icon;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ch.stefo.mcplugins.library;
+
+import java.io.File;
+
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * An icon file of the library together with its loaded server icon.
+ * Entries with the same content hash share the same server icon instance.
+ * Libraries loaded lazily keep no icons in their entries, an {@link IconCache} loads them on demand.
+ *
+ * @param name The file name.
+ * @param file The icon file.
+ * @param size The file size in bytes.
+ * @param hash The SHA-256 hash of the file content, in hex.
+ * @param icon The loaded server icon, or null if the library is loaded lazily.
+ */
+public record IconEntry(String name, File file, long size, String hash, CachedServerIcon icon) {
+}
@@ -0,0 +1,109 @@
+package ch.stefo.mcplugins.library;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Watches the icons folder and reports which PNG files were created, modified or deleted.
+ * Events are coalesced until the folder has been quiet for the debounce time,
+ * so files that are still being uploaded are only reported once.
+ */
+public final class IconFolderWatcher {
+
+    private final Path folder;
+    private final long debounceMillis;
+    private final Consumer<Set<String>> onChange;
+    private final Runnable onOverflow;
+    private final Logger logger;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * @param folder         The folder to watch.
+     * @param debounceMillis Quiet time before changes are reported.
+     * @param onChange       Receives the names of the changed PNG files, called on the watcher thread.
+     * @param onOverflow     Called on the watcher thread when events were lost and a full reload is needed.
+     * @param logger         Logger for watcher errors.
+     * @throws IOException If the folder cannot be watched.
+     */
+    public IconFolderWatcher(Path folder, long debounceMillis, Consumer<Set<String>> onChange, Runnable onOverflow, Logger logger) throws IOException {
+        this.folder = folder;
+        this.debounceMillis = debounceMillis;
+        this.onChange = onChange;
+        this.onOverflow = onOverflow;
+        this.logger = logger;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new Thread(this::run, "IconicServer-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops watching. Changes that have not been reported yet are dropped.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warning("Failed to close icon folder watcher: " + e.getMessage());
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<String> changed = new HashSet<>();
+                boolean overflow = drain(watchService.take(), changed);
+                // Keep collecting until the folder has been quiet for the debounce time
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= drain(key, changed);
+                }
+                if (overflow) {
+                    onOverflow.run();
+                } else if (!changed.isEmpty()) {
+                    onChange.accept(changed);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher was closed
+        } catch (RuntimeException e) {
+            logger.warning("Icon folder watcher stopped: " + e.getMessage());
+        }
+    }
+
+    private boolean drain(WatchKey key, Set<String> changed) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if (name.toLowerCase().endsWith(".png")) {
+                changed.add(name);
+            }
+        }
+        if (!key.reset()) {
+            logger.warning("Icon folder " + folder + " is no longer accessible, watching stopped.");
+            throw new ClosedWatchServiceException();
+        }
+        return overflow;
+    }
+}
@@ -0,0 +1,126 @@
+package ch.stefo.mcplugins.library;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stable numeric IDs of icon names, as used by /icon set and /icon list.
+ * <p>
+ * An icon keeps its ID across refreshes and restarts, and renaming it with /icon rename keeps it too.
+ * A file that fails to load keeps its ID until it is deleted. New icons get the next unused ID.
+ * IDs of removed icons are never given to another icon, so an old ID never silently refers to a different icon.
+ */
+public final class IconIds {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int nextId;
+    private boolean dirty;
+
+    /**
+     * Assigns IDs to the names that have none and forgets the IDs of other names whose file is gone.
+     *
+     * @param names  The names of all loaded icons.
+     * @param folder The icons folder.
+     * @return The ID of every given name.
+     */
+    public synchronized Map<String, Integer> assign(Collection<String> names, File folder) {
+        Map<String, Integer> assigned = new HashMap<>(names.size() * 2);
+        for (String name : names) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = nextId++;
+                ids.put(name, id);
+                dirty = true;
+            }
+            assigned.put(name, id);
+        }
+        if (ids.size() != assigned.size()) {
+            // Files that failed to load keep their ID, so it still refers to them once they are fixed
+            dirty |= ids.keySet().removeIf(name -> !assigned.containsKey(name) && !new File(folder, name).isFile());
+        }
+        return assigned;
+    }
+
+    /**
+     * Moves the ID of an icon to its new name.
+     *
+     * @param oldName The old file name.
+     * @param newName The new file name.
+     */
+    public synchronized void rename(String oldName, String newName) {
+        Integer id = ids.remove(oldName);
+        if (id != null) {
+            ids.put(newName, id);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Loads the IDs saved by {@link #save(File)}.
+     *
+     * @param file The file.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public synchronized void load(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 2);
+                if (parts.length != 2) {
+                    continue;
+                }
+                try {
+                    int id = Integer.parseInt(parts[0]);
+                    if (parts[1].isEmpty()) {
+                        // The line of the next free ID
+                        nextId = Math.max(nextId, id);
+                    } else {
+                        ids.put(parts[1], id);
+                        nextId = Math.max(nextId, id + 1);
+                    }
+                } catch (NumberFormatException e) {
+                    // Skip malformed lines
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the IDs if they changed since the last successful save.
+     * The file is replaced atomically, so a crash never leaves a partial file.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(nextId + "\t");
+                writer.newLine();
+                for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                    writer.write(entry.getValue() + "\t" + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
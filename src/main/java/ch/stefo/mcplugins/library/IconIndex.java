@@ -0,0 +1,177 @@
+package ch.stefo.mcplugins.library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable index of the icon names of a library, for commands and tab completion.
+ * <p>
+ * Names are kept sorted case-insensitively in an array, so lookups by name and the range of names
+ * starting with a prefix are found by binary search. An index is built whenever a library is published.
+ */
+public final class IconIndex {
+
+    public static final IconIndex EMPTY = new IconIndex(Collections.emptyList(), Collections.emptyMap());
+
+    // Lowercase names, sorted, and the entries and IDs at the same positions
+    private final String[] keys;
+    private final IconEntry[] entries;
+    private final int[] ids;
+    private final Map<Integer, IconEntry> byId;
+
+    /**
+     * @param entries The library entries.
+     * @param ids     The ID of every entry name.
+     */
+    public IconIndex(List<IconEntry> entries, Map<String, Integer> ids) {
+        List<IconEntry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing((IconEntry entry) -> entry.name().toLowerCase(Locale.ROOT)).thenComparing(IconEntry::name));
+        int size = sorted.size();
+        this.keys = new String[size];
+        this.entries = sorted.toArray(new IconEntry[0]);
+        this.ids = new int[size];
+        this.byId = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            IconEntry entry = this.entries[i];
+            keys[i] = entry.name().toLowerCase(Locale.ROOT);
+            Integer id = ids.get(entry.name());
+            this.ids[i] = id != null ? id : -1;
+            if (id != null) {
+                byId.put(id, entry);
+            }
+        }
+    }
+
+    /**
+     * Finds an entry by its file name. An exact match wins over one that differs in case.
+     *
+     * @param name The file name.
+     * @return The entry, or null if there is none.
+     */
+    public IconEntry find(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        IconEntry match = null;
+        for (int i = lowerBound(key); i < keys.length && keys[i].equals(key); i++) {
+            if (entries[i].name().equals(name)) {
+                return entries[i];
+            }
+            if (match == null) {
+                match = entries[i];
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Finds an entry by its ID, or by its file name if the identifier is not a number.
+     *
+     * @param identifier The ID or file name.
+     * @return The entry, or null if there is none.
+     */
+    public IconEntry resolve(String identifier) {
+        try {
+            return byId.get(Integer.parseInt(identifier));
+        } catch (NumberFormatException e) {
+            return find(identifier);
+        }
+    }
+
+    /**
+     * Counts the names starting with a prefix, ignoring case.
+     *
+     * @param prefix The prefix, empty for all names.
+     * @return The number of names.
+     */
+    public int count(String prefix) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        return upperBound(key) - lowerBound(key);
+    }
+
+    /**
+     * Gets a page of the names starting with a prefix, ignoring case, in name order.
+     *
+     * @param prefix   The prefix, empty for all names.
+     * @param page     The page, starting at 0.
+     * @param pageSize Number of names per page.
+     * @return The entries of the page with their IDs, empty past the last page.
+     */
+    public List<Item> page(String prefix, int page, int pageSize) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        int to = upperBound(key);
+        int from = lowerBound(key) + page * pageSize;
+        List<Item> items = new ArrayList<>(pageSize);
+        for (int i = from; i < to && i < from + pageSize; i++) {
+            items.add(new Item(ids[i], entries[i]));
+        }
+        return items;
+    }
+
+    /**
+     * Completes a partial icon name, ignoring case.
+     *
+     * @param prefix The partial name.
+     * @param limit  The maximum number of names.
+     * @return The first names starting with the prefix, in name order.
+     */
+    public List<String> complete(String prefix, int limit) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        int to = Math.min(upperBound(key), lowerBound(key) + limit);
+        List<String> names = new ArrayList<>();
+        for (int i = lowerBound(key); i < to; i++) {
+            names.add(entries[i].name());
+        }
+        return names;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return The position of the first key not less than the given one.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The position after the last key starting with the given prefix.
+     */
+    private int upperBound(String prefix) {
+        int low = lowerBound(prefix);
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * An entry with its ID.
+     *
+     * @param id    The ID.
+     * @param entry The entry.
+     */
+    public record Item(int id, IconEntry entry) {
+    }
+}
@@ -0,0 +1,91 @@
+package ch.stefo.mcplugins.library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Immutable set of loaded icons, sorted by file name.
+ * A library is never changed after construction; reloads build a new one and swap it in.
+ */
+public final class IconLibrary {
+
+    public static final IconLibrary EMPTY = new IconLibrary(Collections.emptyList());
+
+    private final List<IconEntry> entries;
+    private final Map<String, IconEntry> byName;
+
+    public IconLibrary(List<IconEntry> entries) {
+        List<IconEntry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(IconEntry::name));
+        Map<String, IconEntry> byName = new HashMap<>();
+        for (IconEntry entry : sorted) {
+            byName.put(entry.name(), entry);
+        }
+        this.entries = Collections.unmodifiableList(sorted);
+        this.byName = byName;
+    }
+
+    /**
+     * @return All entries, sorted by file name.
+     */
+    public List<IconEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Finds an entry by its file name.
+     *
+     * @param name The file name.
+     * @return The entry, or null if the library has no such icon.
+     */
+    public IconEntry find(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @return The loaded icons keyed by content hash, for reuse by the next load.
+     */
+    public Map<String, CachedServerIcon> iconsByHash() {
+        Map<String, CachedServerIcon> iconsByHash = new HashMap<>();
+        for (IconEntry entry : entries) {
+            if (entry.icon() != null) {
+                iconsByHash.put(entry.hash(), entry.icon());
+            }
+        }
+        return iconsByHash;
+    }
+
+    /**
+     * @return The number of distinct icons, counting byte-identical files once.
+     */
+    public int distinctIcons() {
+        return (int) entries.stream().map(IconEntry::hash).distinct().count();
+    }
+
+    /**
+     * Creates a new library with some entries added, replaced or removed.
+     *
+     * @param updated Entries to add or replace, matched by name.
+     * @param removed Names of the entries to remove.
+     * @return The new library.
+     */
+    public IconLibrary withChanges(Collection<IconEntry> updated, Collection<String> removed) {
+        Map<String, IconEntry> changed = new HashMap<>(byName);
+        changed.keySet().removeAll(removed);
+        for (IconEntry entry : updated) {
+            changed.put(entry.name(), entry);
+        }
+        return new IconLibrary(new ArrayList<>(changed.values()));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,382 @@
+package ch.stefo.mcplugins.library;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+import ch.stefo.mcplugins.image.IconImages;
+import ch.stefo.mcplugins.util.Threads;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Loads icon libraries off the main thread, decoding the icons in parallel on a fixed pool of workers.
+ * Icons are keyed by content hash: files that are byte-identical to an icon of the previous library
+ * or to another file of the same load share one server icon. Content of the previous library is not
+ * decoded again, unless a new pack needs a payload for it that the old pack does not have.
+ * <p>
+ * If an icon pack file is configured, full loads take unchanged icons from the pack, already in their
+ * compact color model, instead of decoding the PNG files, and write a new pack for the next load.
+ * Payloads are raw rasters (see {@link IconPayload}), so a warm load decodes no PNG at all. Only one pack is written
+ * at a time; a full load that overlaps one still writing its pack leaves the pack to that load.
+ * Icons whose payload in the pack is damaged are decoded from their PNG file instead.
+ * <p>
+ * In lazy mode, loads only hash the files and create entries without icons. The icons are loaded
+ * one at a time with {@link #loadIcon(IconEntry)}, from an existing pack if it is current.
+ */
+public final class IconLibraryLoader {
+
+    private final IconLoader iconLoader;
+    private final File packFile;
+    private final Logger logger;
+    private final ExecutorService executor;
+    private final boolean lazy;
+
+    // The pack opened by the last lazy load, read by lazy icon loads until the next load replaces it
+    private volatile IconPack pack = IconPack.EMPTY;
+
+    // Whether a load is writing a new pack, from opening the writer until it is committed or aborted
+    private final AtomicBoolean packWriting = new AtomicBoolean();
+
+    /**
+     * @param iconLoader Turns decoded images into server icons.
+     * @param packFile   The icon pack file, or null to always decode the PNG files.
+     * @param logger     Logger for icons that fail to load.
+     * @param threads    Number of worker threads.
+     * @param lazy       Whether loads create entries without icons.
+     */
+    public IconLibraryLoader(IconLoader iconLoader, File packFile, Logger logger, int threads, boolean lazy) {
+        this.iconLoader = iconLoader;
+        this.packFile = packFile;
+        this.logger = logger;
+        this.executor = Executors.newFixedThreadPool(threads, Threads.daemonThreads("IconicServer-loader"));
+        this.lazy = lazy;
+    }
+
+    /**
+     * Loads all PNG files of a folder into a new library.
+     *
+     * @param folder   The icons folder.
+     * @param previous The current library, whose icons are reused for unchanged content.
+     * @return Future completing with the result once every icon has been decoded.
+     */
+    public CompletableFuture<Result> load(File folder, IconLibrary previous) {
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> listIcons(folder), executor).thenCompose(files -> {
+            IconPack pack = packFile != null ? IconPack.open(packFile, logger) : IconPack.EMPTY;
+            // Lazy loads decode no pixels to write, so the existing pack is kept as it is
+            IconPackWriter writer = lazy ? null : openPackWriter();
+            if (lazy) {
+                // Icon loads still reading the previous pack fall back to decoding the files
+                IconPack previousPack = this.pack;
+                this.pack = pack;
+                previousPack.close();
+            }
+            return loadAll(files, previous, pack, writer, start).whenComplete((changes, error) -> {
+                if (!lazy) {
+                    // Released before the new pack replaces the file
+                    pack.close();
+                }
+                if (error == null) {
+                    commitPack(writer);
+                } else {
+                    abortPack(writer);
+                }
+            }).thenApply(changes ->
+                    new Result(new IconLibrary(changes.updated()), changes.failed(), changes.fromPack(), changes.decoded(),
+                            changes.elapsedNanos()));
+        });
+    }
+
+    /**
+     * @return A writer for a new pack, or null if no pack is configured or another load is writing one.
+     */
+    private IconPackWriter openPackWriter() {
+        if (packFile == null || !packWriting.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            IconPackWriter.deleteStaleFiles(packFile);
+            return new IconPackWriter(packFile);
+        } catch (IOException e) {
+            packWriting.set(false);
+            logger.warning("Failed to write icon pack: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void commitPack(IconPackWriter writer) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.commit();
+        } catch (IOException e) {
+            logger.warning("Failed to write icon pack: " + e.getMessage());
+        } finally {
+            packWriting.set(false);
+        }
+    }
+
+    private void abortPack(IconPackWriter writer) {
+        if (writer != null) {
+            writer.abort();
+            packWriting.set(false);
+        }
+    }
+
+    /**
+     * Loads only the given files of a folder. Files that no longer exist are reported as removed.
+     *
+     * @param folder   The icons folder.
+     * @param names    Names of the changed files.
+     * @param previous The current library, whose icons are reused for unchanged content.
+     * @return Future completing with the changes to apply to the library.
+     */
+    public CompletableFuture<Changes> loadChanges(File folder, Set<String> names, IconLibrary previous) {
+        long start = System.nanoTime();
+        List<File> existing = new ArrayList<>();
+        Set<String> removed = new HashSet<>();
+        for (String name : names) {
+            File file = new File(folder, name);
+            if (file.isFile()) {
+                existing.add(file);
+            } else {
+                removed.add(name);
+            }
+        }
+        // Changed files are stale in the pack anyway, it is brought up to date by the next full load
+        return loadAll(existing.toArray(new File[0]), previous, IconPack.EMPTY, null, start).thenApply(changes -> {
+            // Files that can no longer be decoded are dropped from the library
+            removed.addAll(changes.failed());
+            return new Changes(changes.updated(), Collections.unmodifiableSet(removed), changes.failed(), 0, changes.decoded(),
+                    changes.elapsedNanos());
+        });
+    }
+
+    private CompletableFuture<Changes> loadAll(File[] files, IconLibrary previous, IconPack pack, IconPackWriter writer, long start) {
+        Map<String, CachedServerIcon> known = new ConcurrentHashMap<>(previous.iconsByHash());
+        AtomicInteger fromPack = new AtomicInteger();
+        AtomicInteger decoded = new AtomicInteger();
+        List<CompletableFuture<IconEntry>> futures = new ArrayList<>(files.length);
+        for (File file : files) {
+            futures.add(CompletableFuture.supplyAsync(() -> loadEntry(file, known, pack, writer, fromPack, decoded), executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<IconEntry> entries = new ArrayList<>(futures.size());
+            List<String> failed = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                IconEntry entry = futures.get(i).join();
+                if (entry != null) {
+                    entries.add(entry);
+                } else {
+                    failed.add(files[i].getName());
+                }
+            }
+            return new Changes(entries, Collections.emptySet(), Collections.unmodifiableList(failed), fromPack.get(), decoded.get(),
+                    System.nanoTime() - start);
+        });
+    }
+
+    private static File[] listIcons(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+        return files != null ? files : new File[0];
+    }
+
+    private IconEntry loadEntry(File file, Map<String, CachedServerIcon> known, IconPack pack, IconPackWriter writer,
+                                AtomicInteger fromPack, AtomicInteger decoded) {
+        try {
+            String name = file.getName();
+            long size = file.length();
+            long lastModified = file.lastModified();
+            String hash;
+            byte[] data = null;
+
+            IconPack.Entry packed = pack.find(name, size, lastModified);
+            if (packed != null) {
+                // Unchanged since the pack was written, the file does not have to be read at all
+                hash = packed.hash();
+                fromPack.incrementAndGet();
+            } else {
+                data = Files.readAllBytes(file.toPath());
+                hash = hash(data);
+            }
+            if (lazy) {
+                return new IconEntry(name, file, size, hash, null);
+            }
+
+            CachedServerIcon icon = known.get(hash);
+            if (icon != null && writer == null) {
+                // Known content needs neither an image nor a payload
+                return new IconEntry(name, file, size, hash, icon);
+            }
+            BufferedImage image = null;
+            byte[] payload = null;
+            if (packed != null) {
+                try {
+                    // A known icon only needs its payload copied to the new pack
+                    payload = pack.payload(packed);
+                    if (icon == null) {
+                        image = IconPayload.decode(payload);
+                    }
+                } catch (IOException e) {
+                    if (!(e instanceof ClosedChannelException)) {
+                        logger.warning(e.getMessage() + ", decoding " + name + " instead");
+                    }
+                    fromPack.decrementAndGet();
+                    payload = null;
+                    data = Files.readAllBytes(file.toPath());
+                }
+            }
+            if (payload == null) {
+                image = compact(read(data));
+                decoded.incrementAndGet();
+            }
+            if (icon == null) {
+                // Two identical files may be decoded at the same time, but only one icon is kept
+                CachedServerIcon loaded = iconLoader.load(image);
+                icon = known.putIfAbsent(hash, loaded);
+                if (icon == null) {
+                    icon = loaded;
+                }
+            }
+
+            if (writer != null) {
+                writer.add(name, size, lastModified, hash, payload != null ? payload : IconPayload.encode(image));
+            }
+            return new IconEntry(name, file, size, hash, icon);
+        } catch (Exception e) {
+            logger.warning("Failed to load icon " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Loads the icon of a single entry on a worker thread, from the pack if it is current.
+     *
+     * @param entry The entry.
+     * @return Future completing with the icon, or with null if the icon failed to load.
+     */
+    public CompletableFuture<CachedServerIcon> loadIcon(IconEntry entry) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                IconPack current = pack;
+                IconPack.Entry packed = current.find(entry.name(), entry.size(), entry.file().lastModified());
+                BufferedImage image = null;
+                if (packed != null && packed.hash().equals(entry.hash())) {
+                    try {
+                        image = IconPayload.decode(current.payload(packed));
+                    } catch (ClosedChannelException e) {
+                        // Replaced by a newer load while reading
+                    } catch (IOException e) {
+                        logger.warning(e.getMessage() + ", decoding " + entry.name() + " instead");
+                    }
+                }
+                if (image == null) {
+                    image = compact(read(Files.readAllBytes(entry.file().toPath())));
+                }
+                return iconLoader.load(image);
+            } catch (Exception e) {
+                logger.warning("Failed to load icon " + entry.name() + ": " + e.getMessage());
+                return null;
+            }
+        }, executor);
+    }
+
+    private static BufferedImage read(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("Not a readable image");
+        }
+        return image;
+    }
+
+    /**
+     * @return The image in the most compact color model its pixels allow, as the pack stores it.
+     */
+    private static BufferedImage compact(BufferedImage image) {
+        return IconImages.toCompactImage(IconImages.toPixels(image));
+    }
+
+    /**
+     * Computes the content hash of a file.
+     *
+     * @param file The file.
+     * @return The SHA-256 hash in hex.
+     * @throws IOException If the file cannot be read.
+     */
+    public static String hash(File file) throws IOException {
+        return hash(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Computes the content hash of some bytes.
+     *
+     * @param data The bytes.
+     * @return The SHA-256 hash in hex.
+     */
+    public static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Stops the worker threads. Loads that are still running are abandoned.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        pack.close();
+    }
+
+    /**
+     * Outcome of a library load.
+     *
+     * @param library      The new library, containing every icon that loaded.
+     * @param failed       Names of the files that failed to load.
+     * @param fromPack     Number of icons taken from the icon pack instead of the PNG files.
+     * @param decoded      Number of PNG files decoded.
+     * @param elapsedNanos Time the load took.
+     */
+    public record Result(IconLibrary library, List<String> failed, int fromPack, int decoded, long elapsedNanos) {
+
+        public long elapsedMillis() {
+            return elapsedNanos / 1_000_000L;
+        }
+    }
+
+    /**
+     * Changes to apply to a library.
+     *
+     * @param updated      Entries to add or replace.
+     * @param removed      Names of the entries to remove.
+     * @param failed       Names of the files that failed to load.
+     * @param fromPack     Number of icons taken from the icon pack instead of the PNG files.
+     * @param decoded      Number of PNG files decoded.
+     * @param elapsedNanos Time the load took.
+     */
+    public record Changes(List<IconEntry> updated, Set<String> removed, List<String> failed, int fromPack, int decoded,
+                          long elapsedNanos) {
+    }
+}
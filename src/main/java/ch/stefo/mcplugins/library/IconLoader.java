@@ -0,0 +1,21 @@
+package ch.stefo.mcplugins.library;
+
+import java.awt.image.BufferedImage;
+
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Turns a decoded 64x64 image into a server icon.
+ */
+@FunctionalInterface
+public interface IconLoader {
+
+    /**
+     * Loads an icon.
+     *
+     * @param image The 64x64 image.
+     * @return The loaded server icon.
+     * @throws Exception If the image is not a valid server icon.
+     */
+    CachedServerIcon load(BufferedImage image) throws Exception;
+}
@@ -0,0 +1,195 @@
+package ch.stefo.mcplugins.library;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only view of the icon pack, a single file holding every icon in its compact color model
+ * as an {@link IconPayload}, ready to be handed to the server without decoding or converting it again.
+ * Opening it only reads the index, payloads are read from the open file when they are needed.
+ * The file is not memory-mapped, so closing the pack releases it at once and it can be replaced
+ * on every platform; reads from a closed pack fail.
+ * <p>
+ * Layout: a header (magic, version, entry count, index offset, CRC-32 of the index), the payloads
+ * (shared by entries with the same hash) and the index.
+ * Each index entry holds the file name, size and modification time the payload was created from,
+ * so entries for files that changed since are ignored, and the CRC-32 of its payload.
+ * A pack whose index does not match its checksum is ignored as a whole, and a payload that does not
+ * match its checksum fails to read, so a damaged pack never produces wrong icons.
+ */
+public final class IconPack implements Closeable {
+
+    static final int MAGIC = 0x4943504B; // "ICPK"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 4;
+
+    public static final IconPack EMPTY = new IconPack(null, Collections.emptyMap());
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+
+    private IconPack(FileChannel channel, Map<String, Entry> entries) {
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens an icon pack file. The pack must be closed once it is no longer needed.
+     *
+     * @param file   The pack file.
+     * @param logger Logger for packs that cannot be read.
+     * @return The pack, or an empty pack if the file does not exist or is not a valid pack.
+     */
+    public static IconPack open(File file, Logger logger) {
+        if (!file.isFile()) {
+            return EMPTY;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            return new IconPack(channel, readIndex(channel));
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Ignoring unreadable icon pack " + file.getName() + ": " + e.getMessage());
+            closeQuietly(channel);
+            return EMPTY;
+        }
+    }
+
+    private static Map<String, Entry> readIndex(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_BYTES) {
+            throw new IOException("not an icon pack");
+        }
+        ByteBuffer header = read(channel, 0, HEADER_BYTES);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("not an icon pack");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("unsupported version " + header.getInt(4));
+        }
+        int count = header.getInt(8);
+        long indexOffset = header.getLong(12);
+        if (count < 0 || indexOffset < HEADER_BYTES || indexOffset > fileSize || fileSize - indexOffset > Integer.MAX_VALUE) {
+            throw new IOException("corrupt header");
+        }
+
+        byte[] index = read(channel, indexOffset, (int) (fileSize - indexOffset)).array();
+        CRC32 crc = new CRC32();
+        crc.update(index);
+        if ((int) crc.getValue() != header.getInt(20)) {
+            throw new IOException("index checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        Map<String, Entry> entries = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readUTF(), in.readLong(), in.readInt(), in.readInt());
+            if (entry.offset() < HEADER_BYTES || entry.length() < 0 || entry.offset() + entry.length() > indexOffset) {
+                throw new IOException("corrupt entry " + entry.name());
+            }
+            entries.put(entry.name(), entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the entry for an icon file, if the file has not changed since the pack was written.
+     *
+     * @param name         The file name.
+     * @param size         The current file size.
+     * @param lastModified The current modification time.
+     * @return The entry, or null if the pack has no up-to-date entry for the file.
+     */
+    public Entry find(String name, long size, long lastModified) {
+        Entry entry = entries.get(name);
+        if (entry == null || entry.size() != size || entry.lastModified() != lastModified) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the payload of an entry.
+     *
+     * @param entry An entry of this pack.
+     * @return The payload of the icon.
+     * @throws IOException If the payload cannot be read or does not match its checksum, or the pack is closed.
+     */
+    public byte[] payload(Entry entry) throws IOException {
+        ByteBuffer payload = read(channel, entry.offset(), entry.length());
+        if (crc(payload) != entry.crc()) {
+            throw new IOException("corrupt payload of " + entry.name() + " in the icon pack");
+        }
+        return payload.array();
+    }
+
+    /**
+     * @return The CRC-32 of the remaining bytes of a buffer, leaving its position unchanged.
+     */
+    static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Closes the pack file. Safe to call more than once, and while other threads read from the pack.
+     */
+    @Override
+    public void close() {
+        closeQuietly(channel);
+    }
+
+    /**
+     * Reads bytes at a position into a new heap buffer. Positional reads are safe from several threads at once.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("icon pack is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing was written, there is nothing to lose
+        }
+    }
+
+    /**
+     * Index entry of the pack.
+     *
+     * @param name         The icon file name.
+     * @param size         The size of the file the payload was created from.
+     * @param lastModified The modification time of the file the payload was created from.
+     * @param hash         The content hash of the file.
+     * @param offset       Position of the payload in the pack.
+     * @param length       Length of the payload in bytes.
+     * @param crc          CRC-32 of the payload.
+     */
+    public record Entry(String name, long size, long lastModified, String hash, long offset, int length, int crc) {
+    }
+}
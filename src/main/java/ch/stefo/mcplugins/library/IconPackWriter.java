@@ -0,0 +1,145 @@
+package ch.stefo.mcplugins.library;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a new icon pack next to the old one and replaces it atomically on commit.
+ * Entries can be added from several threads; payloads with the same hash are stored once.
+ * Every writer writes its own temporary file, so a writer never overwrites the file of another one.
+ */
+public final class IconPackWriter {
+
+    private final File target;
+    private final File temp;
+    private final FileChannel channel;
+    private final List<IconPack.Entry> index = new ArrayList<>();
+    // Payloads already written, by content hash
+    private final Map<String, IconPack.Entry> payloads = new HashMap<>();
+    private long position = IconPack.HEADER_BYTES;
+    private IOException failure;
+
+    /**
+     * @param target The pack file to replace on commit.
+     * @throws IOException If the temporary file cannot be created.
+     */
+    public IconPackWriter(File target) throws IOException {
+        this.target = target;
+        this.temp = Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(), target.getName() + ".", ".tmp").toFile();
+        this.channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Deletes the temporary files of writers that did not finish, such as after a crash.
+     * Only call while no writer for the pack is open.
+     *
+     * @param target The pack file.
+     */
+    public static void deleteStaleFiles(File target) {
+        File folder = target.getAbsoluteFile().getParentFile();
+        String prefix = target.getName() + ".";
+        File[] stale = folder.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".tmp"));
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Adds an icon. A write error is remembered and reported by {@link #commit()}.
+     *
+     * @param name         The icon file name.
+     * @param size         The file size.
+     * @param lastModified The file modification time.
+     * @param hash         The content hash of the file.
+     * @param data         The icon encoded by {@link IconPayload#encode}.
+     */
+    public synchronized void add(String name, long size, long lastModified, String hash, byte[] data) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            IconPack.Entry payload = payloads.get(hash);
+            if (payload == null) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                payload = new IconPack.Entry(name, size, lastModified, hash, position, data.length, IconPack.crc(buffer));
+                writeFully(buffer, position);
+                position += data.length;
+                payloads.put(hash, payload);
+            }
+            index.add(new IconPack.Entry(name, size, lastModified, hash, payload.offset(), payload.length(), payload.crc()));
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes the index and replaces the pack file.
+     *
+     * @throws IOException If any entry or the index could not be written.
+     */
+    public synchronized void commit() throws IOException {
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (IconPack.Entry entry : index) {
+                out.writeUTF(entry.name());
+                out.writeLong(entry.size());
+                out.writeLong(entry.lastModified());
+                out.writeUTF(entry.hash());
+                out.writeLong(entry.offset());
+                out.writeInt(entry.length());
+                out.writeInt(entry.crc());
+            }
+            byte[] indexBytes = bytes.toByteArray();
+            writeFully(ByteBuffer.wrap(indexBytes), position);
+            CRC32 indexCrc = new CRC32();
+            indexCrc.update(indexBytes);
+
+            ByteBuffer header = ByteBuffer.allocate(IconPack.HEADER_BYTES);
+            header.putInt(IconPack.MAGIC).putInt(IconPack.VERSION).putInt(index.size()).putLong(position)
+                    .putInt((int) indexCrc.getValue()).flip();
+            writeFully(header, 0);
+            channel.force(true);
+            channel.close();
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the new pack, keeping the old one.
+     */
+    public synchronized void abort() {
+        try {
+            channel.close();
+            Files.deleteIfExists(temp.toPath());
+        } catch (IOException ignored) {
+            // Nothing left to clean up
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+}
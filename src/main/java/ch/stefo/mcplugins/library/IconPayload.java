@@ -0,0 +1,143 @@
+package ch.stefo.mcplugins.library;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import ch.stefo.mcplugins.image.IconImages;
+
+/**
+ * Encodes icons for the icon pack as their deflated raster in their compact color model.
+ * Reading a payload back is one inflate and a copy into a new raster, with none of the
+ * ImageIO and PNG filter work of decoding the icon file, and gives an image in the same
+ * color model the icon was written in.
+ * <p>
+ * Layout before compression: the model (indexed, RGB or ARGB), then for indexed icons the number
+ * of palette colors, the ARGB palette and one index byte per pixel, for RGB icons three bytes per
+ * pixel and for ARGB icons one int per pixel, row by row.
+ */
+final class IconPayload {
+
+    private static final int INDEXED = 0;
+    private static final int RGB = 1;
+    private static final int ARGB = 2;
+
+    // Size of the largest raster, an ARGB icon
+    private static final int MAX_RAW_BYTES = 1 + 4 * IconImages.PIXELS;
+
+    private IconPayload() {
+    }
+
+    /**
+     * @param image A 64x64 icon, as created by {@link IconImages#toCompactImage(int[])}.
+     * @return The payload.
+     */
+    static byte[] encode(BufferedImage image) {
+        ByteBuffer raw;
+        if (image.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+            IndexColorModel model = (IndexColorModel) image.getColorModel();
+            int[] palette = new int[model.getMapSize()];
+            model.getRGBs(palette);
+            raw = ByteBuffer.allocate(3 + 4 * palette.length + IconImages.PIXELS);
+            raw.put((byte) INDEXED).putShort((short) palette.length);
+            raw.asIntBuffer().put(palette);
+            raw.position(raw.position() + 4 * palette.length);
+            raw.put((byte[]) image.getRaster().getDataElements(0, 0, IconImages.SIZE, IconImages.SIZE, null));
+        } else if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            raw = ByteBuffer.allocate(1 + 3 * IconImages.PIXELS);
+            raw.put((byte) RGB);
+            for (int color : (int[]) image.getRaster().getDataElements(0, 0, IconImages.SIZE, IconImages.SIZE, null)) {
+                raw.put((byte) (color >> 16)).putShort((short) color);
+            }
+        } else {
+            raw = ByteBuffer.allocate(1 + 4 * IconImages.PIXELS);
+            raw.put((byte) ARGB);
+            raw.asIntBuffer().put(IconImages.toPixels(image));
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw.array());
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.capacity() / 2);
+            byte[] buffer = new byte[8 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param payload A payload written by {@link #encode(BufferedImage)}.
+     * @return The icon in the color model it was written in.
+     * @throws IOException If the payload is not a valid icon.
+     */
+    static BufferedImage decode(byte[] payload) throws IOException {
+        ByteBuffer raw = inflate(payload);
+        int model = raw.get() & 0xFF;
+        BufferedImage image;
+        Object pixels;
+        if (model == INDEXED) {
+            int colors = raw.getShort() & 0xFFFF;
+            if (colors < 1 || colors > 256 || raw.remaining() != 4 * colors + IconImages.PIXELS) {
+                throw new IOException("Invalid indexed icon payload");
+            }
+            int[] palette = new int[colors];
+            raw.asIntBuffer().get(palette);
+            byte[] indices = new byte[IconImages.PIXELS];
+            raw.position(raw.position() + 4 * colors).get(indices);
+            image = new BufferedImage(IconImages.SIZE, IconImages.SIZE, BufferedImage.TYPE_BYTE_INDEXED,
+                    new IndexColorModel(8, colors, palette, 0, true, -1, DataBuffer.TYPE_BYTE));
+            pixels = indices;
+        } else if (model == RGB && raw.remaining() == 3 * IconImages.PIXELS) {
+            int[] colors = new int[IconImages.PIXELS];
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = (raw.get() & 0xFF) << 16 | raw.getShort() & 0xFFFF;
+            }
+            image = new BufferedImage(IconImages.SIZE, IconImages.SIZE, BufferedImage.TYPE_INT_RGB);
+            pixels = colors;
+        } else if (model == ARGB && raw.remaining() == 4 * IconImages.PIXELS) {
+            int[] colors = new int[IconImages.PIXELS];
+            raw.asIntBuffer().get(colors);
+            image = new BufferedImage(IconImages.SIZE, IconImages.SIZE, BufferedImage.TYPE_INT_ARGB);
+            pixels = colors;
+        } else {
+            throw new IOException("Invalid icon payload");
+        }
+        image.getRaster().setDataElements(0, 0, IconImages.SIZE, IconImages.SIZE, pixels);
+        return image;
+    }
+
+    private static ByteBuffer inflate(byte[] payload) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            byte[] raw = new byte[MAX_RAW_BYTES + 1];
+            int length = 0;
+            while (!inflater.finished() && length < raw.length) {
+                int count = inflater.inflate(raw, length, raw.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated icon payload");
+                }
+                length += count;
+            }
+            if (!inflater.finished() || length == 0 || length > MAX_RAW_BYTES) {
+                throw new IOException("Invalid icon payload");
+            }
+            return ByteBuffer.wrap(raw, 0, length);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid icon payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ch.stefo.mcplugins.library;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Runs full library reloads and folder-change loads one after the other. Each load starts once the previous
+ * one has been published, so a full reload never overwrites folder changes loaded after it started, and each
+ * change is applied to the library it was loaded against. Must only be used from the main thread.
+ */
+public final class LibraryLoadQueue {
+
+    private final Logger logger;
+
+    // The last queued load, completed once it has been published or has failed
+    private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+
+    public LibraryLoadQueue(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Starts a load once the loads queued before it have been published.
+     *
+     * @param load Starts the load, and completes the given future on the main thread
+     *             once the result has been published or has failed.
+     */
+    public void queue(Consumer<CompletableFuture<Void>> load) {
+        last = last.thenCompose(ignored -> {
+            CompletableFuture<Void> published = new CompletableFuture<>();
+            load.accept(published);
+            return published;
+        }).exceptionally(error -> {
+            logger.warning("Failed to load icons: " + error.getMessage());
+            return null;
+        });
+    }
+}
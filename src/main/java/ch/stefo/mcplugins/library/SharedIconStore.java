@@ -0,0 +1,350 @@
+package ch.stefo.mcplugins.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.util.Threads;
+
+/**
+ * Icon folder shared by several servers, for example on a network file system.
+ * <p>
+ * The store keeps every icon once under its content hash in objects/, and a manifest naming the icons
+ * of the current version. One server publishes: it copies the icons it lacks in the store and writes a
+ * new manifest version whenever its library changes. The other servers mirror the store into their own
+ * icons folder: on a new version they copy only the icons whose hash changed and delete the removed ones,
+ * so their libraries load only the changed files.
+ * <p>
+ * Files are written to a temporary file and moved into place, so readers never see half a file, and
+ * objects are written before the manifest naming them. Each server keeps the manifest it last published
+ * or mirrored in a local file, which survives restarts. All work happens on one worker thread, in order.
+ */
+public final class SharedIconStore {
+
+    // Version of the manifest format
+    private static final int FORMAT = 1;
+    private static final String HEADER = "iconicserver-manifest";
+
+    private final File objects;
+    private final File manifestFile;
+    private final File localManifestFile;
+    private final Logger logger;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Threads.daemonThreads("IconicServer-store"));
+
+    // The manifest last published or mirrored by this server, only used on the worker thread
+    private Manifest local;
+    // Version of the manifest last seen in the store, for /icon stats
+    private volatile long version;
+    // Number of icons copied into or out of the store
+    private volatile long copied;
+
+    /**
+     * @param root              The shared folder.
+     * @param localManifestFile The local file keeping the manifest last published or mirrored.
+     * @param logger            Logger for icons that cannot be copied.
+     */
+    public SharedIconStore(File root, File localManifestFile, Logger logger) {
+        this.objects = new File(root, "objects");
+        this.manifestFile = new File(root, "manifest");
+        this.localManifestFile = localManifestFile;
+        this.logger = logger;
+        this.local = readQuietly(localManifestFile);
+        this.version = local.version();
+    }
+
+    /**
+     * Publishes the icons of a library as a new version, unless the store already names the same icons.
+     *
+     * @param entries The library entries.
+     * @return Future completing with the manifest of the store.
+     */
+    public CompletableFuture<Manifest> publish(Collection<IconEntry> entries) {
+        List<IconEntry> snapshot = new ArrayList<>(entries);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return publishNow(snapshot);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private Manifest publishNow(List<IconEntry> entries) throws IOException {
+        Manifest remote = read(manifestFile);
+        Set<String> stored = new HashSet<>();
+        for (Item item : remote.items().values()) {
+            stored.add(item.hash());
+        }
+        Map<String, Item> items = new TreeMap<>();
+        for (IconEntry entry : entries) {
+            if (!stored.contains(entry.hash()) && !storeObject(entry)) {
+                // Keep what the store has for the name, so mirrors do not delete the icon until the next publish
+                Item previous = remote.items().get(entry.name());
+                if (previous != null) {
+                    items.put(entry.name(), previous);
+                }
+                continue;
+            }
+            stored.add(entry.hash());
+            items.put(entry.name(), new Item(entry.hash(), entry.size()));
+        }
+        if (items.equals(remote.items())) {
+            local = remote;
+            version = remote.version();
+            return remote;
+        }
+        Manifest next = new Manifest(remote.version() + 1, Collections.unmodifiableMap(items));
+        write(next, manifestFile);
+        write(next, localManifestFile);
+        local = next;
+        version = next.version();
+        return next;
+    }
+
+    /**
+     * Copies the file of an entry into the objects, unless an object with its hash exists.
+     *
+     * @return Whether the object is stored.
+     */
+    private boolean storeObject(IconEntry entry) {
+        File object = object(entry.hash());
+        if (object.isFile()) {
+            return true;
+        }
+        try {
+            byte[] data = Files.readAllBytes(entry.file().toPath());
+            // The file may have changed since it was loaded, the next publish picks up the new content
+            if (!IconLibraryLoader.hash(data).equals(entry.hash())) {
+                return false;
+            }
+            writeAtomically(object, data);
+            copied++;
+            return true;
+        } catch (IOException e) {
+            logger.warning("Failed to store icon " + entry.name() + " in the shared store: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Mirrors the latest version of the store into an icons folder, if it is newer than the last one mirrored.
+     *
+     * @param folder The icons folder.
+     * @return Future completing with the names of the added, changed and removed icons, empty if nothing changed.
+     */
+    public CompletableFuture<Set<String>> sync(File folder) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return syncNow(folder);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private Set<String> syncNow(File folder) throws IOException {
+        Manifest remote = read(manifestFile);
+        version = remote.version();
+        if (remote.version() <= local.version()) {
+            return Collections.emptySet();
+        }
+        Set<String> changed = new HashSet<>();
+        // Icons that fail to copy keep their old state, so the version is retried on the next sync
+        Map<String, Item> mirrored = new TreeMap<>();
+        boolean complete = true;
+        for (Map.Entry<String, Item> entry : remote.items().entrySet()) {
+            String name = entry.getKey();
+            Item item = entry.getValue();
+            Item old = local.items().get(name);
+            File target = new File(folder, name);
+            if (item.equals(old) && target.length() == item.size()) {
+                mirrored.put(name, item);
+                continue;
+            }
+            if (copyObject(item, target)) {
+                mirrored.put(name, item);
+                changed.add(name);
+            } else {
+                complete = false;
+                if (old != null) {
+                    mirrored.put(name, old);
+                }
+            }
+        }
+        for (String name : local.items().keySet()) {
+            if (!remote.items().containsKey(name)) {
+                Files.deleteIfExists(new File(folder, name).toPath());
+                changed.add(name);
+            }
+        }
+
+        local = new Manifest(complete ? remote.version() : local.version(), Collections.unmodifiableMap(mirrored));
+        write(local, localManifestFile);
+        return changed;
+    }
+
+    private boolean copyObject(Item item, File target) {
+        try {
+            byte[] data = Files.readAllBytes(object(item.hash()).toPath());
+            if (!IconLibraryLoader.hash(data).equals(item.hash())) {
+                logger.warning("Shared icon " + target.getName() + " does not match its hash, skipping it.");
+                return false;
+            }
+            writeAtomically(target, data);
+            copied++;
+            return true;
+        } catch (IOException e) {
+            logger.warning("Failed to copy shared icon " + target.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private File object(String hash) {
+        return new File(new File(objects, hash.substring(0, 2)), hash + ".png");
+    }
+
+    /**
+     * @return The version of the store last seen.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Number of icons copied into or out of the store since startup.
+     */
+    public long getCopied() {
+        return copied;
+    }
+
+    /**
+     * Stops the worker thread. A publish or sync in progress is abandoned; it leaves no partial files behind.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Manifest readQuietly(File file) {
+        try {
+            return read(file);
+        } catch (IOException e) {
+            logger.warning("Failed to read " + file.getName() + ", the shared store is mirrored again: " + e.getMessage());
+            return Manifest.EMPTY;
+        }
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @return The manifest, or {@link Manifest#EMPTY} if the file does not exist.
+     * @throws IOException If the file cannot be read or is not a valid manifest.
+     */
+    static Manifest read(File file) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return Manifest.EMPTY;
+        }
+        if (lines.size() < 2 || !lines.get(0).equals(HEADER + " " + FORMAT) || !lines.get(1).startsWith("version ")) {
+            throw new IOException("Unsupported manifest format");
+        }
+        long version;
+        try {
+            version = Long.parseLong(lines.get(1).substring("version ".length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid manifest version");
+        }
+        Map<String, Item> items = new TreeMap<>();
+        for (int i = 2; i < lines.size(); i++) {
+            String[] parts = lines.get(i).split(" ", 3);
+            if (parts.length < 3 || !isHash(parts[0]) || !isIconName(parts[2])) {
+                throw new IOException("Invalid manifest line " + (i + 1));
+            }
+            try {
+                items.put(parts[2], new Item(parts[0], Long.parseLong(parts[1])));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid manifest line " + (i + 1));
+            }
+        }
+        return new Manifest(version, Collections.unmodifiableMap(items));
+    }
+
+    private static void write(Manifest manifest, File file) throws IOException {
+        StringBuilder out = new StringBuilder(64 + manifest.items().size() * 96);
+        out.append(HEADER).append(' ').append(FORMAT).append('\n');
+        out.append("version ").append(manifest.version()).append('\n');
+        manifest.items().forEach((name, item) ->
+                out.append(item.hash()).append(' ').append(item.size()).append(' ').append(name).append('\n'));
+        writeAtomically(file, out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeAtomically(File target, byte[] data) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        // Hidden and not ending in .png, so folder watchers ignore it
+        File temp = new File(parent, "." + target.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            Files.write(temp.toPath(), data);
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static boolean isHash(String value) {
+        if (value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Names come from a shared folder, so only plain PNG file names are accepted
+    private static boolean isIconName(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".png") && !name.startsWith(".")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0;
+    }
+
+    /**
+     * A version of the store.
+     *
+     * @param version The version, increased by every publish.
+     * @param items   The icons keyed by file name.
+     */
+    public record Manifest(long version, Map<String, Item> items) {
+
+        public static final Manifest EMPTY = new Manifest(0, Collections.emptyMap());
+    }
+
+    /**
+     * An icon of a manifest.
+     *
+     * @param hash The SHA-256 hash of the file content, in hex.
+     * @param size The file size in bytes.
+     */
+    public record Item(String hash, long size) {
+    }
+}
@@ -0,0 +1,54 @@
+package ch.stefo.mcplugins.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+
+/**
+ * Writes analytics reports to a file as a JSON object, for external tools.
+ * Each report replaces the previous one; the file is written under a temporary name and then renamed,
+ * so readers never see a partial report.
+ */
+public final class AnalyticsFileWriter {
+
+    private final File file;
+
+    /**
+     * @param file The analytics file.
+     */
+    public AnalyticsFileWriter(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Writes a report.
+     *
+     * @param report The report.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void write(PingAnalytics.Report report) throws IOException {
+        StringBuilder json = new StringBuilder(256 + report.icons().size() * 64);
+        json.append("{\"time\":\"").append(Instant.now()).append('"');
+        json.append(",\"since\":\"").append(Instant.ofEpochMilli(report.startMillis())).append('"');
+        json.append(",\"pings\":").append(report.pings());
+        json.append(",\"uniquePingers\":").append(report.pingers());
+        json.append(",\"joins\":").append(report.joins());
+        json.append(",\"joinsAfterPing\":").append(report.matchedJoins());
+        json.append(",\"icons\":[");
+        boolean first = true;
+        for (PingAnalytics.IconCounts icon : report.icons()) {
+            json.append(first ? "\n" : ",\n").append("{\"name\":").append(MetricsFileWriter.quote(icon.name()))
+                    .append(",\"impressions\":").append(icon.impressions())
+                    .append(",\"conversions\":").append(icon.conversions()).append('}');
+            first = false;
+        }
+        json.append("]}\n");
+
+        File temp = new File(file.getPath() + ".tmp");
+        Files.writeString(temp.toPath(), json, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,81 @@
+package ch.stefo.mcplugins.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate counts of many items in a fixed amount of memory.
+ * <p>
+ * Each item is counted in one counter of every row, picked by a different hash per row; the estimate
+ * is the smallest of those counters. Estimates never undercount, and overcount by at most about
+ * e / width of the total count with high probability. Counters are atomic, so items may be added
+ * from several threads.
+ */
+public final class CountMinSketch {
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+            0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL, 0xBF58476D1CE4E5B9L
+    };
+
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param depth Number of rows, at most 8.
+     * @param width Counters per row, rounded up to a power of two.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > SEEDS.length) {
+            throw new IllegalArgumentException("depth must be between 1 and " + SEEDS.length);
+        }
+        this.depth = depth;
+        int rowSize = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.mask = rowSize - 1;
+        this.counters = new AtomicLongArray(depth * rowSize);
+    }
+
+    /**
+     * Adds to the count of an item.
+     *
+     * @param item  The item.
+     * @param count The amount to add.
+     */
+    public void add(long item, long count) {
+        for (int row = 0; row < depth; row++) {
+            counters.addAndGet(index(row, item), count);
+        }
+    }
+
+    /**
+     * @param item The item.
+     * @return The estimated count of the item, never less than its real count.
+     */
+    public long estimate(long item) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.get(index(row, item)));
+        }
+        return min;
+    }
+
+    /**
+     * @return Size of the counters in bytes.
+     */
+    public long memoryBytes() {
+        return counters.length() * 8L;
+    }
+
+    private int index(int row, long item) {
+        return row * (mask + 1) + ((int) (mix(item ^ SEEDS[row]) >>> 32) & mask);
+    }
+
+    /**
+     * Spreads the bits of a value over the whole hash (the finalizer of MurmurHash3).
+     */
+    static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+}
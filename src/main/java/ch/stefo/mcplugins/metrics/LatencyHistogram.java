@@ -0,0 +1,85 @@
+package ch.stefo.mcplugins.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed power-of-two buckets, from 256 ns up to 2^22 ns (about 4.2 ms) plus an overflow bucket.
+ * Recording is lock-free and allocation-free.
+ */
+public final class LatencyHistogram {
+
+    // Bucket i counts latencies up to 2^(FIRST_SHIFT + i) nanoseconds
+    private static final int FIRST_SHIFT = 8;
+    public static final int BUCKETS = 16;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = nanos <= (1L << FIRST_SHIFT) ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1) - FIRST_SHIFT;
+        counts[Math.min(bucket, BUCKETS - 1)].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @param bucket The bucket index.
+     * @return The upper bound of the bucket in nanoseconds, or Long.MAX_VALUE for the overflow bucket.
+     */
+    public static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << (FIRST_SHIFT + bucket);
+    }
+
+    /**
+     * @return The number of recorded latencies per bucket.
+     */
+    public long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls into.
+     *
+     * @param snapshot   Bucket counts from {@link #snapshot()}.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long percentile(long[] snapshot, double percentile) {
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? getMaxNanos() : upperBound(i);
+            }
+        }
+        return getMaxNanos();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+}
@@ -0,0 +1,112 @@
+package ch.stefo.mcplugins.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Appends metrics snapshots to a file, one JSON object per line, for scraping by external tools.
+ * The file is rotated when it grows beyond a size limit, keeping a fixed number of old files
+ * (metrics.log.1 being the most recent).
+ */
+public final class MetricsFileWriter {
+
+    private final File file;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    /**
+     * @param file     The metrics file.
+     * @param maxBytes Size after which the file is rotated.
+     * @param maxFiles Number of rotated files kept.
+     */
+    public MetricsFileWriter(File file, long maxBytes, int maxFiles) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Appends a snapshot of the metrics.
+     *
+     * @param metrics The metrics.
+     * @param names   Names of the loaded icons keyed by content hash.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void write(PluginMetrics metrics, Map<String, String> names) throws IOException {
+        if (file.length() > maxBytes) {
+            rotate();
+        }
+        long[] buckets = metrics.getPingLatency().snapshot();
+        LatencyHistogram latency = metrics.getPingLatency();
+        StringBuilder line = new StringBuilder(512);
+        line.append("{\"time\":\"").append(Instant.now()).append('"');
+        line.append(",\"pings\":").append(metrics.getPings());
+        line.append(",\"pingP50Nanos\":").append(latency.percentile(buckets, 50));
+        line.append(",\"pingP99Nanos\":").append(latency.percentile(buckets, 99));
+        line.append(",\"pingMaxNanos\":").append(latency.getMaxNanos());
+        line.append(",\"pingLatencyBuckets\":[");
+        for (int i = 0; i < buckets.length; i++) {
+            line.append(i == 0 ? "" : ",").append(buckets[i]);
+        }
+        line.append(']');
+        appendCounts(line, "pingsBySource", metrics.getPingsBySource());
+        appendCounts(line, "pingsByIcon", metrics.getTopIcons(names, Integer.MAX_VALUE));
+        line.append(",\"timings\":{");
+        boolean first = true;
+        for (Map.Entry<String, Timing> entry : metrics.getTimings().entrySet()) {
+            Timing timing = entry.getValue();
+            line.append(first ? "" : ",").append(quote(entry.getKey()))
+                    .append(":{\"count\":").append(timing.getCount())
+                    .append(",\"avgMillis\":").append(timing.getAverageMillis())
+                    .append(",\"maxMillis\":").append(timing.getMaxMillis())
+                    .append(",\"lastMillis\":").append(timing.getLastMillis()).append('}');
+            first = false;
+        }
+        line.append("}}\n");
+        Files.writeString(file.toPath(), line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void rotate() throws IOException {
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File older = new File(file.getPath() + "." + i);
+            if (older.exists()) {
+                Files.move(older.toPath(), new File(file.getPath() + "." + (i + 1)).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file.toPath(), new File(file.getPath() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(new File(file.getPath() + "." + (maxFiles + 1)).toPath());
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static void appendCounts(StringBuilder line, String key, Map<String, Long> counts) {
+        line.append(",\"").append(key).append("\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            line.append(first ? "" : ",").append(quote(entry.getKey())).append(':').append(entry.getValue());
+            first = false;
+        }
+        line.append('}');
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
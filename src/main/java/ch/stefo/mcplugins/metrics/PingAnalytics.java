@@ -0,0 +1,195 @@
+package ch.stefo.mcplugins.metrics;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures which icons lead to joins: how often each icon was shown in the server list, and how often
+ * the address it was shown to joined the server within a time window afterwards.
+ * <p>
+ * Icons are identified by the content hash of their file, so counts survive reloads and renames, and files
+ * with the same content count as one icon.
+ * <p>
+ * Memory use is fixed, however many addresses ping. Impressions and conversions per icon are counted
+ * in count-min sketches, and distinct pinging addresses in a HyperLogLog. The last ping of each address
+ * is remembered in a fixed number of slots picked by a hash of the address; an address sharing a slot
+ * with a later pinger loses its ping, so a join after many pings from other addresses may go unmatched.
+ * A ping counts towards at most one join. All counts are approximate and safe to update from any thread.
+ */
+public final class PingAnalytics {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 2048;
+    private static final int HLL_PRECISION = 14;
+
+    private final long windowNanos;
+    private final int slotMask;
+    private final long origin = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    // Random per instance so that addresses sharing a slot cannot be chosen on purpose
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    // Per slot: a fingerprint of the last pinging address and the key of the icon it was shown
+    private final AtomicLongArray lastPings;
+    // Per slot: when the last ping happened, in nanoseconds since the origin plus one, 0 if never
+    private final AtomicLongArray lastPingTimes;
+
+    private final CountMinSketch impressions = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+    private final CountMinSketch conversions = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+    private final HyperLogLog pingers = new HyperLogLog(HLL_PRECISION);
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder joins = new LongAdder();
+    private final LongAdder matchedJoins = new LongAdder();
+
+    /**
+     * @param windowMillis Time after a ping in which a join from the same address counts for the icon shown.
+     * @param slots        Number of addresses whose last ping is remembered, rounded up to a power of two.
+     */
+    public PingAnalytics(long windowMillis, int slots) {
+        this.windowNanos = windowMillis * 1_000_000L;
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.slotMask = size - 1;
+        this.lastPings = new AtomicLongArray(size);
+        this.lastPingTimes = new AtomicLongArray(size);
+    }
+
+    /**
+     * Records that an icon was shown to an address.
+     *
+     * @param address  The pinging address, may be null.
+     * @param iconHash The content hash of the icon shown, before any overlays, or null if it is not known.
+     */
+    public void recordPing(InetAddress address, String iconHash) {
+        pings.increment();
+        int key = iconHash != null ? key(iconHash) : 0;
+        if (key != 0) {
+            impressions.add(key, 1);
+        }
+        if (address == null) {
+            return;
+        }
+        long hash = hash(address);
+        pingers.add(hash);
+        int slot = (int) hash & slotMask;
+        // Ordered but unfenced writes; a join reading the slot at the same time may see only one of them
+        lastPingTimes.lazySet(slot, System.nanoTime() - origin + 1);
+        lastPings.lazySet(slot, (hash & 0xFFFFFFFF00000000L) | (key & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Records a join and counts it for the icon last shown to its address, if that was within the window.
+     *
+     * @param address The address of the joining player.
+     */
+    public void recordJoin(InetAddress address) {
+        joins.increment();
+        long hash = hash(address);
+        int slot = (int) hash & slotMask;
+        long lastPing = lastPings.get(slot);
+        long time = lastPingTimes.get(slot);
+        if (time == 0 || (lastPing & 0xFFFFFFFF00000000L) != (hash & 0xFFFFFFFF00000000L)
+                || System.nanoTime() - origin + 1 - time > windowNanos) {
+            return;
+        }
+        // Only the first join after a ping counts
+        if (lastPings.compareAndSet(slot, lastPing, 0)) {
+            matchedJoins.increment();
+            int key = (int) lastPing;
+            if (key != 0) {
+                conversions.add(key, 1);
+            }
+        }
+    }
+
+    /**
+     * Creates a report of the counts so far.
+     *
+     * @param names Names of the icons to report keyed by content hash, other icons are left out.
+     * @return The report, with icons sorted by impressions, most first.
+     */
+    public Report report(Map<String, String> names) {
+        List<IconCounts> icons = new ArrayList<>(names.size());
+        names.forEach((hash, name) -> {
+            int key = key(hash);
+            long shown = impressions.estimate(key);
+            if (shown > 0) {
+                icons.add(new IconCounts(name, shown, Math.min(shown, conversions.estimate(key))));
+            }
+        });
+        icons.sort(Comparator.comparingLong(IconCounts::impressions).reversed().thenComparing(IconCounts::name));
+        return new Report(startMillis, pings.sum(), pingers.estimate(), joins.sum(), matchedJoins.sum(), icons);
+    }
+
+    /**
+     * @return Memory taken by the sketches and the ping slots, in bytes.
+     */
+    public long memoryBytes() {
+        return impressions.memoryBytes() + conversions.memoryBytes() + pingers.memoryBytes() + lastPings.length() * 16L;
+    }
+
+    public long getWindowMillis() {
+        return windowNanos / 1_000_000L;
+    }
+
+    /**
+     * @return Key of an icon in the sketches, never 0 so that 0 can stand for no icon.
+     */
+    private static int key(String hash) {
+        // String caches its hash code, and the code is the same in every run
+        int key = (int) CountMinSketch.mix(hash.hashCode());
+        return key != 0 ? key : 1;
+    }
+
+    /**
+     * Hashes an address eight bytes at a time, so distinct IPv4 addresses never share a hash.
+     */
+    private long hash(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        long hash = seed;
+        long word = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            word = word << 8 | (bytes[i] & 0xFF);
+            if ((i & 7) == 7 || i == bytes.length - 1) {
+                hash = CountMinSketch.mix(hash ^ word);
+                word = 0;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Impressions and conversions of an icon.
+     *
+     * @param name        The icon name.
+     * @param impressions Estimated number of pings the icon was shown in.
+     * @param conversions Estimated number of joins within the window after the icon was shown.
+     */
+    public record IconCounts(String name, long impressions, long conversions) {
+
+        /**
+         * @return Conversions per impression, in percent.
+         */
+        public double conversionRate() {
+            return impressions > 0 ? conversions * 100.0 / impressions : 0.0;
+        }
+    }
+
+    /**
+     * Counts since the analytics started.
+     *
+     * @param startMillis  When the analytics started.
+     * @param pings        Pings recorded.
+     * @param pingers      Estimated number of distinct pinging addresses.
+     * @param joins        Joins recorded.
+     * @param matchedJoins Joins within the window after a ping from the same address.
+     * @param icons        Counts per icon, sorted by impressions.
+     */
+    public record Report(long startMillis, long pings, long pingers, long joins, long matchedJoins, List<IconCounts> icons) {
+    }
+}
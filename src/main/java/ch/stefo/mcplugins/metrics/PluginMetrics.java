@@ -0,0 +1,133 @@
+package ch.stefo.mcplugins.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of the plugin.
+ * <p>
+ * Pings are counted per source (player icon, date icon or selection mode) and per icon served, keyed by
+ * the content hash of its file, so counts survive reloads and hold no icons. Their handling time goes
+ * into a latency histogram. All ping counters are LongAdders, so
+ * concurrent pings do not contend. When disabled, callers skip the clock reads and recording entirely.
+ */
+public final class PluginMetrics {
+
+    public static final PluginMetrics DISABLED = new PluginMetrics(false);
+
+    // Icons beyond this many distinct ones are counted as "other"
+    private static final int MAX_TRACKED_ICONS = 4096;
+
+    private final boolean enabled;
+    private final long startMillis = System.currentTimeMillis();
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder untrackedIconPings = new LongAdder();
+    private final Map<String, LongAdder> pingsBySource = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> pingsByIcon = new ConcurrentHashMap<>();
+    private final LatencyHistogram pingLatency = new LatencyHistogram();
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+
+    public PluginMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a handled ping. Only call when enabled.
+     *
+     * @param source   The source of the icon, a constant string.
+     * @param iconHash The content hash of the icon served, before any overlays, or null if it is not known.
+     * @param nanos    Time spent handling the ping.
+     */
+    public void recordPing(String source, String iconHash, long nanos) {
+        pings.increment();
+        pingLatency.record(nanos);
+        LongAdder bySource = pingsBySource.get(source);
+        if (bySource == null) {
+            bySource = pingsBySource.computeIfAbsent(source, key -> new LongAdder());
+        }
+        bySource.increment();
+        if (iconHash != null) {
+            LongAdder byIcon = pingsByIcon.get(iconHash);
+            if (byIcon == null && pingsByIcon.size() < MAX_TRACKED_ICONS) {
+                byIcon = pingsByIcon.computeIfAbsent(iconHash, key -> new LongAdder());
+            }
+            if (byIcon != null) {
+                byIcon.increment();
+            } else {
+                untrackedIconPings.increment();
+            }
+        }
+    }
+
+    /**
+     * Records the duration of an operation. Does nothing when disabled.
+     *
+     * @param operation The operation, e.g. "refresh".
+     * @param nanos     The duration.
+     */
+    public void recordTiming(String operation, long nanos) {
+        if (enabled) {
+            timings.computeIfAbsent(operation, key -> new Timing()).record(nanos);
+        }
+    }
+
+    public long getPings() {
+        return pings.sum();
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public LatencyHistogram getPingLatency() {
+        return pingLatency;
+    }
+
+    /**
+     * @return Ping counts per source, sorted by source.
+     */
+    public Map<String, Long> getPingsBySource() {
+        Map<String, Long> counts = new TreeMap<>();
+        pingsBySource.forEach((source, count) -> counts.put(source, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Gets ping counts per icon, most served first.
+     *
+     * @param names Names of the loaded icons keyed by content hash.
+     * @param limit Maximum number of icons returned.
+     * @return The counts keyed by icon name.
+     */
+    public Map<String, Long> getTopIcons(Map<String, String> names, int limit) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        pingsByIcon.entrySet().stream()
+                .map(entry -> Map.entry(entry.getKey(), entry.getValue().sum()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(limit)
+                .forEach(entry -> {
+                    String name = names.get(entry.getKey());
+                    counts.merge(name != null ? name : "(unloaded)", entry.getValue(), Long::sum);
+                });
+        long other = untrackedIconPings.sum();
+        if (other > 0) {
+            counts.put("(other)", other);
+        }
+        return counts;
+    }
+
+    /**
+     * @return Timings per operation, sorted by operation.
+     */
+    public Map<String, Timing> getTimings() {
+        return Collections.unmodifiableMap(new TreeMap<>(timings));
+    }
+}
@@ -0,0 +1,35 @@
+package ch.stefo.mcplugins.metrics;
+
+/**
+ * Count, total, maximum and last duration of an infrequent operation such as a reload.
+ */
+public final class Timing {
+
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long lastNanos;
+
+    public synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        lastNanos = nanos;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getAverageMillis() {
+        return count == 0 ? 0 : totalNanos / count / 1_000_000L;
+    }
+
+    public synchronized long getMaxMillis() {
+        return maxNanos / 1_000_000L;
+    }
+
+    public synchronized long getLastMillis() {
+        return lastNanos / 1_000_000L;
+    }
+}
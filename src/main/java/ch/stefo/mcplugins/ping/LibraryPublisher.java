@@ -0,0 +1,157 @@
+package ch.stefo.mcplugins.ping;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.library.IconCache;
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.library.IconLibrary;
+import ch.stefo.mcplugins.render.IconRenderer;
+import ch.stefo.mcplugins.schedule.ScheduleResolver;
+import ch.stefo.mcplugins.selection.IconResolver;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Publishes a newly loaded icon library to the ping handler: the selection, the default icon,
+ * the player icons and the schedule all take their icons from it.
+ * <p>
+ * Lazily loaded libraries hold no icons. Their selected icons are resolved through the icon cache,
+ * which loads the icons the rotation shows next ahead of time, and the default icon is loaded in the
+ * background while the previous one stays in place. Must only be used from the main thread.
+ */
+public final class LibraryPublisher {
+
+    private final PingHandler pingHandler;
+    private final ScheduleResolver schedule;
+    private final IconCache iconCache;
+    private final int prefetch;
+    private final Function<IconEntry, CompletableFuture<CachedServerIcon>> defaultLoader;
+    private final Executor mainThread;
+    private final IconRenderer renderer;
+    private final Logger logger;
+
+    /**
+     * @param pingHandler   The handler to publish to.
+     * @param schedule      Resolves the icons of the schedule rules.
+     * @param iconCache     Holds the icons of lazily loaded libraries, or null if libraries are loaded eagerly.
+     * @param prefetch      How many of the icons the rotation shows next to load ahead of time.
+     * @param defaultLoader Loads the default icon of a lazily loaded library. It is the fallback for icons
+     *                      that are not loaded yet, so it is kept loaded outside of the icon cache.
+     * @param mainThread    Runs the publishing of the default icon loaded in the background on the main thread.
+     * @param renderer      Draws overlays over the selected icons, or null if icons are shown as they are.
+     * @param logger        Logger for missing icons.
+     */
+    public LibraryPublisher(PingHandler pingHandler, ScheduleResolver schedule, IconCache iconCache, int prefetch,
+                            Function<IconEntry, CompletableFuture<CachedServerIcon>> defaultLoader, Executor mainThread,
+                            IconRenderer renderer, Logger logger) {
+        this.pingHandler = pingHandler;
+        this.schedule = schedule;
+        this.iconCache = iconCache;
+        this.prefetch = prefetch;
+        this.defaultLoader = defaultLoader;
+        this.mainThread = mainThread;
+        this.renderer = renderer;
+        this.logger = logger;
+    }
+
+    /**
+     * Swaps in a new icon library and recompiles the selection for it.
+     *
+     * @param library         The library to publish.
+     * @param defaultIconName The file name of the default icon, or null if none is configured.
+     * @param playerIconNames Icon file names keyed by player name.
+     */
+    public void publish(IconLibrary library, String defaultIconName, Map<String, String> playerIconNames) {
+        CachedServerIcon defaultIcon = resolveDefaultIcon(library, defaultIconName);
+        pingHandler.setDefaultEntry(defaultIconName != null ? library.find(defaultIconName) : null);
+        if (renderer != null) {
+            renderer.retryFailed();
+        }
+        IconResolver resolver = IconResolver.LOADED;
+        if (iconCache != null) {
+            iconCache.retain(library.getEntries());
+            resolver = iconCache::get;
+        }
+        pingHandler.setPlayerIcons(compilePlayerIcons(library, playerIconNames));
+        schedule.resolve(library);
+        IconResolver newResolver = resolver;
+        pingHandler.updateSelection(selection -> selection.withEntries(library.getEntries(), defaultIcon, newResolver));
+        prefetchUpcoming();
+    }
+
+    /**
+     * Loads the icons the rotation shows next into the icon cache, so rotating never shows an icon that is not loaded.
+     */
+    public void prefetchUpcoming() {
+        if (iconCache != null) {
+            iconCache.prefetch(pingHandler.getSelection().upcoming(prefetch));
+        }
+    }
+
+    /**
+     * Resolves the configured default icon from a library instead of decoding it again.
+     *
+     * @param source          The library.
+     * @param defaultIconName The file name of the default icon, or null if none is configured.
+     * @return The default icon, or the current one if the library does not contain it or it is still loading.
+     */
+    private CachedServerIcon resolveDefaultIcon(IconLibrary source, String defaultIconName) {
+        CachedServerIcon defaultIcon = pingHandler.getSelection().getDefaultIcon();
+        if (defaultIconName != null) {
+            IconEntry defaultEntry = source.find(defaultIconName);
+            IconEntry current = pingHandler.getDefaultEntry();
+            if (defaultEntry != null && defaultEntry.icon() == null && defaultIcon != null
+                    && current != null && current.hash().equals(defaultEntry.hash())) {
+                // Unchanged, so there is nothing to load again
+                return defaultIcon;
+            }
+            if (defaultEntry == null) {
+                logger.warning("Default icon file " + defaultIconName + " does not exist.");
+            } else if (defaultEntry.icon() != null) {
+                defaultIcon = defaultEntry.icon();
+            } else {
+                loadDefaultIcon(defaultEntry);
+            }
+        }
+        return defaultIcon;
+    }
+
+    /**
+     * Loads the default icon of a lazily loaded library and publishes it on the main thread,
+     * unless the default icon changed in the meantime.
+     *
+     * @param entry The entry of the default icon.
+     */
+    private void loadDefaultIcon(IconEntry entry) {
+        defaultLoader.apply(entry).thenAccept(icon -> mainThread.execute(() -> {
+            IconEntry current = pingHandler.getDefaultEntry();
+            if (icon != null && current != null && current.hash().equals(entry.hash())) {
+                pingHandler.updateSelection(selection -> selection.withDefaultIcon(icon));
+            }
+        }));
+    }
+
+    /**
+     * Resolves the player icons from a library. Players whose icons it does not contain are left out.
+     *
+     * @param source          The library to take the icons from.
+     * @param playerIconNames Icon file names keyed by player name.
+     * @return The library entries keyed by lowercase player name.
+     */
+    private static Map<String, IconEntry> compilePlayerIcons(IconLibrary source, Map<String, String> playerIconNames) {
+        Map<String, IconEntry> icons = new HashMap<>();
+        playerIconNames.forEach((playerName, iconName) -> {
+            IconEntry entry = iconName != null ? source.find(iconName) : null;
+            if (entry != null) {
+                icons.put(playerName.toLowerCase(Locale.ROOT), entry);
+            }
+        });
+        return Collections.unmodifiableMap(icons);
+    }
+}
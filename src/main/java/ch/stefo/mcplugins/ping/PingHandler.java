@@ -0,0 +1,194 @@
+package ch.stefo.mcplugins.ping;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.metrics.PingAnalytics;
+import ch.stefo.mcplugins.metrics.PluginMetrics;
+import ch.stefo.mcplugins.player.PlayerAddressIndex;
+import ch.stefo.mcplugins.render.IconRenderer;
+import ch.stefo.mcplugins.selection.IconSelection;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Picks the server icon for a ping: the pinging player's icon, else the scheduled icon, else the selection.
+ * Icons picked by the selection get the overlays of the renderer, if one is set.
+ * Pings over the rate limit skip all of that and get a fixed response. Other pings are recorded in the
+ * metrics and the analytics, if set, with the icon as it was before any overlays.
+ * <p>
+ * The handler does not depend on a running server; the plugin forwards ping events to it and
+ * publishes new state through the setters. All state is immutable and held in fields that are
+ * replaced as a whole, so a ping sees either the old or the new state but never a mix of both.
+ * Every method is safe from any thread: pings may be handled concurrently with each other, with
+ * rotation and with updates, as on servers that fire ping events off the main thread.
+ */
+public final class PingHandler {
+
+    private final PlayerAddressIndex playerAddresses;
+    private final PluginMetrics metrics;
+    private final PingRateLimiter limiter;
+    private final ThrottledResponse throttledResponse;
+
+    // Compiled icon selection, replaced as a whole on every change
+    private final AtomicReference<IconSelection> selection =
+            new AtomicReference<>(IconSelection.compile("static", Collections.emptyList(), null));
+
+    // The icon of the active schedule rule, or null if no rule is active
+    private volatile IconEntry scheduledEntry;
+
+    // The library entry of the default icon, or null if it has none
+    private volatile IconEntry defaultEntry;
+
+    // Player icons keyed by lowercase player name, resolved like the selected icons
+    private volatile Map<String, IconEntry> playerIcons = Collections.emptyMap();
+
+    // Draws overlays over the selected icons, or null if icons are shown as they are
+    private volatile IconRenderer renderer;
+
+    // Records which icon each address was shown, or null if analytics are disabled
+    private volatile PingAnalytics analytics;
+
+    /**
+     * @param playerAddresses   Resolves pinging addresses to players.
+     * @param metrics           Records handled pings.
+     * @param limiter           Limits the ping rate per address and during ping storms.
+     * @param throttledResponse What pings over the limit are answered with.
+     */
+    public PingHandler(PlayerAddressIndex playerAddresses, PluginMetrics metrics, PingRateLimiter limiter,
+                       ThrottledResponse throttledResponse) {
+        this.playerAddresses = playerAddresses;
+        this.metrics = metrics;
+        this.limiter = limiter;
+        this.throttledResponse = throttledResponse;
+    }
+
+    /**
+     * Picks the icon for a ping.
+     *
+     * @param address The pinging address, may be null.
+     * @return The icon, or null to leave the server icon untouched.
+     */
+    public CachedServerIcon handle(InetAddress address) {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+        IconSelection current = selection.get();
+        CachedServerIcon icon = null;
+        // The library entry of the icon, before overlays were drawn over it
+        IconEntry entry = null;
+        String source;
+
+        // Storms do not throttle addresses players joined from, which are only looked up during a storm
+        boolean known = limiter.isStorm() && playerAddresses.lookup(address) != null;
+        if (!limiter.tryAcquire(address, known)) {
+            icon = throttledResponse == ThrottledResponse.DEFAULT ? current.getDefaultIcon() : null;
+            if (metrics.isEnabled()) {
+                IconEntry throttledEntry = icon != null ? defaultEntry : null;
+                metrics.recordPing("throttled", throttledEntry != null ? throttledEntry.hash() : null, System.nanoTime() - start);
+            }
+            return icon;
+        }
+
+        // Check for a player icon of the player that last joined from this address
+        Map<String, IconEntry> perPlayer = playerIcons;
+        if (!perPlayer.isEmpty()) {
+            String playerName = playerAddresses.lookup(address);
+            entry = playerName != null ? perPlayer.get(playerName) : null;
+            icon = entry != null ? current.resolve(entry) : null;
+        }
+
+        IconEntry scheduled;
+        if (icon != null) {
+            source = "player";
+        } else if ((scheduled = scheduledEntry) != null) {
+            // Icon of the active schedule rule (preloaded and swapped at every schedule transition)
+            entry = scheduled;
+            icon = scheduled.icon();
+            source = "schedule";
+        } else {
+            // Let the compiled selection pick the icon
+            entry = current.selectEntry();
+            icon = entry != null ? current.resolve(entry) : null;
+            if (icon == null) {
+                icon = current.getDefaultIcon();
+                entry = defaultEntry;
+            }
+            IconRenderer overlays = renderer;
+            if (overlays != null && icon != null) {
+                icon = overlays.render(entry, icon);
+            }
+            source = current.getMode();
+        }
+
+        String hash = entry != null ? entry.hash() : null;
+        PingAnalytics recorder = analytics;
+        if (recorder != null) {
+            recorder.recordPing(address, hash);
+        }
+        if (metrics.isEnabled()) {
+            metrics.recordPing(source, hash, System.nanoTime() - start);
+        }
+        return icon;
+    }
+
+    public IconSelection getSelection() {
+        return selection.get();
+    }
+
+    public void setSelection(IconSelection selection) {
+        this.selection.set(selection);
+    }
+
+    /**
+     * Replaces the selection with one derived from it. Concurrent updates are not lost,
+     * the function is applied again if the selection changed in the meantime.
+     *
+     * @param update Derives the new selection, without side effects.
+     * @return The new selection.
+     */
+    public IconSelection updateSelection(UnaryOperator<IconSelection> update) {
+        return selection.updateAndGet(update);
+    }
+
+    /**
+     * Moves the selection on by one rotation interval.
+     */
+    public void rotate() {
+        selection.updateAndGet(IconSelection::advance);
+    }
+
+    /**
+     * @param scheduledEntry The icon of the active schedule rule, loaded, or null if no rule is active.
+     */
+    public void setScheduledEntry(IconEntry scheduledEntry) {
+        this.scheduledEntry = scheduledEntry;
+    }
+
+    public IconEntry getDefaultEntry() {
+        return defaultEntry;
+    }
+
+    /**
+     * @param defaultEntry The library entry of the default icon, used for overlays and analytics, or null if it has none.
+     */
+    public void setDefaultEntry(IconEntry defaultEntry) {
+        this.defaultEntry = defaultEntry;
+    }
+
+    public void setRenderer(IconRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    public void setAnalytics(PingAnalytics analytics) {
+        this.analytics = analytics;
+    }
+
+    /**
+     * @param playerIcons Library entries of the player icons keyed by lowercase player name, not modified afterwards.
+     */
+    public void setPlayerIcons(Map<String, IconEntry> playerIcons) {
+        this.playerIcons = playerIcons;
+    }
+}
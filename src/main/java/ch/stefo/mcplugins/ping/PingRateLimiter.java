@@ -0,0 +1,169 @@
+package ch.stefo.mcplugins.ping;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the ping rate per address, and detects ping storms across all addresses.
+ * <p>
+ * Addresses are hashed onto a fixed number of token buckets, so memory does not grow with the number
+ * of addresses; addresses sharing a bucket share its limit. Each bucket is a single long holding the
+ * time at which it is full again (the generic cell rate algorithm, equivalent to a token bucket),
+ * updated with compare-and-set. Pings over the limit only read the bucket. Buckets lie on separate
+ * cache lines, so pings from different addresses do not contend.
+ * <p>
+ * The global rate is counted on every ping and evaluated by {@link #sample()}, which must be called
+ * about once a second. While the rate is above the storm threshold, every ping from an unknown source
+ * is over the limit; pings from the addresses of known players are still only limited per address.
+ */
+public final class PingRateLimiter {
+
+    /**
+     * A limiter that never limits.
+     */
+    public static final PingRateLimiter UNLIMITED = new PingRateLimiter(0, 0, 0);
+
+    private static final int STRIPES = 4096;
+    // Longs per cache line, only every eighth slot of the array is used
+    private static final int STRIDE = 8;
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final long stormPerSecond;
+    private final AtomicLongArray buckets;
+    private final long origin = System.nanoTime();
+    // Random per limiter so that addresses sharing a bucket cannot be chosen on purpose
+    private final int seed = ThreadLocalRandom.current().nextInt();
+
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder throttledByAddress = new LongAdder();
+    private final LongAdder throttledByStorm = new LongAdder();
+
+    private volatile boolean storm;
+    private volatile long rate;
+    private long storms;
+    private long lastPings;
+    private long lastSampleNanos = origin;
+
+    /**
+     * @param perSecond      Sustained pings per second allowed per address, or 0 for no per-address limit.
+     * @param burst          Pings an address may send at once before the sustained rate applies.
+     * @param stormPerSecond Pings per second across all addresses above which all pings are limited, or 0 for never.
+     */
+    public PingRateLimiter(double perSecond, int burst, long stormPerSecond) {
+        this.intervalNanos = perSecond > 0 ? Math.max(1, (long) (1_000_000_000L / perSecond)) : 0;
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+        this.stormPerSecond = stormPerSecond;
+        this.buckets = intervalNanos > 0 ? new AtomicLongArray(STRIPES * STRIDE) : null;
+    }
+
+    /**
+     * Counts a ping from an unknown source and checks whether it is within the limits.
+     *
+     * @param address The pinging address, may be null.
+     * @return Whether the ping may be answered in full.
+     */
+    public boolean tryAcquire(InetAddress address) {
+        return tryAcquire(address, false);
+    }
+
+    /**
+     * Counts a ping and checks whether it is within the limits.
+     *
+     * @param address The pinging address, may be null.
+     * @param known   Whether a known player joined from the address, such pings are not limited by storms.
+     * @return Whether the ping may be answered in full.
+     */
+    public boolean tryAcquire(InetAddress address, boolean known) {
+        if (stormPerSecond > 0) {
+            pings.increment();
+            if (storm && !known) {
+                throttledByStorm.increment();
+                return false;
+            }
+        }
+        if (buckets == null || address == null) {
+            return true;
+        }
+        int slot = stripe(address) * STRIDE;
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long full = buckets.get(slot);
+            long start = Math.max(full, now);
+            if (start - now > toleranceNanos) {
+                throttledByAddress.increment();
+                return false;
+            }
+            if (buckets.compareAndSet(slot, full, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    private int stripe(InetAddress address) {
+        // Murmur3 finalizer, spreads the address hash over all stripes
+        int hash = address.hashCode() ^ seed;
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash & (STRIPES - 1);
+    }
+
+    /**
+     * Updates the global ping rate and enters or leaves storm mode.
+     * Storm mode is left once the rate falls below 80% of the threshold.
+     *
+     * @return Whether storm mode changed.
+     */
+    public synchronized boolean sample() {
+        long now = System.nanoTime();
+        long total = pings.sum();
+        long elapsed = Math.max(1, now - lastSampleNanos);
+        long current = (total - lastPings) * 1_000_000_000L / elapsed;
+        lastPings = total;
+        lastSampleNanos = now;
+        rate = current;
+        if (stormPerSecond <= 0) {
+            return false;
+        }
+        boolean wasStorm = storm;
+        if (!wasStorm && current > stormPerSecond) {
+            storm = true;
+            storms++;
+        } else if (wasStorm && current < stormPerSecond * 8 / 10) {
+            storm = false;
+        }
+        return storm != wasStorm;
+    }
+
+    public boolean isEnabled() {
+        return buckets != null || stormPerSecond > 0;
+    }
+
+    public boolean isStorm() {
+        return storm;
+    }
+
+    /**
+     * @return Pings per second across all addresses at the last sample, only counted if storm detection is on.
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    public synchronized long getStorms() {
+        return storms;
+    }
+
+    public long getThrottledByAddress() {
+        return throttledByAddress.sum();
+    }
+
+    public long getThrottledByStorm() {
+        return throttledByStorm.sum();
+    }
+}
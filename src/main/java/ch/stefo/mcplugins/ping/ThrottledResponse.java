@@ -0,0 +1,31 @@
+package ch.stefo.mcplugins.ping;
+
+import java.util.Locale;
+
+/**
+ * What pings over the rate limit are answered with.
+ */
+public enum ThrottledResponse {
+
+    /**
+     * The default icon of the selection.
+     */
+    DEFAULT,
+
+    /**
+     * No icon, the server answers with its own icon.
+     */
+    NONE;
+
+    /**
+     * @param name The response name (case-insensitive).
+     * @return The response, or null if the name is unknown.
+     */
+    public static ThrottledResponse parse(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
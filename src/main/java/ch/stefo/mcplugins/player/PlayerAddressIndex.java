@@ -0,0 +1,158 @@
+package ch.stefo.mcplugins.player;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which player last joined from which address, so pings can be matched to a player.
+ * <p>
+ * Only joins add entries. The index holds at most a fixed number of addresses and forgets addresses
+ * that have not been seen for the expiry time; when it is full, the least recently seen addresses
+ * are dropped. Lookups never block and are safe from any thread.
+ */
+public final class PlayerAddressIndex {
+
+    private final Map<InetAddress, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long expiryMillis;
+    // Counts changes, so a save knows whether anything changed since the last successful one
+    private final AtomicLong changes = new AtomicLong();
+    private long savedChanges;
+
+    /**
+     * @param maxEntries   Maximum number of addresses kept.
+     * @param expiryMillis Time after which an address is forgotten.
+     */
+    public PlayerAddressIndex(int maxEntries, long expiryMillis) {
+        this.maxEntries = maxEntries;
+        this.expiryMillis = expiryMillis;
+    }
+
+    /**
+     * Records that a player joined from an address.
+     *
+     * @param address The player's address.
+     * @param name    The player name.
+     */
+    public void record(InetAddress address, String name) {
+        entries.put(address, new Entry(name.toLowerCase(Locale.ROOT), System.currentTimeMillis()));
+        changes.incrementAndGet();
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Looks up the player that last joined from an address.
+     *
+     * @param address The address, may be null.
+     * @return The lowercase player name, or null if no player joined from it recently.
+     */
+    public String lookup(InetAddress address) {
+        Entry entry = address != null ? entries.get(address) : null;
+        if (entry == null || System.currentTimeMillis() - entry.lastSeen() > expiryMillis) {
+            return null;
+        }
+        return entry.name();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops expired addresses and, if the index is still full, the least recently seen ones.
+     * Evicts down to 90% of the capacity so a full index does not evict on every join.
+     */
+    public synchronized void evict() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> now - entry.lastSeen() > expiryMillis);
+        int target = maxEntries * 9 / 10;
+        if (entries.size() > target) {
+            List<Map.Entry<InetAddress, Entry>> oldest = new ArrayList<>(entries.entrySet());
+            oldest.sort(Comparator.comparingLong(e -> e.getValue().lastSeen()));
+            for (int i = 0; i < oldest.size() - target; i++) {
+                entries.remove(oldest.get(i).getKey(), oldest.get(i).getValue());
+            }
+        }
+        changes.incrementAndGet();
+    }
+
+    /**
+     * Loads the addresses saved by {@link #save(File)}. Expired addresses are skipped.
+     *
+     * @param file The file.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public void load(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length != 3) {
+                    continue;
+                }
+                try {
+                    long lastSeen = Long.parseLong(parts[2]);
+                    if (now - lastSeen <= expiryMillis) {
+                        // Literal addresses only, this never does a DNS lookup
+                        entries.put(InetAddress.getByName(parts[0]), new Entry(parts[1], lastSeen));
+                    }
+                } catch (NumberFormatException | IOException e) {
+                    // Skip malformed lines
+                }
+            }
+        }
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Saves the addresses if they changed since the last successful save.
+     * The file is replaced atomically, so a crash never leaves a partial file. Joins during a save
+     * may or may not be in the file, but are saved by the next save either way.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        long current = changes.get();
+        if (current == savedChanges) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<InetAddress, Entry> entry : entries.entrySet()) {
+                    writer.write(entry.getKey().getHostAddress() + "\t" + entry.getValue().name() + "\t" + entry.getValue().lastSeen());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedChanges = current;
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private record Entry(String name, long lastSeen) {
+    }
+}
@@ -0,0 +1,144 @@
+package ch.stefo.mcplugins.render;
+
+import ch.stefo.mcplugins.image.IconImages;
+
+/**
+ * The ARGB pixels of a server icon that overlay layers draw on.
+ * Drawing blends colors over the existing pixels by their alpha and clips at the icon edges.
+ * Text is drawn with a built-in 3x5 pixel font, which stays sharp at icon size and needs no system fonts.
+ */
+public final class Canvas {
+
+    // Glyph rows from top to bottom, each the 3 bits of a row with the leftmost pixel in the highest bit
+    private static final String GLYPHS = "0123456789dhm+:";
+    private static final int[][] GLYPH_ROWS = {
+            {7, 5, 5, 5, 7}, {2, 6, 2, 2, 7}, {7, 1, 7, 4, 7}, {7, 1, 7, 1, 7}, {5, 5, 7, 1, 1},
+            {7, 4, 7, 1, 7}, {7, 4, 7, 5, 7}, {7, 1, 1, 1, 1}, {7, 5, 7, 5, 7}, {7, 5, 7, 1, 7},
+            {1, 1, 7, 5, 7}, {4, 4, 7, 5, 5}, {0, 0, 7, 7, 5}, {0, 2, 7, 2, 0}, {0, 2, 0, 2, 0}
+    };
+
+    // Width and height of a glyph in font pixels, and the space after it
+    public static final int GLYPH_WIDTH = 3;
+    public static final int GLYPH_HEIGHT = 5;
+    private static final int GLYPH_SPACING = 1;
+
+    private final int[] pixels;
+
+    /**
+     * @param pixels The 64x64 ARGB pixels, row by row, drawn on in place.
+     */
+    public Canvas(int[] pixels) {
+        if (pixels.length != IconImages.PIXELS) {
+            throw new IllegalArgumentException("Must have 64x64 pixels");
+        }
+        this.pixels = pixels;
+    }
+
+    /**
+     * Blends a color over a rectangle.
+     *
+     * @param x      Left edge.
+     * @param y      Top edge.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @param argb   The color, its alpha giving the opacity.
+     */
+    public void fill(int x, int y, int width, int height, int argb) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(IconImages.SIZE, x + width);
+        int y1 = Math.min(IconImages.SIZE, y + height);
+        for (int py = y0; py < y1; py++) {
+            for (int px = x0; px < x1; px++) {
+                blend(px, py, argb);
+            }
+        }
+    }
+
+    /**
+     * Blends a color over a single pixel, if it is within the icon.
+     */
+    public void blend(int x, int y, int argb) {
+        if (x < 0 || y < 0 || x >= IconImages.SIZE || y >= IconImages.SIZE) {
+            return;
+        }
+        int i = y * IconImages.SIZE + x;
+        pixels[i] = over(argb, pixels[i]);
+    }
+
+    /**
+     * Draws text in the pixel font. Characters the font lacks are left blank.
+     *
+     * @param x     Left edge.
+     * @param y     Top edge.
+     * @param text  The text, of digits and the characters d, h, m, + and :.
+     * @param scale Size of a font pixel in icon pixels.
+     * @param argb  The color.
+     */
+    public void text(int x, int y, String text, int scale, int argb) {
+        for (int c = 0; c < text.length(); c++) {
+            int glyph = GLYPHS.indexOf(text.charAt(c));
+            if (glyph >= 0) {
+                int[] rows = GLYPH_ROWS[glyph];
+                for (int row = 0; row < GLYPH_HEIGHT; row++) {
+                    for (int column = 0; column < GLYPH_WIDTH; column++) {
+                        if ((rows[row] & (4 >> column)) != 0) {
+                            fill(x + column * scale, y + row * scale, scale, scale, argb);
+                        }
+                    }
+                }
+            }
+            x += (GLYPH_WIDTH + GLYPH_SPACING) * scale;
+        }
+    }
+
+    /**
+     * @return The width of text in the pixel font, without the space after the last character.
+     */
+    public static int textWidth(String text, int scale) {
+        return text.isEmpty() ? 0 : (text.length() * (GLYPH_WIDTH + GLYPH_SPACING) - GLYPH_SPACING) * scale;
+    }
+
+    /**
+     * Blends a color over every pixel of the icon, keeping transparent pixels transparent.
+     *
+     * @param argb The color.
+     */
+    public void tint(int argb) {
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] >>> 24 != 0) {
+                int alpha = pixels[i] & 0xFF000000;
+                pixels[i] = over(argb, pixels[i] | 0xFF000000) & 0x00FFFFFF | alpha;
+            }
+        }
+    }
+
+    /**
+     * Composes a color over another with the source-over rule, on straight alpha.
+     */
+    private static int over(int source, int destination) {
+        int sa = source >>> 24;
+        if (sa == 255) {
+            return source;
+        }
+        if (sa == 0) {
+            return destination;
+        }
+        int da = destination >>> 24;
+        // Output alpha scaled by 255: sa + da * (1 - sa)
+        int oa = sa * 255 + da * (255 - sa);
+        if (oa == 0) {
+            return 0;
+        }
+        int r = channel(source >> 16, destination >> 16, sa, da, oa);
+        int g = channel(source >> 8, destination >> 8, sa, da, oa);
+        int b = channel(source, destination, sa, da, oa);
+        return (oa + 127) / 255 << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int channel(int source, int destination, int sa, int da, int oa) {
+        int s = source & 0xFF;
+        int d = destination & 0xFF;
+        return (s * sa * 255 + d * da * (255 - sa) + oa / 2) / oa;
+    }
+}
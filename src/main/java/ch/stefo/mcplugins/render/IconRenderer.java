@@ -0,0 +1,265 @@
+package ch.stefo.mcplugins.render;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+import ch.stefo.mcplugins.image.IconImages;
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.library.IconLoader;
+import ch.stefo.mcplugins.util.Threads;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Draws overlay layers over library icons and keeps the results as server icons.
+ * <p>
+ * The plugin publishes the server state every second. Each layer turns the state into a short key of
+ * what it draws, and the rendered icons are cached by the content hash of the base icon and those keys,
+ * so icons are only rendered again when what they show changes. Lookups never block: a miss starts the
+ * render on a worker thread and returns the plain base icon until the rendered one is ready. The cache
+ * holds a fixed number of icons and evicts the least recently used one when it is full. An icon that
+ * failed to render for a state is tried again for that state after a minute.
+ */
+public final class IconRenderer {
+
+    private static final long RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final List<OverlayLayer> layers;
+    private final IconLoader iconLoader;
+    private final int maxIcons;
+    private final Logger logger;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Threads.daemonThreads("IconicServer-render"));
+    private final Map<Key, Rendered> rendered = new ConcurrentHashMap<>();
+    private final Set<Key> rendering = ConcurrentHashMap.newKeySet();
+    // Icons that failed to render, with the time after which they are tried again
+    private final Map<Key, Long> failed = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder renders = new LongAdder();
+    private final LongAdder renderNanos = new LongAdder();
+    private final LongAccumulator maxRenderNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder evictions = new LongAdder();
+
+    // The current state and the keys its layers give, replaced when the keys change
+    private volatile Frame frame;
+
+    // The last icon found in the cache, so pings for the same icon in the same frame skip the key and lookup
+    private volatile LastHit last;
+
+    /**
+     * @param layers     The layers, drawn in order.
+     * @param iconLoader Turns rendered images into server icons.
+     * @param maxIcons   Number of rendered icons kept.
+     * @param logger     Logger for icons that fail to render.
+     */
+    public IconRenderer(List<OverlayLayer> layers, IconLoader iconLoader, int maxIcons, Logger logger) {
+        this.layers = List.copyOf(layers);
+        this.iconLoader = iconLoader;
+        this.maxIcons = Math.max(1, maxIcons);
+        this.logger = logger;
+    }
+
+    /**
+     * Publishes a new server state. Icons are only rendered again if a layer draws something different.
+     *
+     * @param state The state.
+     */
+    public void setState(RenderState state) {
+        StringBuilder key = new StringBuilder();
+        boolean visible = false;
+        for (OverlayLayer layer : layers) {
+            String layerKey = layer.key(state);
+            visible |= !layerKey.isEmpty();
+            key.append(layerKey).append('|');
+        }
+        Frame current = frame;
+        String joined = key.toString();
+        if (current == null || !current.key.equals(joined)) {
+            frame = new Frame(state, joined, visible);
+        }
+    }
+
+    /**
+     * Gets the rendered version of an icon for the current state.
+     *
+     * @param base     The library entry of the base icon, or null if the icon has none.
+     * @param fallback The loaded base icon, returned while the rendered one is not ready.
+     * @return The rendered icon, or the fallback.
+     */
+    public CachedServerIcon render(IconEntry base, CachedServerIcon fallback) {
+        Frame current = frame;
+        if (base == null || current == null || !current.visible) {
+            return fallback;
+        }
+        LastHit hit = last;
+        if (hit != null && hit.frame == current && !hit.icon.evicted && hit.hash.equals(base.hash())) {
+            hit.icon.lastUsed = System.nanoTime();
+            hits.increment();
+            return hit.icon.icon;
+        }
+        Key key = new Key(base.hash(), current.key);
+        Rendered icon = rendered.get(key);
+        if (icon != null) {
+            last = new LastHit(base.hash(), current, icon);
+            icon.lastUsed = System.nanoTime();
+            hits.increment();
+            return icon.icon;
+        }
+        misses.increment();
+        if (!failedRecently(key) && rendering.add(key)) {
+            try {
+                executor.execute(() -> renderNow(key, base, current.state));
+            } catch (RejectedExecutionException e) {
+                // Shut down
+                rendering.remove(key);
+            }
+        }
+        return fallback;
+    }
+
+    private void renderNow(Key key, IconEntry base, RenderState state) {
+        try {
+            long start = System.nanoTime();
+            BufferedImage image = ImageIO.read(base.file());
+            if (image == null) {
+                throw new IOException("Not a readable image");
+            }
+            int[] pixels = IconImages.toPixels(image);
+            Canvas canvas = new Canvas(pixels);
+            for (OverlayLayer layer : layers) {
+                if (!layer.key(state).isEmpty()) {
+                    layer.draw(canvas, state);
+                }
+            }
+            CachedServerIcon icon = iconLoader.load(IconImages.toCompactImage(pixels));
+            long nanos = System.nanoTime() - start;
+            renders.increment();
+            renderNanos.add(nanos);
+            maxRenderNanos.accumulate(nanos);
+            admit(key, new Rendered(icon));
+        } catch (Exception e) {
+            long now = System.nanoTime();
+            // Failures for states that are no longer shown are dropped once they could be retried
+            failed.values().removeIf(retryAt -> retryAt - now <= 0);
+            failed.put(key, now + RETRY_NANOS);
+            logger.warning("Failed to render icon " + base.name() + ": " + e.getMessage());
+        } finally {
+            rendering.remove(key);
+        }
+    }
+
+    private boolean failedRecently(Key key) {
+        Long retryAt = failed.get(key);
+        return retryAt != null && retryAt - System.nanoTime() > 0;
+    }
+
+    private synchronized void admit(Key key, Rendered icon) {
+        rendered.put(key, icon);
+        while (rendered.size() > maxIcons) {
+            Key oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Map.Entry<Key, Rendered> entry : rendered.entrySet()) {
+                if (entry.getValue().lastUsed < oldestUse) {
+                    oldestUse = entry.getValue().lastUsed;
+                    oldest = entry.getKey();
+                }
+            }
+            rendered.remove(oldest).evicted = true;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Forgets the icons that failed to render, so they are tried again without waiting.
+     */
+    public void retryFailed() {
+        failed.clear();
+    }
+
+    /**
+     * @return Number of icons in the cache, once a render being admitted has evicted the icons over the limit.
+     */
+    public synchronized int size() {
+        return rendered.size();
+    }
+
+    public int getMaxIcons() {
+        return maxIcons;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getRenders() {
+        return renders.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Average time a render took, in nanoseconds.
+     */
+    public long getAverageRenderNanos() {
+        long count = renders.sum();
+        return count > 0 ? renderNanos.sum() / count : 0;
+    }
+
+    public long getMaxRenderNanos() {
+        return maxRenderNanos.get();
+    }
+
+    /**
+     * @return The keys of the layers in the current state, joined by |, such as "12|m|3d|".
+     */
+    public String getStateKey() {
+        Frame current = frame;
+        return current != null ? current.key : "";
+    }
+
+    /**
+     * Stops the worker thread. Renders in progress are abandoned.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Key(String hash, String state) {
+    }
+
+    private record Frame(RenderState state, String key, boolean visible) {
+    }
+
+    private record LastHit(String hash, Frame frame, Rendered icon) {
+    }
+
+    private static final class Rendered {
+
+        final CachedServerIcon icon;
+        volatile long lastUsed = System.nanoTime();
+        // Set once the icon left the cache, so the last hit no longer serves it
+        volatile boolean evicted;
+
+        Rendered(CachedServerIcon icon) {
+            this.icon = icon;
+        }
+    }
+}
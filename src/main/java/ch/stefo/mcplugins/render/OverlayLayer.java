@@ -0,0 +1,25 @@
+package ch.stefo.mcplugins.render;
+
+/**
+ * A layer drawn over the base icon of a rendered icon.
+ * <p>
+ * Rendered icons are cached by the keys of their layers, so a layer must draw the same pixels for
+ * every state it gives the same key. Keys should be short and change only when the drawing does,
+ * such as the number shown, not the exact time.
+ */
+public interface OverlayLayer {
+
+    /**
+     * @param state The server state.
+     * @return A compact key of what the layer draws for this state, empty if it draws nothing.
+     */
+    String key(RenderState state);
+
+    /**
+     * Draws the layer. Only called for states whose key is not empty.
+     *
+     * @param canvas The icon to draw on.
+     * @param state  The server state.
+     */
+    void draw(Canvas canvas, RenderState state);
+}
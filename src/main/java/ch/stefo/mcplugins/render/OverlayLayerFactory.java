@@ -0,0 +1,17 @@
+package ch.stefo.mcplugins.render;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Creates an overlay layer from the rendered-icon settings.
+ */
+@FunctionalInterface
+public interface OverlayLayerFactory {
+
+    /**
+     * @param settings The rendered-icon section of the configuration, or null if it has none.
+     * @return The layer.
+     * @throws IllegalArgumentException If a setting of the layer is invalid.
+     */
+    OverlayLayer create(ConfigurationSection settings);
+}
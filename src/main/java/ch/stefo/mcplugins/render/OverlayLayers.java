@@ -0,0 +1,169 @@
+package ch.stefo.mcplugins.render;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.stefo.mcplugins.image.IconImages;
+
+/**
+ * Registry of overlay layers and the factories that create them.
+ * Other plugins can register additional layers, which can then be listed in rendered-icon.layers.
+ */
+public final class OverlayLayers {
+
+    private static final Map<String, OverlayLayerFactory> FACTORIES = new ConcurrentHashMap<>();
+
+    // Format of rendered-icon.countdown-to
+    private static final DateTimeFormatter COUNTDOWN_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    static {
+        register("players", settings -> new PlayersLayer());
+        register("maintenance", settings -> new MaintenanceLayer());
+        register("countdown", settings -> {
+            String target = settings != null ? settings.getString("countdown-to", "") : "";
+            try {
+                return new CountdownLayer(LocalDateTime.parse(target, COUNTDOWN_FORMAT));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("countdown-to must be yyyy-MM-dd HH:mm: " + target);
+            }
+        });
+    }
+
+    private OverlayLayers() {
+    }
+
+    /**
+     * Registers a layer, replacing any layer with the same name.
+     *
+     * @param name    The layer name (case-insensitive).
+     * @param factory The factory creating the layer.
+     */
+    public static void register(String name, OverlayLayerFactory factory) {
+        FACTORIES.put(name.toLowerCase(Locale.ROOT), factory);
+    }
+
+    /**
+     * Gets the factory for a layer.
+     *
+     * @param name The layer name (case-insensitive).
+     * @return The factory, or null if the layer is unknown.
+     */
+    public static OverlayLayerFactory get(String name) {
+        return FACTORIES.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return The names of all registered layers, sorted.
+     */
+    public static Set<String> names() {
+        return Collections.unmodifiableSet(new TreeSet<>(FACTORIES.keySet()));
+    }
+
+    /**
+     * Draws text on a dark rounded badge.
+     *
+     * @param right  Whether the badge is aligned to the right edge rather than the left.
+     * @param bottom Whether the badge is aligned to the bottom edge rather than the top.
+     */
+    static void badge(Canvas canvas, String text, boolean right, boolean bottom, int background, int color) {
+        int scale = 2;
+        int width = Canvas.textWidth(text, scale) + 6;
+        int height = Canvas.GLYPH_HEIGHT * scale + 6;
+        int x = right ? IconImages.SIZE - width : 0;
+        int y = bottom ? IconImages.SIZE - height : 0;
+        canvas.fill(x + 1, y, width - 2, height, background);
+        canvas.fill(x, y + 1, 1, height - 2, background);
+        canvas.fill(x + width - 1, y + 1, 1, height - 2, background);
+        canvas.text(x + 3, y + 3, text, scale, color);
+    }
+
+    /**
+     * Badge with the number of players online, in the top right corner.
+     */
+    static final class PlayersLayer implements OverlayLayer {
+
+        @Override
+        public String key(RenderState state) {
+            // The badge turns red when the server is full, so that is part of the key as well as the count
+            return full(state) ? label(state) + "!" : label(state);
+        }
+
+        @Override
+        public void draw(Canvas canvas, RenderState state) {
+            badge(canvas, label(state), true, false, full(state) ? 0xE0B02020 : 0xE0208020, 0xFFFFFFFF);
+        }
+
+        private static String label(RenderState state) {
+            return state.online() > 999 ? "999+" : Integer.toString(state.online());
+        }
+
+        private static boolean full(RenderState state) {
+            return state.maxPlayers() > 0 && state.online() >= state.maxPlayers();
+        }
+    }
+
+    /**
+     * Darkens the icon and draws warning stripes across it while the server is in maintenance.
+     */
+    static final class MaintenanceLayer implements OverlayLayer {
+
+        @Override
+        public String key(RenderState state) {
+            return state.maintenance() ? "m" : "";
+        }
+
+        @Override
+        public void draw(Canvas canvas, RenderState state) {
+            canvas.tint(0x99000000);
+            int top = IconImages.SIZE / 2 - 6;
+            for (int y = top; y < top + 12; y++) {
+                for (int x = 0; x < IconImages.SIZE; x++) {
+                    canvas.blend(x, y, ((x + y) / 4 & 1) == 0 ? 0xF0F0C000 : 0xF0202020);
+                }
+            }
+        }
+    }
+
+    /**
+     * Badge with the time left until a moment, in the bottom left corner, in days, then hours, then minutes.
+     * Nothing is drawn once the moment has passed.
+     */
+    static final class CountdownLayer implements OverlayLayer {
+
+        private final LocalDateTime target;
+
+        CountdownLayer(LocalDateTime target) {
+            this.target = target;
+        }
+
+        @Override
+        public String key(RenderState state) {
+            Duration left = Duration.between(state.time(), target);
+            if (left.isNegative() || left.isZero()) {
+                return "";
+            }
+            // Rounded up, so the badge never shows 0 before the moment is reached
+            long minutes = (left.getSeconds() + 59) / 60;
+            if (minutes >= 48 * 60) {
+                return (minutes + 24 * 60 - 1) / (24 * 60) + "d";
+            }
+            if (minutes >= 60) {
+                return (minutes + 59) / 60 + "h";
+            }
+            return minutes + "m";
+        }
+
+        @Override
+        public void draw(Canvas canvas, RenderState state) {
+            badge(canvas, key(state), false, true, 0xE0202060, 0xFFFFFFFF);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ch.stefo.mcplugins.render;
+
+import java.time.LocalDateTime;
+
+/**
+ * Snapshot of the live server state that overlay layers draw.
+ *
+ * @param online      Number of players online.
+ * @param maxPlayers  Maximum number of players.
+ * @param maintenance Whether the server is in maintenance, which the plugin takes from the whitelist.
+ * @param time        The local date and time the snapshot was taken.
+ */
+public record RenderState(int online, int maxPlayers, boolean maintenance, LocalDateTime time) {
+}
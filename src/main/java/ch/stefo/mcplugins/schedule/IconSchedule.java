@@ -0,0 +1,122 @@
+package ch.stefo.mcplugins.schedule;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Compiled set of schedule rules.
+ * <p>
+ * Which rule is active can only change at midnight or at the start or end of a time window, so the
+ * schedule keeps those times of day as a sorted timeline and finds the next transition by checking
+ * the active rule at each of them. The plugin resolves the active icon once per transition, so pings
+ * never evaluate rules.
+ */
+public final class IconSchedule {
+
+    public static final IconSchedule EMPTY = new IconSchedule(Collections.emptyList());
+
+    // Yearly rules with weekdays repeat within this many days, except on leap days
+    private static final int HORIZON_DAYS = 400;
+
+    // Sorted by priority, highest first; equal priorities keep their order
+    private final List<ScheduleRule> rules;
+    private final LocalTime[] timeline;
+
+    /**
+     * @param rules The rules, earlier rules win over later ones with the same priority.
+     */
+    public IconSchedule(List<ScheduleRule> rules) {
+        List<ScheduleRule> sorted = new ArrayList<>(rules);
+        sorted.sort(Comparator.comparingInt(ScheduleRule::priority).reversed());
+        this.rules = Collections.unmodifiableList(sorted);
+        TreeSet<LocalTime> times = new TreeSet<>();
+        times.add(LocalTime.MIDNIGHT);
+        for (ScheduleRule rule : rules) {
+            if (rule.start() != null) {
+                times.add(rule.start());
+                times.add(rule.end());
+            }
+        }
+        this.timeline = times.toArray(new LocalTime[0]);
+    }
+
+    /**
+     * @param time The local date and time.
+     * @return The rule with the highest priority that applies at that moment, or null if none does.
+     */
+    public ScheduleRule active(LocalDateTime time) {
+        for (ScheduleRule rule : rules) {
+            if (rule.matches(time)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the next moment at which a different rule becomes active.
+     *
+     * @param after The local date and time to search from, exclusive.
+     * @return The transition, or null if the active rule does not change within the next year.
+     */
+    public Transition next(LocalDateTime after) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        ScheduleRule current = active(after);
+        LocalDate firstDay = after.toLocalDate();
+        for (int day = 0; day <= HORIZON_DAYS; day++) {
+            LocalDate date = firstDay.plusDays(day);
+            for (LocalTime time : timeline) {
+                LocalDateTime at = date.atTime(time);
+                if (!at.isAfter(after)) {
+                    continue;
+                }
+                ScheduleRule rule = active(at);
+                if (rule != current) {
+                    return new Transition(at, rule);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the upcoming transitions.
+     *
+     * @param after The local date and time to search from, exclusive.
+     * @param count The maximum number of transitions.
+     * @return The transitions, in order.
+     */
+    public List<Transition> preview(LocalDateTime after, int count) {
+        List<Transition> transitions = new ArrayList<>();
+        Transition transition = next(after);
+        while (transition != null && transitions.size() < count) {
+            transitions.add(transition);
+            transition = next(transition.at());
+        }
+        return transitions;
+    }
+
+    /**
+     * @return The rules, highest priority first.
+     */
+    public List<ScheduleRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * A change of the active rule.
+     *
+     * @param at   The local date and time of the change.
+     * @param rule The rule active from then on, or null if none is.
+     */
+    public record Transition(LocalDateTime at, ScheduleRule rule) {
+    }
+}
@@ -0,0 +1,201 @@
+package ch.stefo.mcplugins.schedule;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.library.IconLibrary;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Takes the icons of the schedule rules from the published library and publishes the rules whose icons are loaded.
+ * <p>
+ * Loaded libraries already hold the icons. For lazily loaded libraries, icons the previous schedule holds with
+ * the same content are kept, the others are loaded in the background and the schedule is published once they
+ * are loaded. Rules whose icons are not in the library or fail to load are left out, with a warning per rule,
+ * until a library has them again. Must only be used from the main thread.
+ */
+public final class ScheduleResolver {
+
+    private final Function<IconEntry, CompletableFuture<CachedServerIcon>> loader;
+    private final Executor mainThread;
+    private final Runnable onChange;
+    private final Logger logger;
+
+    // The configured rules, whether their icons exist or not
+    private List<ScheduleRule> rules = Collections.emptyList();
+
+    // The library the icons were last taken from, or null before the first one is published
+    private IconLibrary library;
+
+    // Incremented by every resolution, so icons loaded for an older one are not published
+    private int generation;
+
+    // Rules whose icons are loaded, compiled into a timeline
+    private volatile IconSchedule schedule = IconSchedule.EMPTY;
+
+    // Loaded icons of the published rules, keyed by file name
+    private volatile Map<String, IconEntry> icons = Collections.emptyMap();
+
+    /**
+     * @param loader     Loads the icon of a lazily loaded entry, completing with null on failure.
+     * @param mainThread Runs the publishing of icons loaded in the background on the main thread.
+     * @param onChange   Called on the main thread whenever a new schedule has been published.
+     * @param logger     Logger for rules that are left out.
+     */
+    public ScheduleResolver(Function<IconEntry, CompletableFuture<CachedServerIcon>> loader, Executor mainThread,
+                            Runnable onChange, Logger logger) {
+        this.loader = loader;
+        this.mainThread = mainThread;
+        this.onChange = onChange;
+        this.logger = logger;
+    }
+
+    /**
+     * Compiles the date-specific icons and the icon-schedule rules. Date-specific icons come first,
+     * so they win over schedule rules of the same priority. Invalid rules are left out with a warning.
+     *
+     * @param dayIcons   Icon names keyed by dd.MM.
+     * @param configured The maps of the icon-schedule list.
+     * @param logger     Logger for invalid rules.
+     * @return The rules.
+     */
+    public static List<ScheduleRule> compile(Map<String, String> dayIcons, List<Map<?, ?>> configured, Logger logger) {
+        List<ScheduleRule> rules = new ArrayList<>();
+        for (Map.Entry<String, String> entry : dayIcons.entrySet()) {
+            rules.add(ScheduleRule.forDay(ScheduleRule.parseDay(entry.getKey()), entry.getValue()));
+        }
+        for (int i = 0; i < configured.size(); i++) {
+            try {
+                rules.add(ScheduleRule.parse(configured.get(i)));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Invalid icon-schedule rule " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Replaces the rules and resolves their icons from the last published library.
+     * Before the first library is published, the rules are only kept.
+     *
+     * @param rules The rules, earlier rules win over later ones with the same priority.
+     */
+    public void setRules(List<ScheduleRule> rules) {
+        this.rules = List.copyOf(rules);
+        if (library != null) {
+            resolve(library);
+        }
+    }
+
+    /**
+     * Resolves the icons of the rules from a newly published library.
+     *
+     * @param source The library.
+     */
+    public void resolve(IconLibrary source) {
+        library = source;
+        int resolution = ++generation;
+        Map<String, IconEntry> previous = icons;
+        Map<String, IconEntry> resolved = new HashMap<>();
+        Map<IconEntry, CompletableFuture<CachedServerIcon>> loads = new HashMap<>();
+        List<ScheduleRule> kept = new ArrayList<>();
+        for (ScheduleRule rule : rules) {
+            IconEntry entry = source.find(rule.icon());
+            if (entry == null) {
+                logger.warning("Icon " + rule.icon() + " of schedule rule " + rule.name() + " does not exist, the rule is skipped.");
+                continue;
+            }
+            kept.add(rule);
+            IconEntry current = previous.get(entry.name());
+            if (entry.icon() != null) {
+                resolved.put(entry.name(), entry);
+            } else if (current != null && current.hash().equals(entry.hash())) {
+                resolved.put(entry.name(), current);
+            } else if (!loads.containsKey(entry)) {
+                loads.put(entry, load(entry));
+            }
+        }
+        if (loads.isEmpty()) {
+            publish(kept, resolved);
+            return;
+        }
+        CompletableFuture.allOf(loads.values().toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> mainThread.execute(() -> {
+            if (resolution != generation) {
+                // Replaced by a newer library or newer rules in the meantime
+                return;
+            }
+            loads.forEach((entry, load) -> {
+                CachedServerIcon icon = load.getNow(null);
+                if (icon != null) {
+                    resolved.put(entry.name(), new IconEntry(entry.name(), entry.file(), entry.size(), entry.hash(), icon));
+                }
+            });
+            kept.removeIf(rule -> {
+                if (resolved.containsKey(rule.icon())) {
+                    return false;
+                }
+                logger.warning("Icon " + rule.icon() + " of schedule rule " + rule.name() + " failed to load, the rule is skipped.");
+                return true;
+            });
+            publish(kept, resolved);
+        }));
+    }
+
+    private CompletableFuture<CachedServerIcon> load(IconEntry entry) {
+        try {
+            return loader.apply(entry).exceptionally(error -> null);
+        } catch (RuntimeException e) {
+            // The loader is shut down
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private void publish(List<ScheduleRule> kept, Map<String, IconEntry> resolved) {
+        icons = Collections.unmodifiableMap(resolved);
+        schedule = new IconSchedule(kept);
+        onChange.run();
+    }
+
+    /**
+     * @param now The local date and time.
+     * @return The loaded icon of the rule active at that moment, or null if no rule is active.
+     */
+    public IconEntry active(LocalDateTime now) {
+        ScheduleRule rule = schedule.active(now);
+        return rule != null ? icons.get(rule.icon()) : null;
+    }
+
+    /**
+     * @param now The local date and time.
+     * @return When to look for the active rule again: at the next transition, but at least once a day,
+     * so clock changes are picked up.
+     */
+    public LocalDateTime nextUpdate(LocalDateTime now) {
+        LocalDateTime at = now.plusDays(1);
+        IconSchedule.Transition next = schedule.next(now);
+        return next != null && next.at().isBefore(at) ? next.at() : at;
+    }
+
+    /**
+     * @return The published rules, those whose icons are loaded.
+     */
+    public IconSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * @return The loaded icons of the published rules, keyed by file name.
+     */
+    public Map<String, IconEntry> getIcons() {
+        return icons;
+    }
+}
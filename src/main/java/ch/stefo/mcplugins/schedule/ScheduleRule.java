@@ -0,0 +1,185 @@
+package ch.stefo.mcplugins.schedule;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A rule of the icon schedule: an icon shown during a yearly date range, on some weekdays and during
+ * a daily time window. Each condition is optional; ranges and windows may wrap around the end of the
+ * year or midnight. Dates and weekdays are those of the moment being checked, so a window from 22:00
+ * to 06:00 on Saturdays covers Saturday night until midnight and early Saturday morning.
+ *
+ * @param name     The rule name, shown in previews.
+ * @param icon     The icon file name.
+ * @param priority Rules with a higher priority win over rules with a lower one.
+ * @param from     The first day of the date range, or null for every day.
+ * @param to       The last day of the date range, or null for every day.
+ * @param days     The weekdays the rule applies on, empty for every weekday.
+ * @param start    The start of the time window, or null for the whole day.
+ * @param end      The end of the time window (exclusive), or null for the whole day.
+ */
+public record ScheduleRule(String name, String icon, int priority, MonthDay from, MonthDay to, Set<DayOfWeek> days,
+                           LocalTime start, LocalTime end) {
+
+    // Day and month of a day of the year, with or without leading zeros
+    private static final Pattern DAY = Pattern.compile("(\\d{1,2})[.-](\\d{1,2})");
+
+    public ScheduleRule {
+        days = days.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(days));
+    }
+
+    /**
+     * Creates a rule for a single day of the year, as set by date-specific-icons.
+     *
+     * @param day  The day.
+     * @param icon The icon file name.
+     * @return The rule.
+     */
+    public static ScheduleRule forDay(MonthDay day, String icon) {
+        return new ScheduleRule(String.format(Locale.ROOT, "%02d.%02d", day.getDayOfMonth(), day.getMonthValue()), icon,
+                0, day, day, Collections.emptySet(), null, null);
+    }
+
+    /**
+     * Parses a rule from a map of the icon-schedule list.
+     * Keys: icon (required), name, priority, date or from and to (dd.MM), days (names or a comma-separated string)
+     * and time (HH:mm-HH:mm).
+     *
+     * @param map The map.
+     * @return The rule.
+     * @throws IllegalArgumentException If a value is missing or invalid.
+     */
+    public static ScheduleRule parse(Map<?, ?> map) {
+        Object icon = map.get("icon");
+        if (icon == null) {
+            throw new IllegalArgumentException("icon is missing");
+        }
+        String name = map.get("name") != null ? map.get("name").toString() : icon.toString();
+        int priority;
+        try {
+            priority = map.get("priority") != null ? Integer.parseInt(map.get("priority").toString()) : 0;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("priority is not a number: " + map.get("priority"));
+        }
+
+        MonthDay from = null;
+        MonthDay to = null;
+        if (map.get("date") != null) {
+            from = parseDayValue("date", map.get("date"));
+            to = from;
+        } else if (map.get("from") != null || map.get("to") != null) {
+            if (map.get("from") == null || map.get("to") == null) {
+                throw new IllegalArgumentException("from and to must be set together");
+            }
+            from = parseDayValue("from", map.get("from"));
+            to = parseDayValue("to", map.get("to"));
+        }
+
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        Object dayValue = map.get("days");
+        if (dayValue != null) {
+            Collection<?> dayNames = dayValue instanceof Collection<?> collection ? collection : List.of(dayValue.toString().split(","));
+            for (Object dayName : dayNames) {
+                days.add(parseWeekday(dayName.toString().trim()));
+            }
+        }
+
+        LocalTime start = null;
+        LocalTime end = null;
+        if (map.get("time") != null) {
+            String[] window = map.get("time").toString().split("-");
+            if (window.length != 2) {
+                throw new IllegalArgumentException("time must be HH:mm-HH:mm: " + map.get("time"));
+            }
+            try {
+                start = LocalTime.parse(window[0].trim());
+                end = LocalTime.parse(window[1].trim());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("time must be HH:mm-HH:mm: " + map.get("time"));
+            }
+            if (start.equals(end)) {
+                throw new IllegalArgumentException("time window is empty: " + map.get("time"));
+            }
+        }
+        return new ScheduleRule(name, icon.toString(), priority, from, to, days, start, end);
+    }
+
+    /**
+     * Parses a day of the year as day and month, separated by a dot or a dash, such as 24.12, 1.5 or 1-5.
+     * Leading zeros may be left out. Note that YAML reads an unquoted 20.10 as the number 20.1, which parses
+     * as the 20th of January, so dates with a dot must be quoted in config.yml.
+     *
+     * @param value The day.
+     * @return The day.
+     * @throws IllegalArgumentException If the day is invalid.
+     */
+    public static MonthDay parseDay(String value) {
+        Matcher matcher = DAY.matcher(value.trim());
+        try {
+            if (matcher.matches()) {
+                return MonthDay.of(Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(1)));
+            }
+        } catch (RuntimeException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("not a dd.MM date: " + value);
+    }
+
+    /**
+     * Parses a day of a rule, which must be quoted: YAML reads unquoted dates as numbers and drops trailing zeros.
+     */
+    private static MonthDay parseDayValue(String key, Object value) {
+        if (!(value instanceof String day)) {
+            throw new IllegalArgumentException(key + " must be a quoted 'dd.MM' date, " + value + " was read as a number");
+        }
+        return parseDay(day);
+    }
+
+    private static DayOfWeek parseWeekday(String value) {
+        String upper = value.toUpperCase(Locale.ROOT);
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if (day.name().equals(upper) || (upper.length() >= 3 && day.name().startsWith(upper))) {
+                return day;
+            }
+        }
+        throw new IllegalArgumentException("not a weekday: " + value);
+    }
+
+    /**
+     * @param time The local date and time.
+     * @return Whether the rule applies at that moment.
+     */
+    public boolean matches(LocalDateTime time) {
+        if (from != null) {
+            MonthDay day = MonthDay.from(time);
+            boolean inRange = from.isAfter(to)
+                    ? !day.isBefore(from) || !day.isAfter(to)
+                    : !day.isBefore(from) && !day.isAfter(to);
+            if (!inRange) {
+                return false;
+            }
+        }
+        if (!days.isEmpty() && !days.contains(time.getDayOfWeek())) {
+            return false;
+        }
+        if (start != null) {
+            LocalTime clock = time.toLocalTime();
+            return start.isBefore(end)
+                    ? !clock.isBefore(start) && clock.isBefore(end)
+                    : !clock.isBefore(start) || clock.isBefore(end);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples indices in proportion to their weights in constant time (Vose's alias method).
+ * <p>
+ * Every slot holds the probability of keeping its own index and the index to take otherwise.
+ * A sample draws one random number: its integer part picks the slot, its fraction decides between
+ * the slot's index and its alias. The table is immutable and uses the thread's own random generator,
+ * so concurrent pings do not contend.
+ */
+final class AliasTable {
+
+    private final double[] probability;
+    private final int[] alias;
+    private final boolean[] positive;
+
+    /**
+     * @param weights Non-negative weights with a positive sum.
+     */
+    AliasTable(double[] weights) {
+        int n = weights.length;
+        double sum = 0;
+        for (double weight : weights) {
+            sum += weight;
+        }
+        probability = new double[n];
+        alias = new int[n];
+        positive = new boolean[n];
+
+        // Scale the weights so they average 1, then pair every slot below 1 with one above 1
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            positive[i] = weights[i] > 0;
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // What is left is 1 up to rounding errors
+        while (largeCount > 0) {
+            int index = large[--largeCount];
+            probability[index] = 1;
+            alias[index] = index;
+        }
+        while (smallCount > 0) {
+            int index = small[--smallCount];
+            probability[index] = 1;
+            alias[index] = index;
+        }
+    }
+
+    /**
+     * @return A random index, distributed in proportion to the weights.
+     */
+    int sample() {
+        double value = ThreadLocalRandom.current().nextDouble() * probability.length;
+        // Rounding can make the product reach the length itself
+        int slot = Math.min((int) value, probability.length - 1);
+        return value - slot < probability[slot] ? slot : alias[slot];
+    }
+
+    /**
+     * @param index The index.
+     * @return Whether the index has a positive weight and can be sampled.
+     */
+    boolean isPositive(int index) {
+        return positive[index];
+    }
+
+    int size() {
+        return probability.length;
+    }
+}
@@ -0,0 +1,54 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Selects the icons one after another, moving on every rotation interval.
+ */
+final class CycleSelector implements IconSelector {
+
+    private final List<IconEntry> entries;
+    private final int index;
+    private final IconEntry current;
+
+    CycleSelector(List<IconEntry> entries, int index) {
+        this.entries = entries;
+        this.index = index;
+        this.current = entries.get(index);
+    }
+
+    @Override
+    public IconEntry select() {
+        return current;
+    }
+
+    /**
+     * Keeps showing the icon the previous cycle showed, or, if it was removed, continues at the same position.
+     */
+    @Override
+    public IconSelector resume(IconSelector previous) {
+        if (!(previous instanceof CycleSelector cycle)) {
+            return this;
+        }
+        int position = IconSelectors.indexOf(entries, cycle.current.name());
+        return new CycleSelector(entries, position >= 0 ? position : cycle.index % entries.size());
+    }
+
+    @Override
+    public IconSelector advance() {
+        return new CycleSelector(entries, (index + 1) % entries.size());
+    }
+
+    @Override
+    public List<IconEntry> upcoming(int count) {
+        int size = Math.min(count + 1, entries.size());
+        List<IconEntry> upcoming = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            upcoming.add(entries.get((index + i) % entries.size()));
+        }
+        return upcoming;
+    }
+}
@@ -0,0 +1,23 @@
+package ch.stefo.mcplugins.selection;
+
+import ch.stefo.mcplugins.library.IconEntry;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Turns a selected library entry into the server icon to show.
+ * Called on the ping path, so implementations must not block.
+ */
+@FunctionalInterface
+public interface IconResolver {
+
+    /**
+     * Resolver for libraries that keep every icon loaded.
+     */
+    IconResolver LOADED = IconEntry::icon;
+
+    /**
+     * @param entry The selected entry.
+     * @return The icon, or null if it is not loaded.
+     */
+    CachedServerIcon resolve(IconEntry entry);
+}
@@ -0,0 +1,157 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.List;
+
+import ch.stefo.mcplugins.library.IconEntry;
+import org.bukkit.util.CachedServerIcon;
+
+/**
+ * Immutable snapshot of everything the ping handler needs to pick an icon.
+ * A new snapshot is compiled and published whenever the mode, the icons or the default icon change.
+ */
+public final class IconSelection {
+
+    private final String mode;
+    private final List<IconEntry> entries;
+    private final CachedServerIcon defaultIcon;
+    private final IconResolver resolver;
+    private final SelectionOptions options;
+    private final IconSelector selector;
+
+    private IconSelection(String mode, List<IconEntry> entries, CachedServerIcon defaultIcon, IconResolver resolver,
+                          SelectionOptions options, IconSelector selector) {
+        this.mode = mode;
+        this.entries = entries;
+        this.defaultIcon = defaultIcon;
+        this.resolver = resolver;
+        this.options = options;
+        this.selector = selector;
+    }
+
+    /**
+     * Compiles a snapshot for a selection mode over a library whose icons are all loaded, with the default options.
+     *
+     * @see #compile(String, List, CachedServerIcon, IconResolver, SelectionOptions)
+     */
+    public static IconSelection compile(String mode, List<IconEntry> entries, CachedServerIcon defaultIcon) {
+        return compile(mode, entries, defaultIcon, IconResolver.LOADED, SelectionOptions.DEFAULT);
+    }
+
+    /**
+     * Compiles a snapshot for a selection mode.
+     * Falls back to the default icon if there are no entries or the mode is unknown.
+     *
+     * @param mode        The selection mode.
+     * @param entries     The library entries.
+     * @param defaultIcon The default icon, or null if none is set.
+     * @param resolver    Resolves the selected entries to icons.
+     * @param options     Weights and other settings of the selection.
+     * @return The compiled snapshot.
+     */
+    public static IconSelection compile(String mode, List<IconEntry> entries, CachedServerIcon defaultIcon, IconResolver resolver,
+                                        SelectionOptions options) {
+        return compile(mode, entries, defaultIcon, resolver, options, null);
+    }
+
+    /**
+     * Compiles a snapshot whose selector continues where a previous selector left off.
+     *
+     * @param previous The selector of the previous snapshot, or null to start over.
+     */
+    private static IconSelection compile(String mode, List<IconEntry> entries, CachedServerIcon defaultIcon, IconResolver resolver,
+                                         SelectionOptions options, IconSelector previous) {
+        List<IconEntry> snapshot = List.copyOf(entries);
+        IconSelectorFactory factory = IconSelectors.get(mode);
+        IconSelector selector;
+        if (factory == null || snapshot.isEmpty()) {
+            selector = StaticSelector.INSTANCE;
+        } else {
+            selector = factory.create(snapshot, options);
+            if (previous != null) {
+                selector = selector.resume(previous);
+            }
+        }
+        return new IconSelection(mode, snapshot, defaultIcon, resolver, options, selector);
+    }
+
+    /**
+     * Selects the library entry for a ping, without resolving its icon.
+     *
+     * @return The entry, or null if the selection shows the default icon.
+     */
+    public IconEntry selectEntry() {
+        return selector.select();
+    }
+
+    /**
+     * Resolves an entry with the resolver of this snapshot.
+     *
+     * @param entry The entry.
+     * @return The icon, or null if it is not loaded.
+     */
+    public CachedServerIcon resolve(IconEntry entry) {
+        return resolver.resolve(entry);
+    }
+
+    /**
+     * @return The snapshot to publish after one rotation interval.
+     */
+    public IconSelection advance() {
+        IconSelector next = selector.advance();
+        return next == selector ? this : new IconSelection(mode, entries, defaultIcon, resolver, options, next);
+    }
+
+    /**
+     * @param count Number of rotations to look ahead.
+     * @return The entry selected now, followed by the entries of the next rotations, if the mode can tell.
+     */
+    public List<IconEntry> upcoming(int count) {
+        return selector.upcoming(count);
+    }
+
+    /**
+     * @return A snapshot with the same mode and options but different entries and default icon,
+     * continuing the rotation of this one.
+     */
+    public IconSelection withEntries(List<IconEntry> entries, CachedServerIcon defaultIcon, IconResolver resolver) {
+        return compile(mode, entries, defaultIcon, resolver, options, selector);
+    }
+
+    /**
+     * @return A snapshot with the same mode, entries and rotation but a different default icon.
+     */
+    public IconSelection withDefaultIcon(CachedServerIcon defaultIcon) {
+        return new IconSelection(mode, entries, defaultIcon, resolver, options, selector);
+    }
+
+    /**
+     * @return A snapshot with the same entries and default icon but a different mode.
+     */
+    public IconSelection withMode(String mode) {
+        return compile(mode, entries, defaultIcon, resolver, options);
+    }
+
+    /**
+     * @return A snapshot with the same mode, entries and default icon but different options,
+     * continuing the rotation of this one.
+     */
+    public IconSelection withOptions(SelectionOptions options) {
+        return compile(mode, entries, defaultIcon, resolver, options, selector);
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public List<IconEntry> getEntries() {
+        return entries;
+    }
+
+    public CachedServerIcon getDefaultIcon() {
+        return defaultIcon;
+    }
+
+    public SelectionOptions getOptions() {
+        return options;
+    }
+}
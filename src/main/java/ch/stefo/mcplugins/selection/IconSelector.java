@@ -0,0 +1,53 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.Collections;
+import java.util.List;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Strategy that picks the library entry for a ping.
+ * Implementations must be immutable and safe to call from any thread.
+ */
+public interface IconSelector {
+
+    /**
+     * Selects the entry to show for a ping.
+     *
+     * @return The entry, or null to show the default icon.
+     */
+    IconEntry select();
+
+    /**
+     * Returns the selector to use after one rotation interval has passed.
+     * Selectors without rotation state return themselves.
+     *
+     * @return The successor selector.
+     */
+    default IconSelector advance() {
+        return this;
+    }
+
+    /**
+     * Returns a selector that continues where a selector of the same mode over the previous entries left off,
+     * so recompiling the selection, for example when icons are added, does not restart the rotation.
+     * Selectors without rotation state return themselves.
+     *
+     * @param previous The selector of the previous selection, of any mode.
+     * @return The selector to use.
+     */
+    default IconSelector resume(IconSelector previous) {
+        return this;
+    }
+
+    /**
+     * Lists the entries this selector will show next, so they can be loaded ahead of time.
+     * Selectors that cannot tell return an empty list.
+     *
+     * @param count Number of rotations to look ahead.
+     * @return The entry selected now, followed by the entries of the next rotations.
+     */
+    default List<IconEntry> upcoming(int count) {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,21 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.List;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Creates a selector for a selection mode from the icon library.
+ */
+@FunctionalInterface
+public interface IconSelectorFactory {
+
+    /**
+     * Creates a selector.
+     *
+     * @param entries The library entries, never empty and not modifiable.
+     * @param options Weights and other settings of the selection.
+     * @return The selector.
+     */
+    IconSelector create(List<IconEntry> entries, SelectionOptions options);
+}
@@ -0,0 +1,92 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Registry of selection modes and the factories that create their selectors.
+ * Other plugins can register additional modes, which can then be chosen with /icon setmode.
+ */
+public final class IconSelectors {
+
+    private static final Map<String, IconSelectorFactory> FACTORIES = new ConcurrentHashMap<>();
+
+    static {
+        register("static", (entries, options) -> StaticSelector.INSTANCE);
+        register("cycle", (entries, options) -> new CycleSelector(entries, 0));
+        register("random", (entries, options) -> {
+            AliasTable table = aliasTable(entries, options);
+            return table != null ? new RotatingRandomSelector(entries, table, options.noRepeat()) : StaticSelector.INSTANCE;
+        });
+        register("per-ping-random", (entries, options) -> {
+            AliasTable table = aliasTable(entries, options);
+            return table != null ? new RandomSelector(entries, table) : StaticSelector.INSTANCE;
+        });
+    }
+
+    private IconSelectors() {
+    }
+
+    /**
+     * Registers a selection mode, replacing any mode with the same name.
+     *
+     * @param mode    The mode name (case-insensitive).
+     * @param factory The factory creating the selector.
+     */
+    public static void register(String mode, IconSelectorFactory factory) {
+        FACTORIES.put(mode.toLowerCase(Locale.ROOT), factory);
+    }
+
+    /**
+     * Gets the factory for a selection mode.
+     *
+     * @param mode The mode name (case-insensitive).
+     * @return The factory, or null if the mode is unknown.
+     */
+    public static IconSelectorFactory get(String mode) {
+        return FACTORIES.get(mode.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Compiles the weights of some entries into an alias table.
+     *
+     * @param entries The entries.
+     * @param options The options holding the weights.
+     * @return The table, or null if all weights are zero.
+     */
+    static AliasTable aliasTable(List<IconEntry> entries, SelectionOptions options) {
+        double[] weights = new double[entries.size()];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = options.weight(entries.get(i));
+            sum += weights[i];
+        }
+        return sum > 0 ? new AliasTable(weights) : null;
+    }
+
+    /**
+     * @return The position of the entry with a file name, or -1 if there is none.
+     */
+    static int indexOf(List<IconEntry> entries, String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).name().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The names of all registered modes, sorted.
+     */
+    public static Set<String> modes() {
+        return Collections.unmodifiableSet(new TreeSet<>(FACTORIES.keySet()));
+    }
+}
@@ -0,0 +1,24 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.List;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Selects a weighted random icon on every ping.
+ */
+final class RandomSelector implements IconSelector {
+
+    private final IconEntry[] entries;
+    private final AliasTable table;
+
+    RandomSelector(List<IconEntry> entries, AliasTable table) {
+        this.entries = entries.toArray(new IconEntry[0]);
+        this.table = table;
+    }
+
+    @Override
+    public IconEntry select() {
+        return entries[table.sample()];
+    }
+}
@@ -0,0 +1,79 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.List;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Selects a weighted random icon once per rotation interval and shows it to every ping.
+ * The icon of the next interval is drawn in advance, so it can be loaded ahead of time.
+ */
+final class RotatingRandomSelector implements IconSelector {
+
+    // Redraws before taking the next other icon instead, only reached if one icon has most of the weight
+    private static final int MAX_REDRAWS = 8;
+
+    private final List<IconEntry> entries;
+    private final AliasTable table;
+    private final boolean noRepeat;
+    private final int index;
+    private final int next;
+
+    RotatingRandomSelector(List<IconEntry> entries, AliasTable table, boolean noRepeat) {
+        this(entries, table, noRepeat, table.sample());
+    }
+
+    private RotatingRandomSelector(List<IconEntry> entries, AliasTable table, boolean noRepeat, int index) {
+        this.entries = entries;
+        this.table = table;
+        this.noRepeat = noRepeat;
+        this.index = index;
+        this.next = draw(index);
+    }
+
+    private int draw(int previous) {
+        int drawn = table.sample();
+        if (!noRepeat) {
+            return drawn;
+        }
+        for (int i = 0; drawn == previous && i < MAX_REDRAWS; i++) {
+            drawn = table.sample();
+        }
+        // Take the next icon that can be drawn, which stays the same if no other icon has a weight
+        for (int i = 1; drawn == previous && i < table.size(); i++) {
+            int candidate = (previous + i) % table.size();
+            if (table.isPositive(candidate)) {
+                drawn = candidate;
+            }
+        }
+        return drawn;
+    }
+
+    @Override
+    public IconEntry select() {
+        return entries.get(index);
+    }
+
+    /**
+     * Keeps showing the icon drawn for the current interval, if it is still in the library and can still be drawn.
+     */
+    @Override
+    public IconSelector resume(IconSelector previous) {
+        if (!(previous instanceof RotatingRandomSelector random)) {
+            return this;
+        }
+        int position = IconSelectors.indexOf(entries, random.entries.get(random.index).name());
+        // An icon whose weight became zero is replaced at once, like an icon that was removed
+        return position >= 0 && table.isPositive(position) ? new RotatingRandomSelector(entries, table, noRepeat, position) : this;
+    }
+
+    @Override
+    public IconSelector advance() {
+        return new RotatingRandomSelector(entries, table, noRepeat, next);
+    }
+
+    @Override
+    public List<IconEntry> upcoming(int count) {
+        return count > 0 ? List.of(entries.get(index), entries.get(next)) : List.of(entries.get(index));
+    }
+}
@@ -0,0 +1,30 @@
+package ch.stefo.mcplugins.selection;
+
+import java.util.Collections;
+import java.util.Map;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Settings that selectors take into account besides the library entries.
+ *
+ * @param weights  Selection weights keyed by icon file name, icons without a weight have weight 1.
+ * @param noRepeat Whether rotating selectors avoid showing the same icon twice in a row.
+ */
+public record SelectionOptions(Map<String, Double> weights, boolean noRepeat) {
+
+    public static final SelectionOptions DEFAULT = new SelectionOptions(Collections.emptyMap(), false);
+
+    public SelectionOptions {
+        weights = Map.copyOf(weights);
+    }
+
+    /**
+     * @param entry The entry.
+     * @return The selection weight of the entry, never negative.
+     */
+    public double weight(IconEntry entry) {
+        Double weight = weights.get(entry.name());
+        return weight != null ? Math.max(0, weight) : 1;
+    }
+}
@@ -0,0 +1,19 @@
+package ch.stefo.mcplugins.selection;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+/**
+ * Always selects the default icon.
+ */
+final class StaticSelector implements IconSelector {
+
+    static final StaticSelector INSTANCE = new StaticSelector();
+
+    private StaticSelector() {
+    }
+
+    @Override
+    public IconEntry select() {
+        return null;
+    }
+}
@@ -0,0 +1,28 @@
+package ch.stefo.mcplugins.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers for the plugin's worker threads.
+ */
+public final class Threads {
+
+    private Threads() {
+    }
+
+    /**
+     * Creates a thread factory for named daemon threads, so workers never keep the server from stopping.
+     *
+     * @param prefix The thread name prefix.
+     * @return The thread factory.
+     */
+    public static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
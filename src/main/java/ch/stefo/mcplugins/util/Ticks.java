@@ -0,0 +1,32 @@
+package ch.stefo.mcplugins.util;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Converts wall-clock times into server tick delays.
+ */
+public final class Ticks {
+
+    // Milliseconds per tick at the server's 20 ticks per second
+    private static final long MILLIS_PER_TICK = 50L;
+
+    private Ticks() {
+    }
+
+    /**
+     * Computes the delay of a task that must not run before a local time, such as the next midnight.
+     * The delay is measured in real time, so it stays right on days with a daylight saving change,
+     * and is rounded up to whole ticks so the task never runs early.
+     *
+     * @param now  The current local time.
+     * @param at   The local time to run at.
+     * @param zone The time zone of both times.
+     * @return The delay in ticks, at least 1.
+     */
+    public static long until(LocalDateTime now, LocalDateTime at, ZoneId zone) {
+        long millis = Duration.between(now.atZone(zone), at.atZone(zone)).toMillis();
+        return Math.max(1L, (millis + MILLIS_PER_TICK - 1L) / MILLIS_PER_TICK);
+    }
+}
@@ -0,0 +1,121 @@
+package ch.stefo.mcplugins.config;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigWriterTest {
+
+    private static final Logger LOGGER = Logger.getLogger("ConfigWriterTest");
+
+    @TempDir
+    Path folder;
+
+    private final List<ConfigWriter> writers = new ArrayList<>();
+
+    @AfterEach
+    void closeWriters() {
+        for (ConfigWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Tests of failed saves leave them failing
+            }
+        }
+    }
+
+    @Test
+    void burstOfChangesIsWrittenOnce() throws Exception {
+        File file = folder.resolve("config.yml").toFile();
+        ConfigWriter writer = writer(file, 200);
+
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            writer.update(config -> config.set("key" + value, value));
+        }
+        assertTrue(writer.isDirty());
+        assertEquals(0, writer.getWrites());
+
+        await(() -> !writer.isDirty());
+        assertEquals(1, writer.getWrites());
+        assertEquals(10, writer.getChanges());
+        YamlConfiguration saved = YamlConfiguration.loadConfiguration(file);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, saved.getInt("key" + i));
+        }
+        assertArrayEquals(new String[]{"config.yml"}, folder.toFile().list());
+    }
+
+    @Test
+    void flushWritesOnlyUnsavedChanges() throws Exception {
+        File file = folder.resolve("config.yml").toFile();
+        ConfigWriter writer = writer(file, 60_000);
+
+        writer.update(config -> config.set("mode", "cycle"));
+        writer.flush();
+        writer.flush();
+        assertEquals(1, writer.getWrites());
+        assertFalse(writer.isDirty());
+        assertEquals("cycle", YamlConfiguration.loadConfiguration(file).getString("mode"));
+    }
+
+    @Test
+    void closeWritesPendingChanges() throws Exception {
+        File file = folder.resolve("config.yml").toFile();
+        ConfigWriter writer = new ConfigWriter(new YamlConfiguration(), file, 60_000, LOGGER);
+
+        writer.update(config -> config.set("mode", "random"));
+        writer.close();
+        assertEquals("random", YamlConfiguration.loadConfiguration(file).getString("mode"));
+    }
+
+    @Test
+    void failedSaveKeepsChangesAndIsRetried() throws Exception {
+        File file = folder.resolve("missing/config.yml").toFile();
+        ConfigWriter writer = writer(file, 10);
+
+        writer.update(config -> config.set("mode", "cycle"));
+        assertThrows(IOException.class, writer::flush);
+        assertTrue(writer.isDirty());
+
+        // The background save fails as well, until the folder exists
+        Thread.sleep(50);
+        assertEquals(0, writer.getWrites());
+        Files.createDirectories(file.getParentFile().toPath());
+        await(() -> !writer.isDirty());
+        assertEquals(1, writer.getWrites());
+        assertEquals("cycle", YamlConfiguration.loadConfiguration(file).getString("mode"));
+    }
+
+    private ConfigWriter writer(File file, long delayMillis) {
+        ConfigWriter writer = new ConfigWriter(new YamlConfiguration(), file, delayMillis, LOGGER);
+        writers.add(writer);
+        return writer;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ch.stefo.mcplugins.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class IconDownloaderTest {
+
+    private static final byte[] SMALL = {1, 2, 3, 4};
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private IconDownloader downloader;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/small", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, SMALL.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(SMALL);
+            }
+        });
+        // Chunked, so the size is only known while reading
+        server.createContext("/large", exchange -> streamImage(exchange, 64 * 1024, 0, 6 * 1024 * 1024));
+        server.createContext("/slow", exchange -> streamImage(exchange, 1, 50, Integer.MAX_VALUE));
+        server.createContext("/blocked", exchange -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        if (downloader != null) {
+            downloader.shutdown();
+        }
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    void downloadsImage() throws Exception {
+        downloader = new IconDownloader(1, 1, IconDownloader.DEFAULT_MAX_BYTES, false);
+
+        assertArrayEquals(SMALL, downloader.download(url("/small"), message -> {
+        }, data -> data).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void abortsOversizedImageWhileStreaming() {
+        downloader = new IconDownloader(1, 1, IconDownloader.DEFAULT_MAX_BYTES, false);
+
+        IOException error = failure(downloader.download(url("/large"), message -> {
+        }, data -> data));
+        assertEquals("Image is too large.", error.getMessage());
+    }
+
+    @Test
+    void slowDownloadTimesOutAndFreesWorker() throws Exception {
+        downloader = new IconDownloader(1, 1, IconDownloader.DEFAULT_MAX_BYTES, false, 500);
+
+        long start = System.nanoTime();
+        IOException error = failure(downloader.download(url("/slow"), message -> {
+        }, data -> data));
+        assertEquals("Download timed out.", error.getMessage());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3), "timed out too late");
+
+        // The only worker is free again
+        assertArrayEquals(SMALL, downloader.download(url("/small"), message -> {
+        }, data -> data).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void rejectionFailsFuture() {
+        downloader = new IconDownloader(1, 1, IconDownloader.DEFAULT_MAX_BYTES, false);
+
+        CompletableFuture<byte[]> running = downloader.download(url("/blocked"), message -> {
+        }, data -> data);
+        CompletableFuture<byte[]> queued = downloader.download(url("/blocked"), message -> {
+        }, data -> data);
+        CompletableFuture<byte[]> rejected = downloader.download(url("/blocked"), message -> {
+        }, data -> data);
+
+        assertTrue(IconDownloader.isRejected(rejected));
+        assertFalse(IconDownloader.isRejected(running));
+        assertFalse(IconDownloader.isRejected(queued));
+        release.countDown();
+        assertTrue(failure(running).getMessage().endsWith("404"));
+        assertTrue(failure(queued).getMessage().endsWith("404"));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Writes a chunked image response, stopping when the client disconnects.
+     */
+    private static void streamImage(HttpExchange exchange, int chunkSize, long delayMillis, long total) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, 0);
+        byte[] chunk = new byte[chunkSize];
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (long written = 0; written < total; written += chunkSize) {
+                out.write(chunk);
+                out.flush();
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client gave up
+        }
+    }
+
+    /**
+     * @return The I/O error a download failed with.
+     */
+    private static IOException failure(CompletableFuture<?> download) {
+        ExecutionException error = assertThrows(ExecutionException.class, () -> download.get(5, TimeUnit.SECONDS));
+        Throwable cause = error.getCause() != null && error.getCause().getCause() instanceof IOException
+                ? error.getCause().getCause() : error.getCause();
+        assertTrue(cause instanceof IOException, "expected an I/O error but was " + cause);
+        return (IOException) cause;
+    }
+}
@@ -0,0 +1,120 @@
+package ch.stefo.mcplugins.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import ch.stefo.mcplugins.image.IconResampler.Filter;
+
+class IconResamplerTest {
+
+    @Test
+    void solidColorStaysExact() {
+        BufferedImage source = image(300, 170, BufferedImage.TYPE_INT_ARGB, (x, y) -> 0xC0336699);
+
+        for (Filter filter : Filter.values()) {
+            for (boolean preReduce : new boolean[]{false, true}) {
+                int[] pixels = IconImages.toPixels(new IconResampler(filter, preReduce).resize(source));
+                for (int pixel : pixels) {
+                    assertEquals(0xC0336699, pixel, filter + ", pre-reduce " + preReduce);
+                }
+            }
+        }
+    }
+
+    @Test
+    void iconSizedSourceIsUnchanged() {
+        BufferedImage source = image(64, 64, BufferedImage.TYPE_INT_ARGB, (x, y) -> 0xFF000000 | x * 4 << 16 | y * 4 << 8 | (x ^ y));
+
+        for (Filter filter : Filter.values()) {
+            assertPixels(source, new IconResampler(filter, false).resize(source), 1, filter.name());
+        }
+    }
+
+    @Test
+    void boxFilterAveragesBlocks() {
+        BufferedImage source = image(128, 128, BufferedImage.TYPE_INT_ARGB, (x, y) -> 0xFF000000 | (x % 2) * 200 << 16 | (y % 2) * 100);
+        int[] pixels = IconImages.toPixels(new IconResampler(Filter.BOX, false).resize(source));
+
+        for (int pixel : pixels) {
+            assertEquals(0xFF640032, pixel);
+        }
+    }
+
+    @Test
+    void transparentPixelsDoNotBleedIntoColors() {
+        // Opaque red next to invisible green: only the red may show, with half the coverage
+        BufferedImage source = image(256, 256, BufferedImage.TYPE_INT_ARGB, (x, y) -> (x / 2 + y / 2) % 2 == 0 ? 0xFFFF0000 : 0x0000FF00);
+
+        for (Filter filter : Filter.values()) {
+            int[] pixels = IconImages.toPixels(new IconResampler(filter, false).resize(source));
+            for (int pixel : pixels) {
+                assertEquals(0xFF0000, pixel & 0xFFFFFF, filter.name());
+                assertEquals(128, pixel >>> 24, 16, filter.name());
+            }
+        }
+    }
+
+    @Test
+    void preReduceMatchesFullResizeOfSmoothImage() {
+        BufferedImage source = image(2000, 1400, BufferedImage.TYPE_INT_ARGB,
+                (x, y) -> 0xFF000000 | x * 255 / 2000 << 16 | y * 255 / 1400 << 8 | (x + y) * 255 / 3400);
+
+        assertPixels(new IconResampler(Filter.BILINEAR, false).resize(source), new IconResampler(Filter.BILINEAR, true).resize(source),
+                2, "pre-reduced");
+    }
+
+    @Test
+    void imageTypesGiveSameResult() {
+        Pixel pattern = (x, y) -> 0xFF000000 | (x * 7 % 256) << 16 | (y * 5 % 256) << 8 | (x * y % 256);
+        BufferedImage argb = image(150, 90, BufferedImage.TYPE_INT_ARGB, pattern);
+        IconResampler resampler = new IconResampler(Filter.LANCZOS, true);
+        BufferedImage expected = resampler.resize(argb);
+
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR}) {
+            assertPixels(expected, resampler.resize(image(150, 90, type, pattern)), 0, "type " + type);
+        }
+        // A sub-image shares the raster of its parent at an offset
+        BufferedImage parent = image(170, 100, BufferedImage.TYPE_INT_ARGB, (x, y) -> pattern.argb(x - 20, y - 10));
+        assertPixels(expected, resampler.resize(parent.getSubimage(20, 10, 150, 90)), 0, "sub-image");
+    }
+
+    @Test
+    void parsesFilterNames() {
+        assertEquals(Filter.LANCZOS, Filter.parse("lanczos"));
+        assertEquals(Filter.BOX, Filter.parse("Box"));
+        assertNull(Filter.parse("bicubic"));
+    }
+
+    private static void assertPixels(BufferedImage expected, BufferedImage actual, int tolerance, String message) {
+        int[] expectedPixels = IconImages.toPixels(expected);
+        int[] actualPixels = IconImages.toPixels(actual);
+        for (int i = 0; i < expectedPixels.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = Math.abs((expectedPixels[i] >>> shift & 0xFF) - (actualPixels[i] >>> shift & 0xFF));
+                assertTrue(difference <= tolerance, message + ": pixel " + i + " is " + Integer.toHexString(actualPixels[i])
+                        + " instead of " + Integer.toHexString(expectedPixels[i]));
+            }
+        }
+    }
+
+    private static BufferedImage image(int width, int height, int type, Pixel pixel) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, pixel.argb(x, y));
+            }
+        }
+        return image;
+    }
+
+    @FunctionalInterface
+    private interface Pixel {
+
+        int argb(int x, int y);
+    }
+}
@@ -0,0 +1,143 @@
+package ch.stefo.mcplugins.image;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+class PngOptimizerTest {
+
+    // Position of the color type in a PNG: signature, IHDR length, type, width, height and bit depth
+    private static final int COLOR_TYPE_OFFSET = 8 + 4 + 4 + 4 + 4 + 1;
+
+    private final PngOptimizer optimizer = new PngOptimizer();
+
+    @Test
+    void twoColorsUsePalette() throws IOException {
+        int[] pixels = pixels((x, y) -> (x / 8 + y / 8) % 2 == 0 ? 0xFFFF0000 : 0xFF00FF00);
+
+        byte[] png = assertRoundTrip(pixels);
+        assertEquals(3, png[COLOR_TYPE_OFFSET]);
+    }
+
+    @Test
+    void translucentPaletteKeepsAlpha() throws IOException {
+        Random random = new Random(4);
+        int[] colors = random.ints(20).map(color -> color | 0x01000000).toArray();
+        int[] pixels = pixels((x, y) -> colors[random.nextInt(colors.length)]);
+
+        byte[] png = assertRoundTrip(pixels);
+        assertEquals(3, png[COLOR_TYPE_OFFSET]);
+    }
+
+    @Test
+    void manyOpaqueColorsUseRgb() throws IOException {
+        Random random = new Random(1);
+        int[] pixels = pixels((x, y) -> 0xFF000000 | x << 18 | y << 10 | random.nextInt(4));
+
+        byte[] png = assertRoundTrip(pixels);
+        assertEquals(2, png[COLOR_TYPE_OFFSET]);
+    }
+
+    @Test
+    void manyTranslucentColorsUseRgba() throws IOException {
+        int[] pixels = pixels((x, y) -> (x * 4) << 24 | y << 18 | x << 8 | (x ^ y));
+
+        byte[] png = assertRoundTrip(pixels);
+        assertEquals(6, png[COLOR_TYPE_OFFSET]);
+    }
+
+    @Test
+    void noiseRoundTrips() throws IOException {
+        Random random = new Random(2);
+        assertRoundTrip(pixels((x, y) -> random.nextInt()));
+    }
+
+    @Test
+    void oddSizesRoundTrip() throws IOException {
+        for (int width : new int[]{1, 3, 7, 9}) {
+            BufferedImage image = new BufferedImage(width, 5, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < 5; y++) {
+                for (int x = 0; x < width; x++) {
+                    image.setRGB(x, y, x % 3 == 0 ? 0xFF0000FF : y % 2 == 0 ? 0x80FFFFFF : 0xFF000000);
+                }
+            }
+            BufferedImage decoded = decode(optimizer.encode(image));
+            assertArrayEquals(image.getRGB(0, 0, width, 5, null, 0, width), decoded.getRGB(0, 0, width, 5, null, 0, width), "width " + width);
+        }
+    }
+
+    @Test
+    void invisiblePixelsBecomeTransparentBlack() throws IOException {
+        byte[] png = assertRoundTrip(pixels((x, y) -> x < 32 ? 0x00123456 + y : 0xFFFFFFFF));
+        assertEquals(3, png[COLOR_TYPE_OFFSET]);
+    }
+
+    @Test
+    void estimatesImageIoSize() throws IOException {
+        Random random = new Random(3);
+        BufferedImage image = image(pixels((x, y) -> 0xFF000000 | (x + y) * 0x010203 + random.nextInt(8)));
+        ByteArrayOutputStream imageIo = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", imageIo);
+
+        PngOptimizer.Result result = optimizer.optimize(image);
+        assertEquals(imageIo.size(), result.imageIoSize(), imageIo.size() / 100.0);
+        assertTrue(result.png().length < result.imageIoSize());
+    }
+
+    /**
+     * Encodes a 64x64 image and checks that decoding gives back the same pixels,
+     * except that the color of fully transparent pixels is not kept.
+     *
+     * @return The PNG.
+     */
+    private byte[] assertRoundTrip(int[] pixels) throws IOException {
+        byte[] png = optimizer.encode(image(pixels));
+        int[] expected = pixels.clone();
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] >>> 24 == 0) {
+                expected[i] = 0;
+            }
+        }
+        assertArrayEquals(expected, pixels(decode(png)));
+        return png;
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertTrue(image != null, "not a readable PNG");
+        return image;
+    }
+
+    private static BufferedImage image(int[] pixels) {
+        return IconImages.fromPixels(pixels);
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return IconImages.toPixels(image);
+    }
+
+    private static int[] pixels(Pixel pixel) {
+        int[] pixels = new int[IconImages.PIXELS];
+        for (int y = 0; y < IconImages.SIZE; y++) {
+            for (int x = 0; x < IconImages.SIZE; x++) {
+                pixels[y * IconImages.SIZE + x] = pixel.argb(x, y);
+            }
+        }
+        return pixels;
+    }
+
+    @FunctionalInterface
+    private interface Pixel {
+
+        int argb(int x, int y);
+    }
+}
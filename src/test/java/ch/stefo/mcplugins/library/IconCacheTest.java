@@ -0,0 +1,163 @@
+package ch.stefo.mcplugins.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.util.CachedServerIcon;
+import org.junit.jupiter.api.Test;
+
+class IconCacheTest {
+
+    // Estimated size of an icon from a 3000 byte file: base64 of the file and the overhead
+    private static final long ICON_BYTES = 3000 * 4 / 3 + 256;
+
+    // Loads requested per hash
+    private final Map<String, Integer> loads = new ConcurrentHashMap<>();
+    // Futures the loader returns, by hash; a hash without one fails to load
+    private final Map<String, CompletableFuture<CachedServerIcon>> futures = new ConcurrentHashMap<>();
+
+    @Test
+    void missLoadsInBackgroundThenHits() {
+        IconCache cache = cache(10_000);
+        IconEntry a = loadable("a");
+
+        assertNull(cache.get(a));
+        CachedServerIcon icon = cache.get(a);
+        assertNotNull(icon);
+        assertSame(icon, cache.get(a));
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(ICON_BYTES, cache.getResidentBytes());
+    }
+
+    @Test
+    void identicalFilesShareOneIcon() {
+        IconCache cache = cache(10_000);
+        IconEntry a = loadable("a");
+        IconEntry copy = new IconEntry("copy.png", new File("copy.png"), 3000, a.hash(), null);
+
+        cache.load(a);
+        assertSame(cache.get(a), cache.get(copy));
+        assertEquals(1, loads(a));
+        assertEquals(1, cache.getResidentCount());
+    }
+
+    @Test
+    void concurrentLoadsAreShared() {
+        IconCache cache = cache(10_000);
+        IconEntry a = entry("a");
+        CompletableFuture<CachedServerIcon> pending = new CompletableFuture<>();
+        futures.put(a.hash(), pending);
+
+        CompletableFuture<CachedServerIcon> first = cache.load(a);
+        assertSame(first, cache.load(a));
+        assertNull(cache.get(a));
+        assertEquals(1, loads(a));
+
+        pending.complete(icon());
+        assertSame(first.join(), cache.get(a));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverBudget() throws Exception {
+        IconCache cache = cache(ICON_BYTES * 2);
+        IconEntry a = loadable("a");
+        IconEntry b = loadable("b");
+        IconEntry c = loadable("c");
+        cache.load(a);
+        Thread.sleep(2);
+        cache.load(b);
+        Thread.sleep(2);
+        cache.get(a);
+
+        cache.load(c);
+        assertEquals(2, cache.getResidentCount());
+        assertEquals(ICON_BYTES * 2, cache.getResidentBytes());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get(a));
+        assertNotNull(cache.get(c));
+        assertNull(cache.get(b));
+    }
+
+    @Test
+    void keepsSingleIconLargerThanBudget() {
+        IconCache cache = cache(100);
+        IconEntry a = loadable("a");
+
+        cache.load(a);
+        assertNotNull(cache.get(a));
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void failedLoadsAreRetriedAfterLibraryChange() {
+        IconCache cache = cache(10_000);
+        IconEntry broken = entry("broken");
+
+        assertNull(cache.get(broken));
+        assertNull(cache.get(broken));
+        assertEquals(1, loads(broken));
+
+        cache.retain(List.of(broken));
+        futures.put(broken.hash(), CompletableFuture.completedFuture(icon()));
+        assertNull(cache.get(broken));
+        assertNotNull(cache.get(broken));
+        assertEquals(2, loads(broken));
+    }
+
+    @Test
+    void retainDropsIconsNoLongerInLibrary() {
+        IconCache cache = cache(10_000);
+        IconEntry a = loadable("a");
+        IconEntry b = loadable("b");
+        cache.prefetch(List.of(a, b));
+        assertEquals(2, cache.getResidentCount());
+
+        cache.retain(List.of(b));
+        assertEquals(1, cache.getResidentCount());
+        assertEquals(ICON_BYTES, cache.getResidentBytes());
+        assertNotNull(cache.get(b));
+    }
+
+    private int loads(IconEntry entry) {
+        return loads.getOrDefault(entry.hash(), 0);
+    }
+
+    private IconCache cache(long budget) {
+        return new IconCache(budget, entry -> {
+            loads.merge(entry.hash(), 1, Integer::sum);
+            return futures.getOrDefault(entry.hash(), CompletableFuture.completedFuture(null));
+        });
+    }
+
+    /**
+     * @return An entry whose icon loads at once.
+     */
+    private IconEntry loadable(String name) {
+        IconEntry entry = entry(name);
+        futures.put(entry.hash(), CompletableFuture.completedFuture(icon()));
+        return entry;
+    }
+
+    private static IconEntry entry(String name) {
+        return new IconEntry(name + ".png", new File(name + ".png"), 3000, "hash-" + name, null);
+    }
+
+    private static CachedServerIcon icon() {
+        return (CachedServerIcon) Proxy.newProxyInstance(IconCacheTest.class.getClassLoader(), new Class<?>[]{CachedServerIcon.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> null;
+                });
+    }
+}
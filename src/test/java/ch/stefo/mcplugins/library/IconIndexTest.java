@@ -0,0 +1,114 @@
+package ch.stefo.mcplugins.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class IconIndexTest {
+
+    private static final List<String> NAMES = List.of("beta.png", "Alpha.png", "alps.png", "Icon.png", "alpine.png", "icon.png", "gamma.png");
+
+    private final Map<String, IconEntry> entries = new HashMap<>();
+    private final IconIndex index = index();
+
+    @Test
+    void countsNamesByPrefixIgnoringCase() {
+        assertEquals(3, index.count("al"));
+        assertEquals(3, index.count("AL"));
+        assertEquals(3, index.count("alp"));
+        assertEquals(1, index.count("alph"));
+        assertEquals(1, index.count("alps"));
+        assertEquals(2, index.count("icon"));
+        assertEquals(0, index.count("zeta"));
+        assertEquals(0, index.count("alphabet"));
+        assertEquals(NAMES.size(), index.count(""));
+    }
+
+    @Test
+    void pagesInNameOrder() {
+        assertEquals(List.of("Alpha.png", "alpine.png"), names(index.page("al", 0, 2)));
+        assertEquals(List.of("alps.png"), names(index.page("al", 1, 2)));
+        assertTrue(index.page("al", 2, 2).isEmpty());
+        assertTrue(index.page("zeta", 0, 10).isEmpty());
+        assertEquals(List.of("Alpha.png", "alpine.png", "alps.png", "beta.png", "gamma.png", "Icon.png", "icon.png"),
+                names(index.page("", 0, 10)));
+    }
+
+    @Test
+    void pagesCarryIds() {
+        for (IconIndex.Item item : index.page("", 0, 10)) {
+            assertEquals(NAMES.indexOf(item.entry().name()), item.id());
+        }
+    }
+
+    @Test
+    void completesUpToLimit() {
+        assertEquals(List.of("Alpha.png", "alpine.png"), index.complete("AL", 2));
+        assertEquals(List.of("Icon.png", "icon.png"), index.complete("i", 10));
+        assertTrue(index.complete("x", 10).isEmpty());
+    }
+
+    @Test
+    void findsExactMatchBeforeOtherCase() {
+        assertSame(entries.get("icon.png"), index.find("icon.png"));
+        assertSame(entries.get("Icon.png"), index.find("Icon.png"));
+        assertSame(entries.get("Alpha.png"), index.find("ALPHA.PNG"));
+        assertNull(index.find("alp"));
+    }
+
+    @Test
+    void resolvesIdsAndNames() {
+        assertSame(entries.get("gamma.png"), index.resolve("6"));
+        assertSame(entries.get("beta.png"), index.resolve("beta.png"));
+        assertNull(index.resolve("99"));
+    }
+
+    @Test
+    void entriesWithoutIdHaveMinusOne() {
+        IconEntry entry = entry("new.png");
+        IconIndex withoutId = new IconIndex(List.of(entry), Map.of());
+
+        assertEquals(-1, withoutId.page("", 0, 1).get(0).id());
+    }
+
+    @Test
+    void emptyIndex() {
+        assertEquals(0, IconIndex.EMPTY.size());
+        assertEquals(0, IconIndex.EMPTY.count(""));
+        assertNull(IconIndex.EMPTY.find("a.png"));
+        assertTrue(IconIndex.EMPTY.complete("", 10).isEmpty());
+    }
+
+    private IconIndex index() {
+        Map<String, Integer> ids = new HashMap<>();
+        List<IconEntry> list = new ArrayList<>();
+        for (String name : NAMES) {
+            IconEntry entry = entry(name);
+            entries.put(name, entry);
+            list.add(entry);
+            ids.put(name, NAMES.indexOf(name));
+        }
+        return new IconIndex(list, ids);
+    }
+
+    private static IconEntry entry(String name) {
+        return new IconEntry(name, new File(name), 100, "hash-" + name, null);
+    }
+
+    private static List<String> names(List<IconIndex.Item> items) {
+        List<String> names = new ArrayList<>();
+        for (IconIndex.Item item : items) {
+            names.add(item.entry().name());
+        }
+        return names;
+    }
+}
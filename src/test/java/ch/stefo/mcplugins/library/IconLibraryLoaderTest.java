@@ -0,0 +1,178 @@
+package ch.stefo.mcplugins.library;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+import org.bukkit.util.CachedServerIcon;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ch.stefo.mcplugins.image.IconImages;
+
+class IconLibraryLoaderTest {
+
+    private static final Logger LOGGER = Logger.getLogger("IconLibraryLoaderTest");
+
+    @TempDir
+    Path folder;
+
+    private File icons;
+    private File packFile;
+    // Images handed to the server, in the order they were loaded
+    private final List<BufferedImage> loaded = Collections.synchronizedList(new ArrayList<>());
+    private final List<IconLibraryLoader> loaders = new ArrayList<>();
+
+    @BeforeEach
+    void createFolders() throws IOException {
+        icons = Files.createDirectories(folder.resolve("icons")).toFile();
+        packFile = folder.resolve("icons.pack").toFile();
+    }
+
+    @AfterEach
+    void shutdownLoaders() {
+        for (IconLibraryLoader loader : loaders) {
+            loader.shutdown();
+        }
+    }
+
+    @Test
+    void warmLoadTakesCompactIconsFromPack() throws Exception {
+        int[] pixels = twoColors();
+        writeIcon("a.png", pixels);
+        writeIcon("copy.png", pixels);
+        assertEquals(0, loader(false).load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS).fromPack());
+        loaded.clear();
+
+        // A new loader, as after a restart
+        IconLibraryLoader.Result result = loader(false).load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS);
+        assertEquals(2, result.fromPack());
+        assertEquals(0, result.decoded());
+        assertEquals(2, result.library().size());
+        assertEquals(1, result.library().distinctIcons());
+        // Both copies may be loaded at the same time, but neither is decoded from its file
+        assertFalse(loaded.isEmpty());
+        for (BufferedImage image : loaded) {
+            assertEquals(BufferedImage.TYPE_BYTE_INDEXED, image.getType());
+            assertArrayEquals(pixels, IconImages.toPixels(image));
+        }
+    }
+
+    @Test
+    void changedFilesAreDecodedAgain() throws Exception {
+        writeIcon("a.png", twoColors());
+        writeIcon("b.png", twoColors());
+        loader(false).load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS);
+
+        int[] changed = twoColors();
+        changed[0] = 0xFF00FF00;
+        File file = writeIcon("b.png", changed);
+        file.setLastModified(file.lastModified() + 2000);
+        IconLibraryLoader.Result result = loader(false).load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, result.fromPack());
+        assertEquals(2, result.library().distinctIcons());
+    }
+
+    @Test
+    void damagedPayloadIsDecodedFromFile() throws Exception {
+        int[] pixels = twoColors();
+        writeIcon("a.png", pixels);
+        loader(false).load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS);
+        try (RandomAccessFile out = new RandomAccessFile(packFile, "rw")) {
+            out.seek(IconPack.HEADER_BYTES + 10);
+            out.write(out.read() ^ 0x55);
+        }
+        loaded.clear();
+
+        IconLibraryLoader.Result result = loader(false).load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS);
+        assertEquals(0, result.fromPack());
+        assertTrue(result.failed().isEmpty());
+        assertArrayEquals(pixels, IconImages.toPixels(loaded.get(0)));
+    }
+
+    @Test
+    void knownContentIsNotDecodedAgain() throws Exception {
+        File original = writeIcon("a.png", twoColors());
+        IconLibraryLoader loader = loader(false);
+        IconLibraryLoader.Result result = loader.load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS);
+        assertEquals(1, result.decoded());
+        loaded.clear();
+
+        Files.copy(original.toPath(), icons.toPath().resolve("copy.png"));
+        IconLibraryLoader.Changes changes = loader.loadChanges(icons, Set.of("copy.png"), result.library())
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, changes.decoded());
+        assertTrue(loaded.isEmpty());
+        assertEquals(1, changes.updated().size());
+        assertSame(result.library().find("a.png").icon(), changes.updated().get(0).icon());
+    }
+
+    @Test
+    void lazyLoadReadsIconFromPack() throws Exception {
+        int[] pixels = twoColors();
+        writeIcon("a.png", pixels);
+        loader(false).load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS);
+        loaded.clear();
+
+        IconLibraryLoader lazy = loader(true);
+        IconEntry entry = lazy.load(icons, IconLibrary.EMPTY).get(5, TimeUnit.SECONDS).library().find("a.png");
+        assertNull(entry.icon());
+        assertTrue(loaded.isEmpty());
+
+        lazy.loadIcon(entry).get(5, TimeUnit.SECONDS);
+        assertEquals(BufferedImage.TYPE_BYTE_INDEXED, loaded.get(0).getType());
+        assertArrayEquals(pixels, IconImages.toPixels(loaded.get(0)));
+    }
+
+    private IconLibraryLoader loader(boolean lazy) {
+        IconLibraryLoader loader = new IconLibraryLoader(this::load, packFile, LOGGER, 2, lazy);
+        loaders.add(loader);
+        return loader;
+    }
+
+    private CachedServerIcon load(BufferedImage image) {
+        loaded.add(image);
+        return (CachedServerIcon) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{CachedServerIcon.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> null;
+                });
+    }
+
+    private File writeIcon(String name, int[] pixels) throws IOException {
+        File file = new File(icons, name);
+        ImageIO.write(IconImages.fromPixels(pixels), "png", file);
+        return file;
+    }
+
+    private static int[] twoColors() {
+        int[] pixels = new int[IconImages.PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i % IconImages.SIZE < IconImages.SIZE / 2 ? 0xFFFF0000 : 0x800000FF;
+        }
+        return pixels;
+    }
+}
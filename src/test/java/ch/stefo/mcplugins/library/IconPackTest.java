@@ -0,0 +1,158 @@
+package ch.stefo.mcplugins.library;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IconPackTest {
+
+    private static final Logger LOGGER = Logger.getLogger("IconPackTest");
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void roundTripsPayloads() throws IOException {
+        File file = folder.resolve("icons.pack").toFile();
+        byte[] red = payload(1, 300);
+        byte[] gradient = payload(2, 2000);
+        IconPackWriter writer = new IconPackWriter(file);
+        writer.add("red.png", 100, 1000, "hash-red", red);
+        writer.add("gradient.png", 200, 2000, "hash-gradient", gradient);
+        writer.commit();
+
+        try (IconPack pack = IconPack.open(file, LOGGER)) {
+            assertEquals(2, pack.size());
+            IconPack.Entry entry = pack.find("gradient.png", 200, 2000);
+            assertNotNull(entry);
+            assertEquals("hash-gradient", entry.hash());
+            assertArrayEquals(gradient, pack.payload(entry));
+            assertArrayEquals(red, pack.payload(pack.find("red.png", 100, 1000)));
+        }
+        // Only the pack itself is left
+        assertArrayEquals(new String[]{"icons.pack"}, folder.toFile().list());
+    }
+
+    @Test
+    void ignoresChangedFiles() throws IOException {
+        File file = folder.resolve("icons.pack").toFile();
+        IconPackWriter writer = new IconPackWriter(file);
+        writer.add("red.png", 100, 1000, "hash-red", payload(1, 300));
+        writer.commit();
+
+        try (IconPack pack = IconPack.open(file, LOGGER)) {
+            assertNull(pack.find("red.png", 101, 1000));
+            assertNull(pack.find("red.png", 100, 1001));
+            assertNull(pack.find("blue.png", 100, 1000));
+        }
+    }
+
+    @Test
+    void storesEqualContentOnce() throws IOException {
+        File file = folder.resolve("icons.pack").toFile();
+        byte[] red = payload(1, 300);
+        IconPackWriter writer = new IconPackWriter(file);
+        writer.add("red.png", 100, 1000, "hash-red", red);
+        writer.add("copy.png", 100, 3000, "hash-red", red);
+        writer.commit();
+
+        assertEquals(IconPack.HEADER_BYTES + red.length, file.length() - indexBytes(file));
+        try (IconPack pack = IconPack.open(file, LOGGER)) {
+            IconPack.Entry copy = pack.find("copy.png", 100, 3000);
+            assertEquals(pack.find("red.png", 100, 1000).offset(), copy.offset());
+            assertArrayEquals(red, pack.payload(copy));
+        }
+    }
+
+    @Test
+    void abortKeepsOldPack() throws IOException {
+        File file = folder.resolve("icons.pack").toFile();
+        IconPackWriter writer = new IconPackWriter(file);
+        writer.add("red.png", 100, 1000, "hash-red", payload(1, 300));
+        writer.commit();
+
+        IconPackWriter next = new IconPackWriter(file);
+        next.add("blue.png", 100, 1000, "hash-blue", payload(3, 300));
+        next.abort();
+
+        try (IconPack pack = IconPack.open(file, LOGGER)) {
+            assertNotNull(pack.find("red.png", 100, 1000));
+            assertNull(pack.find("blue.png", 100, 1000));
+        }
+        assertArrayEquals(new String[]{"icons.pack"}, folder.toFile().list());
+    }
+
+    @Test
+    void detectsCorruptPayload() throws IOException {
+        File file = folder.resolve("icons.pack").toFile();
+        IconPackWriter writer = new IconPackWriter(file);
+        writer.add("red.png", 100, 1000, "hash-red", payload(1, 300));
+        writer.commit();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(IconPack.HEADER_BYTES + 10);
+            out.write(0x55);
+        }
+
+        try (IconPack pack = IconPack.open(file, LOGGER)) {
+            IconPack.Entry entry = pack.find("red.png", 100, 1000);
+            assertThrows(IOException.class, () -> pack.payload(entry));
+        }
+    }
+
+    @Test
+    void unreadablePackIsEmpty() throws IOException {
+        File file = folder.resolve("icons.pack").toFile();
+        assertSame(IconPack.EMPTY, IconPack.open(file, LOGGER));
+
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        assertSame(IconPack.EMPTY, IconPack.open(file, LOGGER));
+
+        Files.write(file.toPath(), new byte[IconPack.HEADER_BYTES + 100]);
+        assertSame(IconPack.EMPTY, IconPack.open(file, LOGGER));
+    }
+
+    @Test
+    void closedPackFailsReads() throws IOException {
+        File file = folder.resolve("icons.pack").toFile();
+        IconPackWriter writer = new IconPackWriter(file);
+        writer.add("red.png", 100, 1000, "hash-red", payload(1, 300));
+        writer.commit();
+
+        IconPack pack = IconPack.open(file, LOGGER);
+        IconPack.Entry entry = pack.find("red.png", 100, 1000);
+        pack.close();
+        pack.close();
+
+        assertThrows(IOException.class, () -> pack.payload(entry));
+    }
+
+    private static byte[] payload(int seed, int length) {
+        byte[] payload = new byte[length];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * @return Size of the index at the end of a pack, read from its header.
+     */
+    private static long indexBytes(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(12);
+            return file.length() - in.readLong();
+        }
+    }
+}
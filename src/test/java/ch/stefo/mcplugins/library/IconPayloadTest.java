@@ -0,0 +1,79 @@
+package ch.stefo.mcplugins.library;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ch.stefo.mcplugins.image.IconImages;
+
+class IconPayloadTest {
+
+    @Test
+    void roundTripsIndexedIcons() throws IOException {
+        int[] pixels = new int[IconImages.PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i % 3 == 0 ? 0xFFFF0000 : i % 3 == 1 ? 0x800000FF : 0;
+        }
+        BufferedImage image = IconImages.toCompactImage(pixels);
+        assertEquals(BufferedImage.TYPE_BYTE_INDEXED, image.getType());
+
+        BufferedImage decoded = IconPayload.decode(IconPayload.encode(image));
+        assertEquals(BufferedImage.TYPE_BYTE_INDEXED, decoded.getType());
+        assertArrayEquals(IconImages.toPixels(image), IconImages.toPixels(decoded));
+        // The server encodes the icon with this palette, so it must be kept as it is
+        assertArrayEquals(palette(image), palette(decoded));
+    }
+
+    @Test
+    void roundTripsOpaqueIcons() throws IOException {
+        int[] pixels = noise(1, true);
+        BufferedImage image = IconImages.toCompactImage(pixels);
+        assertEquals(BufferedImage.TYPE_INT_RGB, image.getType());
+
+        BufferedImage decoded = IconPayload.decode(IconPayload.encode(image));
+        assertEquals(BufferedImage.TYPE_INT_RGB, decoded.getType());
+        assertArrayEquals(pixels, IconImages.toPixels(decoded));
+    }
+
+    @Test
+    void roundTripsTranslucentIcons() throws IOException {
+        BufferedImage image = IconImages.toCompactImage(noise(2, false));
+        assertEquals(BufferedImage.TYPE_INT_ARGB, image.getType());
+
+        BufferedImage decoded = IconPayload.decode(IconPayload.encode(image));
+        assertEquals(BufferedImage.TYPE_INT_ARGB, decoded.getType());
+        assertArrayEquals(IconImages.toPixels(image), IconImages.toPixels(decoded));
+    }
+
+    @Test
+    void rejectsInvalidPayloads() throws IOException {
+        assertThrows(IOException.class, () -> IconPayload.decode(new byte[]{1, 2, 3}));
+        byte[] payload = IconPayload.encode(IconImages.toCompactImage(noise(3, true)));
+        byte[] truncated = new byte[payload.length / 2];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> IconPayload.decode(truncated));
+    }
+
+    private static int[] noise(long seed, boolean opaque) {
+        Random random = new Random(seed);
+        int[] pixels = new int[IconImages.PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() | (opaque ? 0xFF000000 : 0x01000000);
+        }
+        return pixels;
+    }
+
+    private static int[] palette(BufferedImage image) {
+        IndexColorModel model = (IndexColorModel) image.getColorModel();
+        int[] colors = new int[model.getMapSize()];
+        model.getRGBs(colors);
+        return colors;
+    }
+}
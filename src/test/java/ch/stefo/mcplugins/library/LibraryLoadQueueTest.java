@@ -0,0 +1,58 @@
+package ch.stefo.mcplugins.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+class LibraryLoadQueueTest {
+
+    private final LibraryLoadQueue queue = new LibraryLoadQueue(Logger.getLogger("LibraryLoadQueueTest"));
+    // Names of the loads in the order they started
+    private final List<String> started = new ArrayList<>();
+    // The publish futures of the started loads, in the same order
+    private final List<CompletableFuture<Void>> published = new ArrayList<>();
+
+    @Test
+    void firstLoadStartsAtOnce() {
+        queue.queue(load("full"));
+        assertEquals(List.of("full"), started);
+    }
+
+    @Test
+    void loadsStartOnlyOnceThePreviousIsPublished() {
+        queue.queue(load("full"));
+        queue.queue(load("changes"));
+        queue.queue(load("full again"));
+        assertEquals(List.of("full"), started);
+
+        published.get(0).complete(null);
+        assertEquals(List.of("full", "changes"), started);
+        published.get(1).complete(null);
+        assertEquals(List.of("full", "changes", "full again"), started);
+    }
+
+    @Test
+    void failedLoadDoesNotBlockTheQueue() {
+        queue.queue(load("failing"));
+        queue.queue(published -> {
+            throw new IllegalStateException("not started");
+        });
+        queue.queue(load("changes"));
+
+        published.get(0).completeExceptionally(new IllegalStateException("load failed"));
+        assertEquals(List.of("failing", "changes"), started);
+    }
+
+    private Consumer<CompletableFuture<Void>> load(String name) {
+        return future -> {
+            started.add(name);
+            published.add(future);
+        };
+    }
+}
@@ -0,0 +1,196 @@
+package ch.stefo.mcplugins.library;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SharedIconStoreTest {
+
+    private static final Logger LOGGER = Logger.getLogger("SharedIconStoreTest");
+
+    @TempDir
+    Path folder;
+
+    private final List<SharedIconStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void shutdownStores() {
+        for (SharedIconStore store : stores) {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    void publishesNewVersionOnlyWhenIconsChange() throws Exception {
+        File icons = folder("publisher");
+        SharedIconStore publisher = store("publisher.manifest");
+        List<IconEntry> entries = List.of(icon(icons, "a.png", "first"), icon(icons, "b.png", "second"));
+
+        SharedIconStore.Manifest first = publisher.publish(entries).get(5, TimeUnit.SECONDS);
+        assertEquals(1, first.version());
+        assertEquals(Set.of("a.png", "b.png"), first.items().keySet());
+        assertEquals(1, publisher.publish(entries).get(5, TimeUnit.SECONDS).version());
+
+        SharedIconStore.Manifest second = publisher.publish(List.of(icon(icons, "a.png", "changed"))).get(5, TimeUnit.SECONDS);
+        assertEquals(2, second.version());
+        assertEquals(Set.of("a.png"), second.items().keySet());
+        assertEquals(second, SharedIconStore.read(folder.resolve("shared/manifest").toFile()));
+        assertEquals(2, publisher.getVersion());
+    }
+
+    @Test
+    void keepsStoredIconWhenFileChangedSinceLoad() throws Exception {
+        File icons = folder("publisher");
+        SharedIconStore publisher = store("publisher.manifest");
+        SharedIconStore.Manifest published = publisher.publish(List.of(icon(icons, "a.png", "first"), icon(icons, "b.png", "second")))
+                .get(5, TimeUnit.SECONDS);
+
+        // The file changed again after the library loaded it, so its hash no longer matches
+        IconEntry stale = icon(icons, "a.png", "changed");
+        Files.writeString(stale.file().toPath(), "changed again");
+        SharedIconStore.Manifest next = publisher.publish(List.of(stale)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, next.version());
+        assertEquals(Set.of("a.png"), next.items().keySet());
+        assertEquals(published.items().get("a.png"), next.items().get("a.png"));
+    }
+
+    @Test
+    void mirrorsOnlyChangedIcons() throws Exception {
+        File icons = folder("publisher");
+        File mirrored = folder("mirror");
+        SharedIconStore publisher = store("publisher.manifest");
+        SharedIconStore mirror = store("mirror.manifest");
+
+        publisher.publish(List.of(icon(icons, "a.png", "first"), icon(icons, "b.png", "second"))).get(5, TimeUnit.SECONDS);
+        assertEquals(Set.of("a.png", "b.png"), mirror.sync(mirrored).get(5, TimeUnit.SECONDS));
+        assertContent(mirrored, "a.png", "first");
+        assertContent(mirrored, "b.png", "second");
+        assertEquals(Set.of(), mirror.sync(mirrored).get(5, TimeUnit.SECONDS));
+
+        publisher.publish(List.of(icon(icons, "a.png", "first"), icon(icons, "c.png", "third"))).get(5, TimeUnit.SECONDS);
+        assertEquals(Set.of("b.png", "c.png"), mirror.sync(mirrored).get(5, TimeUnit.SECONDS));
+        assertContent(mirrored, "a.png", "first");
+        assertContent(mirrored, "c.png", "third");
+        assertFalse(new File(mirrored, "b.png").exists());
+        assertEquals(2, mirror.getVersion());
+    }
+
+    @Test
+    void mirroredVersionSurvivesRestart() throws Exception {
+        File icons = folder("publisher");
+        File mirrored = folder("mirror");
+        store("publisher.manifest").publish(List.of(icon(icons, "a.png", "first"))).get(5, TimeUnit.SECONDS);
+        store("mirror.manifest").sync(mirrored).get(5, TimeUnit.SECONDS);
+
+        SharedIconStore restarted = store("mirror.manifest");
+        assertEquals(1, restarted.getVersion());
+        assertEquals(Set.of(), restarted.sync(mirrored).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void restoresDeletedMirroredIcon() throws Exception {
+        File icons = folder("publisher");
+        File mirrored = folder("mirror");
+        SharedIconStore publisher = store("publisher.manifest");
+        SharedIconStore mirror = store("mirror.manifest");
+        publisher.publish(List.of(icon(icons, "a.png", "first"))).get(5, TimeUnit.SECONDS);
+        mirror.sync(mirrored).get(5, TimeUnit.SECONDS);
+
+        Files.delete(new File(mirrored, "a.png").toPath());
+        publisher.publish(List.of(icon(icons, "a.png", "first"), icon(icons, "b.png", "second"))).get(5, TimeUnit.SECONDS);
+        assertEquals(Set.of("a.png", "b.png"), mirror.sync(mirrored).get(5, TimeUnit.SECONDS));
+        assertContent(mirrored, "a.png", "first");
+    }
+
+    @Test
+    void skipsObjectsNotMatchingTheirHash() throws Exception {
+        File icons = folder("publisher");
+        File mirrored = folder("mirror");
+        IconEntry entry = icon(icons, "a.png", "first");
+        store("publisher.manifest").publish(List.of(entry)).get(5, TimeUnit.SECONDS);
+        String hash = entry.hash();
+        Files.writeString(folder.resolve("shared/objects/" + hash.substring(0, 2) + "/" + hash + ".png"), "tampered");
+
+        SharedIconStore mirror = store("mirror.manifest");
+        assertEquals(Set.of(), mirror.sync(mirrored).get(5, TimeUnit.SECONDS));
+        assertFalse(new File(mirrored, "a.png").exists());
+        // The version is retried on the next sync
+        assertEquals(0, SharedIconStore.read(folder.resolve("mirror.manifest").toFile()).version());
+    }
+
+    @Test
+    void readsMissingManifestAsEmpty() throws IOException {
+        assertSame(SharedIconStore.Manifest.EMPTY, SharedIconStore.read(folder.resolve("missing").toFile()));
+    }
+
+    @Test
+    void rejectsInvalidManifests() throws IOException {
+        String hash = "0".repeat(64);
+        assertInvalid("iconicserver-manifest 2\nversion 1\n");
+        assertInvalid("iconicserver-manifest 1\nversion one\n");
+        assertInvalid("iconicserver-manifest 1\nversion 1\n" + hash + " 10\n");
+        assertInvalid("iconicserver-manifest 1\nversion 1\nnot-a-hash 10 a.png\n");
+        assertInvalid("iconicserver-manifest 1\nversion 1\n" + hash + " ten a.png\n");
+        // Names must not leave the icons folder
+        assertInvalid("iconicserver-manifest 1\nversion 1\n" + hash + " 10 ../a.png\n");
+        assertInvalid("iconicserver-manifest 1\nversion 1\n" + hash + " 10 a.txt\n");
+        assertInvalid("iconicserver-manifest 1\nversion 1\n" + hash + " 10 .a.png\n");
+
+        File file = folder.resolve("manifest").toFile();
+        Files.writeString(file.toPath(), "iconicserver-manifest 1\nversion 7\n" + hash + " 10 a b.png\n");
+        SharedIconStore.Manifest manifest = SharedIconStore.read(file);
+        assertEquals(7, manifest.version());
+        assertEquals(new SharedIconStore.Item(hash, 10), manifest.items().get("a b.png"));
+    }
+
+    private void assertInvalid(String content) throws IOException {
+        File file = folder.resolve("manifest").toFile();
+        Files.writeString(file.toPath(), content);
+        assertThrows(IOException.class, () -> SharedIconStore.read(file), content);
+    }
+
+    private SharedIconStore store(String localManifest) {
+        SharedIconStore store = new SharedIconStore(folder.resolve("shared").toFile(), folder.resolve(localManifest).toFile(), LOGGER);
+        stores.add(store);
+        return store;
+    }
+
+    private File folder(String name) throws IOException {
+        return Files.createDirectories(folder.resolve(name)).toFile();
+    }
+
+    /**
+     * Writes an icon file and creates its library entry.
+     */
+    private static IconEntry icon(File icons, String name, String content) throws IOException {
+        File file = new File(icons, name);
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), data);
+        return new IconEntry(name, file, data.length, IconLibraryLoader.hash(data), null);
+    }
+
+    private static void assertContent(File folder, String name, String content) throws IOException {
+        File file = new File(folder, name);
+        assertTrue(file.isFile(), name + " is missing");
+        assertArrayEquals(content.getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file.toPath()));
+    }
+}
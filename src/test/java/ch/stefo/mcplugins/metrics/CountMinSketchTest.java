@@ -0,0 +1,60 @@
+package ch.stefo.mcplugins.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CountMinSketchTest {
+
+    @Test
+    void countsExactlyWithoutCollisions() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        sketch.add(42, 3);
+        sketch.add(42, 4);
+
+        assertEquals(7, sketch.estimate(42));
+        assertEquals(0, sketch.estimate(43));
+    }
+
+    @Test
+    void staysWithinErrorBound() {
+        int depth = 4;
+        int width = 1024;
+        CountMinSketch sketch = new CountMinSketch(depth, width);
+        int items = 20_000;
+        long total = 0;
+        for (int i = 0; i < items; i++) {
+            sketch.add(i, count(i));
+            total += count(i);
+        }
+
+        // Each estimate exceeds the count by more than e / width of the total with probability at most e^-depth
+        double bound = Math.E / width * total;
+        int outside = 0;
+        for (int i = 0; i < items; i++) {
+            long estimate = sketch.estimate(i);
+            assertTrue(estimate >= count(i), "undercounted item " + i);
+            if (estimate - count(i) > bound) {
+                outside++;
+            }
+        }
+        assertTrue(outside <= items * Math.exp(-depth), outside + " estimates outside the bound");
+    }
+
+    @Test
+    void roundsWidthUpToPowerOfTwo() {
+        assertEquals(4 * 1024 * 8, new CountMinSketch(4, 1000).memoryBytes());
+    }
+
+    @Test
+    void rejectsInvalidDepth() {
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 16));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(9, 16));
+    }
+
+    private static long count(int item) {
+        return item % 10 + 1;
+    }
+}
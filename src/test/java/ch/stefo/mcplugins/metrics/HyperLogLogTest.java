@@ -0,0 +1,59 @@
+package ch.stefo.mcplugins.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class HyperLogLogTest {
+
+    @Test
+    void emptyEstimatesZero() {
+        assertEquals(0, new HyperLogLog(14).estimate());
+    }
+
+    @Test
+    void estimatesSmallCounts() {
+        assertWithinError(new HyperLogLog(14), 1000);
+    }
+
+    @Test
+    void estimatesLargeCounts() {
+        assertWithinError(new HyperLogLog(14), 1_000_000);
+    }
+
+    @Test
+    void estimatesWithFewRegisters() {
+        assertWithinError(new HyperLogLog(8), 100_000);
+    }
+
+    @Test
+    void ignoresDuplicates() {
+        HyperLogLog hll = new HyperLogLog(14);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                hll.add(CountMinSketch.mix(i));
+            }
+        }
+
+        assertEquals(10_000, hll.estimate(), 10_000 * 3 * 1.04 / 128);
+    }
+
+    @Test
+    void rejectsInvalidPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(3));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(19));
+    }
+
+    /**
+     * Adds distinct items and checks the estimate is within three standard errors.
+     */
+    private static void assertWithinError(HyperLogLog hll, int count) {
+        for (int i = 0; i < count; i++) {
+            hll.add(CountMinSketch.mix(i));
+        }
+        double registers = hll.memoryBytes() / 4.0;
+        double error = 3 * 1.04 / Math.sqrt(registers);
+        assertEquals(count, hll.estimate(), count * error, count + " items");
+    }
+}
@@ -0,0 +1,151 @@
+package ch.stefo.mcplugins.ping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.library.IconLibrary;
+import ch.stefo.mcplugins.metrics.PluginMetrics;
+import ch.stefo.mcplugins.player.PlayerAddressIndex;
+import ch.stefo.mcplugins.schedule.ScheduleResolver;
+import ch.stefo.mcplugins.schedule.ScheduleRule;
+import org.bukkit.util.CachedServerIcon;
+import org.junit.jupiter.api.Test;
+
+class LibraryPublisherTest {
+
+    private static final Logger LOGGER = Logger.getLogger("LibraryPublisherTest");
+
+    private final PlayerAddressIndex playerAddresses = new PlayerAddressIndex(10, 60_000);
+    private final PingHandler pingHandler = new PingHandler(playerAddresses, PluginMetrics.DISABLED, PingRateLimiter.UNLIMITED,
+            ThrottledResponse.DEFAULT);
+    // Default icon loads requested per hash
+    private final Map<String, Integer> loads = new HashMap<>();
+    // Futures the loader returns, by hash; a hash without one fails to load
+    private final Map<String, CompletableFuture<CachedServerIcon>> futures = new HashMap<>();
+    // Tasks handed to the main thread, run by runMainThread()
+    private final List<Runnable> mainThread = new ArrayList<>();
+    private final ScheduleResolver schedule = new ScheduleResolver(entry -> CompletableFuture.completedFuture(null), Runnable::run,
+            () -> { }, LOGGER);
+    private final LibraryPublisher publisher = new LibraryPublisher(pingHandler, schedule, null, 0, entry -> {
+        loads.merge(entry.hash(), 1, Integer::sum);
+        return futures.getOrDefault(entry.hash(), CompletableFuture.completedFuture(null));
+    }, mainThread::add, null, LOGGER);
+
+    @Test
+    void publishesEntriesAndDefaultIcon() {
+        IconEntry a = loaded("a");
+        IconEntry b = loaded("b");
+        publisher.publish(new IconLibrary(List.of(a, b)), "b.png", Map.of());
+
+        assertEquals(List.of(a, b), pingHandler.getSelection().getEntries());
+        assertSame(b, pingHandler.getDefaultEntry());
+        assertSame(b.icon(), pingHandler.getSelection().getDefaultIcon());
+    }
+
+    @Test
+    void missingDefaultIconKeepsTheCurrentOne() {
+        IconEntry a = loaded("a");
+        publisher.publish(new IconLibrary(List.of(a)), "a.png", Map.of());
+        publisher.publish(new IconLibrary(List.of(loaded("b"))), "a.png", Map.of());
+
+        assertNull(pingHandler.getDefaultEntry());
+        assertSame(a.icon(), pingHandler.getSelection().getDefaultIcon());
+    }
+
+    @Test
+    void lazyDefaultIconIsPublishedOnceLoaded() {
+        IconEntry a = loaded("a");
+        publisher.publish(new IconLibrary(List.of(a)), "a.png", Map.of());
+        IconEntry b = entry("b");
+        CompletableFuture<CachedServerIcon> pending = new CompletableFuture<>();
+        futures.put(b.hash(), pending);
+
+        publisher.publish(new IconLibrary(List.of(b)), "b.png", Map.of());
+        assertSame(b, pingHandler.getDefaultEntry());
+        assertSame(a.icon(), pingHandler.getSelection().getDefaultIcon());
+
+        CachedServerIcon icon = icon();
+        pending.complete(icon);
+        runMainThread();
+        assertSame(icon, pingHandler.getSelection().getDefaultIcon());
+    }
+
+    @Test
+    void unchangedLazyDefaultIconIsNotLoadedAgain() {
+        IconEntry a = entry("a");
+        futures.put(a.hash(), CompletableFuture.completedFuture(icon()));
+        publisher.publish(new IconLibrary(List.of(a)), "a.png", Map.of());
+        runMainThread();
+
+        publisher.publish(new IconLibrary(List.of(entry("a"), entry("b"))), "a.png", Map.of());
+        assertEquals(1, loads.get(a.hash()).intValue());
+        assertEquals(List.of(), mainThread);
+    }
+
+    @Test
+    void defaultIconReplacedWhileLoadingIsNotPublished() {
+        IconEntry a = entry("a");
+        CompletableFuture<CachedServerIcon> pending = new CompletableFuture<>();
+        futures.put(a.hash(), pending);
+        publisher.publish(new IconLibrary(List.of(a, entry("b"))), "a.png", Map.of());
+        publisher.publish(new IconLibrary(List.of(a, entry("b"))), "b.png", Map.of());
+
+        pending.complete(icon());
+        runMainThread();
+        assertNull(pingHandler.getSelection().getDefaultIcon());
+    }
+
+    @Test
+    void publishesPlayerIconsByLowercaseName() throws Exception {
+        IconEntry a = loaded("a");
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        playerAddresses.record(address, "Steve");
+
+        publisher.publish(new IconLibrary(List.of(a)), null, Map.of("Steve", "a.png", "Alex", "missing.png"));
+        assertSame(a.icon(), pingHandler.handle(address));
+    }
+
+    @Test
+    void resolvesTheScheduleFromTheLibrary() {
+        IconEntry a = loaded("a");
+        schedule.setRules(List.of(ScheduleRule.parse(Map.of("icon", "a.png"))));
+
+        publisher.publish(new IconLibrary(List.of(a, loaded("b"))), null, Map.of());
+        assertSame(a, schedule.getIcons().get("a.png"));
+    }
+
+    private void runMainThread() {
+        List<Runnable> tasks = new ArrayList<>(mainThread);
+        mainThread.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    private static IconEntry entry(String name) {
+        return new IconEntry(name + ".png", new File(name + ".png"), 3000, "hash-" + name, null);
+    }
+
+    private static IconEntry loaded(String name) {
+        return new IconEntry(name + ".png", new File(name + ".png"), 3000, "hash-" + name, icon());
+    }
+
+    private static CachedServerIcon icon() {
+        return (CachedServerIcon) Proxy.newProxyInstance(LibraryPublisherTest.class.getClassLoader(), new Class<?>[]{CachedServerIcon.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> null;
+                });
+    }
+}
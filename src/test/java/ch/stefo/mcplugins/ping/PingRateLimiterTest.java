@@ -0,0 +1,89 @@
+package ch.stefo.mcplugins.ping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.Test;
+
+class PingRateLimiterTest {
+
+    @Test
+    void allowsBurstThenLimits() throws UnknownHostException {
+        PingRateLimiter limiter = new PingRateLimiter(1, 5, 0);
+        InetAddress address = address(1);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(address), "ping " + i + " of the burst");
+        }
+        assertFalse(limiter.tryAcquire(address));
+        assertFalse(limiter.tryAcquire(address));
+        assertEquals(2, limiter.getThrottledByAddress());
+    }
+
+    @Test
+    void refillsAtSustainedRate() throws Exception {
+        PingRateLimiter limiter = new PingRateLimiter(10, 1, 0);
+        InetAddress address = address(1);
+
+        assertTrue(limiter.tryAcquire(address));
+        assertFalse(limiter.tryAcquire(address));
+        // One ping every 100 ms
+        Thread.sleep(150);
+        assertTrue(limiter.tryAcquire(address));
+        assertFalse(limiter.tryAcquire(address));
+    }
+
+    @Test
+    void limitsAddressesSeparately() throws UnknownHostException {
+        PingRateLimiter limiter = new PingRateLimiter(1, 1, 0);
+
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire(address(i))) {
+                allowed++;
+            }
+        }
+        // Addresses sharing one of the 4096 buckets share its limit
+        assertTrue(allowed >= 95, "only " + allowed + " of 100 addresses allowed");
+    }
+
+    @Test
+    void unlimitedNeverLimits() throws UnknownHostException {
+        assertFalse(PingRateLimiter.UNLIMITED.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(PingRateLimiter.UNLIMITED.tryAcquire(address(1)));
+        }
+        assertTrue(PingRateLimiter.UNLIMITED.tryAcquire(null));
+    }
+
+    @Test
+    void stormLimitsUnknownAddressesOnly() throws Exception {
+        PingRateLimiter limiter = new PingRateLimiter(0, 0, 100);
+        InetAddress address = address(1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire(address));
+        }
+
+        assertTrue(limiter.sample());
+        assertTrue(limiter.isStorm());
+        assertEquals(1, limiter.getStorms());
+        assertFalse(limiter.tryAcquire(address));
+        assertFalse(limiter.tryAcquire(null));
+        assertTrue(limiter.tryAcquire(address, true));
+        assertEquals(2, limiter.getThrottledByStorm());
+
+        // Three pings in half a second are far below the threshold
+        Thread.sleep(500);
+        assertTrue(limiter.sample());
+        assertFalse(limiter.isStorm());
+        assertTrue(limiter.tryAcquire(address));
+    }
+
+    private static InetAddress address(int i) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+    }
+}
@@ -0,0 +1,134 @@
+package ch.stefo.mcplugins.player;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlayerAddressIndexTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void looksUpLastPlayerOfAddress() throws Exception {
+        PlayerAddressIndex index = new PlayerAddressIndex(10, DAY);
+        index.record(address(1), "Alice");
+        index.record(address(2), "Bob");
+        index.record(address(1), "Carol");
+
+        assertEquals("carol", index.lookup(address(1)));
+        assertEquals("bob", index.lookup(address(2)));
+        assertNull(index.lookup(address(3)));
+        assertNull(index.lookup(null));
+    }
+
+    @Test
+    void evictsLeastRecentlySeenWhenFull() throws Exception {
+        PlayerAddressIndex index = new PlayerAddressIndex(10, DAY);
+        for (int i = 0; i <= 10; i++) {
+            index.record(address(i), "player" + i);
+            Thread.sleep(2);
+        }
+
+        // Evicted down to 90% of the capacity
+        assertEquals(9, index.size());
+        assertNull(index.lookup(address(0)));
+        assertNull(index.lookup(address(1)));
+        for (int i = 2; i <= 10; i++) {
+            assertEquals("player" + i, index.lookup(address(i)));
+        }
+    }
+
+    @Test
+    void forgetsExpiredAddresses() throws Exception {
+        PlayerAddressIndex index = new PlayerAddressIndex(10, 50);
+        index.record(address(1), "Alice");
+        Thread.sleep(100);
+
+        assertNull(index.lookup(address(1)));
+        index.evict();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void savedAddressesLoadAgain() throws Exception {
+        File file = folder.resolve("players.tsv").toFile();
+        PlayerAddressIndex index = new PlayerAddressIndex(10, DAY);
+        index.record(address(1), "Alice");
+        index.record(InetAddress.getByName("2001:db8::1"), "Bob");
+        index.save(file);
+
+        PlayerAddressIndex loaded = new PlayerAddressIndex(10, DAY);
+        loaded.load(file);
+        assertEquals(2, loaded.size());
+        assertEquals("alice", loaded.lookup(address(1)));
+        assertEquals("bob", loaded.lookup(InetAddress.getByName("2001:db8::1")));
+        assertArrayEquals(new String[]{"players.tsv"}, folder.toFile().list());
+    }
+
+    @Test
+    void loadSkipsExpiredAndMalformedLines() throws Exception {
+        File file = folder.resolve("players.tsv").toFile();
+        long now = System.currentTimeMillis();
+        Files.writeString(file.toPath(), "10.0.0.1\talice\t" + now + "\n"
+                + "10.0.0.2\tbob\t" + (now - 2 * DAY) + "\n"
+                + "10.0.0.3\tcarol\n"
+                + "10.0.0.4\tdave\tyesterday\n");
+
+        PlayerAddressIndex index = new PlayerAddressIndex(10, DAY);
+        index.load(file);
+        assertEquals(1, index.size());
+        assertEquals("alice", index.lookup(address(1)));
+    }
+
+    @Test
+    void savesOnlyAfterChanges() throws Exception {
+        File file = folder.resolve("players.tsv").toFile();
+        PlayerAddressIndex index = new PlayerAddressIndex(10, DAY);
+        index.record(address(1), "Alice");
+        index.save(file);
+
+        Files.delete(file.toPath());
+        index.save(file);
+        assertFalse(file.exists());
+
+        index.record(address(2), "Bob");
+        index.save(file);
+        PlayerAddressIndex loaded = new PlayerAddressIndex(10, DAY);
+        loaded.load(file);
+        assertEquals(2, loaded.size());
+    }
+
+    @Test
+    void failedSaveIsRetried() throws Exception {
+        File file = folder.resolve("missing/players.tsv").toFile();
+        PlayerAddressIndex index = new PlayerAddressIndex(10, DAY);
+        index.record(address(1), "Alice");
+
+        assertThrows(IOException.class, () -> index.save(file));
+        Files.createDirectories(file.getParentFile().toPath());
+        index.save(file);
+
+        PlayerAddressIndex loaded = new PlayerAddressIndex(10, DAY);
+        loaded.load(file);
+        assertEquals("alice", loaded.lookup(address(1)));
+    }
+
+    private static InetAddress address(int last) throws IOException {
+        return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) last});
+    }
+}
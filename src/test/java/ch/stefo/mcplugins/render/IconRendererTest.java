@@ -0,0 +1,207 @@
+package ch.stefo.mcplugins.render;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+import org.bukkit.util.CachedServerIcon;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ch.stefo.mcplugins.image.IconImages;
+import ch.stefo.mcplugins.library.IconEntry;
+
+class IconRendererTest {
+
+    private static final Logger LOGGER = Logger.getLogger("IconRendererTest");
+    private static final CachedServerIcon FALLBACK = icon();
+
+    @TempDir
+    Path folder;
+
+    // Draws the player count; fails to draw while exactly one player is online if failing is set
+    private final AtomicInteger draws = new AtomicInteger();
+    private volatile boolean failing;
+    private final OverlayLayer players = new OverlayLayer() {
+        @Override
+        public String key(RenderState state) {
+            return state.online() > 0 ? Integer.toString(state.online()) : "";
+        }
+
+        @Override
+        public void draw(Canvas canvas, RenderState state) {
+            draws.incrementAndGet();
+            if (failing && state.online() == 1) {
+                throw new IllegalStateException("cannot draw");
+            }
+            canvas.fill(0, 0, state.online(), 1, 0xFFFFFFFF);
+        }
+    };
+
+    private IconRenderer renderer;
+
+    @AfterEach
+    void shutdownRenderer() {
+        if (renderer != null) {
+            renderer.shutdown();
+        }
+    }
+
+    @Test
+    void rendersOnlyWhenLayerKeyChanges() throws Exception {
+        renderer = new IconRenderer(List.of(players), image -> icon(), 16, LOGGER);
+        IconEntry base = base("a.png", 0xFF102030);
+
+        renderer.setState(state(3, 0));
+        assertSame(FALLBACK, renderer.render(base, FALLBACK));
+        CachedServerIcon three = awaitRendered(base);
+        // A different time is not drawn by any layer, so the icon is reused
+        renderer.setState(state(3, 30));
+        assertSame(three, renderer.render(base, FALLBACK));
+        assertEquals(1, renderer.getRenders());
+        assertEquals("3|", renderer.getStateKey());
+
+        renderer.setState(state(4, 30));
+        assertNotSame(three, awaitRendered(base));
+        assertEquals(2, renderer.getRenders());
+        renderer.setState(state(3, 45));
+        assertSame(three, renderer.render(base, FALLBACK));
+    }
+
+    @Test
+    void identicalBasesShareRenderedIcon() throws Exception {
+        renderer = new IconRenderer(List.of(players), image -> icon(), 16, LOGGER);
+        IconEntry base = base("a.png", 0xFF102030);
+        IconEntry copy = new IconEntry("copy.png", base.file(), base.size(), base.hash(), null);
+
+        renderer.setState(state(3, 0));
+        CachedServerIcon icon = awaitRendered(base);
+        assertSame(icon, renderer.render(copy, FALLBACK));
+        assertEquals(1, renderer.getRenders());
+    }
+
+    @Test
+    void statesWithoutVisibleLayersUseBaseIcon() throws Exception {
+        renderer = new IconRenderer(List.of(players), image -> icon(), 16, LOGGER);
+        IconEntry base = base("a.png", 0xFF102030);
+
+        renderer.setState(state(0, 0));
+        assertSame(FALLBACK, renderer.render(base, FALLBACK));
+        assertSame(FALLBACK, renderer.render(null, FALLBACK));
+        assertEquals(0, renderer.getMisses());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws Exception {
+        renderer = new IconRenderer(List.of(players), image -> icon(), 2, LOGGER);
+        IconEntry a = base("a.png", 0xFF000001);
+        IconEntry b = base("b.png", 0xFF000002);
+        IconEntry c = base("c.png", 0xFF000003);
+        renderer.setState(state(3, 0));
+
+        CachedServerIcon renderedA = awaitRendered(a);
+        Thread.sleep(2);
+        awaitRendered(b);
+        Thread.sleep(2);
+        assertSame(renderedA, renderer.render(a, FALLBACK));
+        awaitRendered(c);
+
+        assertEquals(2, renderer.size());
+        assertEquals(1, renderer.getEvictions());
+        assertSame(renderedA, renderer.render(a, FALLBACK));
+        assertSame(FALLBACK, renderer.render(b, FALLBACK));
+    }
+
+    @Test
+    void evictedIconIsNotServedAgain() throws Exception {
+        renderer = new IconRenderer(List.of(players), image -> icon(), 1, LOGGER);
+        IconEntry a = base("a.png", 0xFF000001);
+        IconEntry b = base("b.png", 0xFF000002);
+        renderer.setState(state(3, 0));
+
+        CachedServerIcon renderedA = awaitRendered(a);
+        assertSame(renderedA, renderer.render(a, FALLBACK));
+        // Rendering b evicts a, which was the last icon served
+        assertSame(FALLBACK, renderer.render(b, FALLBACK));
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (renderer.getEvictions() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(1, renderer.getEvictions());
+        assertSame(FALLBACK, renderer.render(a, FALLBACK));
+    }
+
+    @Test
+    void failureOnlyBlocksItsOwnState() throws Exception {
+        failing = true;
+        renderer = new IconRenderer(List.of(players), image -> icon(), 16, LOGGER);
+        IconEntry base = base("a.png", 0xFF102030);
+
+        renderer.setState(state(1, 0));
+        assertSame(FALLBACK, renderer.render(base, FALLBACK));
+        // The renders run in order, so the failed one has finished once this one is ready
+        renderer.setState(state(2, 0));
+        awaitRendered(base);
+        assertEquals(2, draws.get());
+
+        failing = false;
+        renderer.setState(state(1, 0));
+        assertSame(FALLBACK, renderer.render(base, FALLBACK));
+        assertEquals(2, draws.get());
+
+        renderer.retryFailed();
+        awaitRendered(base);
+        assertEquals(3, draws.get());
+    }
+
+    /**
+     * Looks the icon up until its render is done.
+     */
+    private CachedServerIcon awaitRendered(IconEntry base) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            CachedServerIcon icon = renderer.render(base, FALLBACK);
+            if (icon != FALLBACK) {
+                return icon;
+            }
+            Thread.sleep(1);
+        }
+        throw new AssertionError("icon was not rendered");
+    }
+
+    private IconEntry base(String name, int argb) throws IOException {
+        int[] pixels = new int[IconImages.PIXELS];
+        Arrays.fill(pixels, argb);
+        File file = folder.resolve(name).toFile();
+        BufferedImage image = IconImages.fromPixels(pixels);
+        ImageIO.write(image, "png", file);
+        return new IconEntry(name, file, file.length(), "hash-" + Integer.toHexString(argb), null);
+    }
+
+    private static RenderState state(int online, int minute) {
+        return new RenderState(online, 20, false, LocalDateTime.of(2024, 3, 1, 12, minute));
+    }
+
+    private static CachedServerIcon icon() {
+        return (CachedServerIcon) Proxy.newProxyInstance(IconRendererTest.class.getClassLoader(), new Class<?>[]{CachedServerIcon.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> null;
+                });
+    }
+}
@@ -0,0 +1,109 @@
+package ch.stefo.mcplugins.schedule;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class IconScheduleTest {
+
+    private static final ScheduleRule MORNINGS = new ScheduleRule("mornings", "morning.png", 0, null, null, Set.of(),
+            LocalTime.of(8, 0), LocalTime.of(10, 0));
+    private static final ScheduleRule CHRISTMAS = ScheduleRule.forDay(MonthDay.of(12, 24), "christmas.png");
+    private static final ScheduleRule CHRISTMAS_MORNING = new ScheduleRule("christmas morning", "presents.png", 1,
+            MonthDay.of(12, 24), MonthDay.of(12, 24), Set.of(), LocalTime.of(6, 0), LocalTime.of(9, 0));
+
+    @Test
+    void emptyScheduleHasNoTransitions() {
+        assertNull(IconSchedule.EMPTY.next(LocalDateTime.of(2024, 1, 1, 0, 0)));
+        assertNull(IconSchedule.EMPTY.active(LocalDateTime.of(2024, 1, 1, 0, 0)));
+    }
+
+    @Test
+    void findsStartAndEndOfTimeWindow() {
+        IconSchedule schedule = new IconSchedule(List.of(MORNINGS));
+
+        assertTransition(LocalDateTime.of(2024, 3, 1, 8, 0), MORNINGS, schedule.next(LocalDateTime.of(2024, 3, 1, 7, 30)));
+        assertTransition(LocalDateTime.of(2024, 3, 1, 10, 0), null, schedule.next(LocalDateTime.of(2024, 3, 1, 8, 0)));
+        // The search starts after the given moment
+        assertTransition(LocalDateTime.of(2024, 3, 2, 8, 0), MORNINGS, schedule.next(LocalDateTime.of(2024, 3, 1, 10, 0)));
+    }
+
+    @Test
+    void higherPriorityWins() {
+        IconSchedule schedule = new IconSchedule(List.of(CHRISTMAS, CHRISTMAS_MORNING));
+
+        assertSame(CHRISTMAS_MORNING, schedule.active(LocalDateTime.of(2024, 12, 24, 7, 0)));
+        assertSame(CHRISTMAS, schedule.active(LocalDateTime.of(2024, 12, 24, 9, 0)));
+        assertEquals(List.of(
+                new IconSchedule.Transition(LocalDateTime.of(2024, 12, 24, 0, 0), CHRISTMAS),
+                new IconSchedule.Transition(LocalDateTime.of(2024, 12, 24, 6, 0), CHRISTMAS_MORNING),
+                new IconSchedule.Transition(LocalDateTime.of(2024, 12, 24, 9, 0), CHRISTMAS),
+                new IconSchedule.Transition(LocalDateTime.of(2024, 12, 25, 0, 0), null),
+                new IconSchedule.Transition(LocalDateTime.of(2025, 12, 24, 0, 0), CHRISTMAS)
+        ), schedule.preview(LocalDateTime.of(2024, 6, 1, 12, 0), 5));
+    }
+
+    @Test
+    void earlierRuleWinsOnEqualPriority() {
+        ScheduleRule allDay = new ScheduleRule("all day", "day.png", 0, null, null, Set.of(), null, null);
+        IconSchedule schedule = new IconSchedule(List.of(MORNINGS, allDay));
+
+        assertSame(MORNINGS, schedule.active(LocalDateTime.of(2024, 3, 1, 9, 0)));
+        assertSame(allDay, schedule.active(LocalDateTime.of(2024, 3, 1, 11, 0)));
+        assertTransition(LocalDateTime.of(2024, 3, 2, 8, 0), MORNINGS, schedule.next(LocalDateTime.of(2024, 3, 1, 11, 0)));
+    }
+
+    @Test
+    void findsTransitionsAcrossYearEnd() {
+        ScheduleRule holidays = new ScheduleRule("holidays", "snow.png", 0, MonthDay.of(12, 20), MonthDay.of(1, 5),
+                Set.of(), null, null);
+        IconSchedule schedule = new IconSchedule(List.of(holidays));
+
+        assertTransition(LocalDateTime.of(2025, 1, 6, 0, 0), null, schedule.next(LocalDateTime.of(2024, 12, 31, 12, 0)));
+        assertTransition(LocalDateTime.of(2025, 12, 20, 0, 0), holidays, schedule.next(LocalDateTime.of(2025, 1, 6, 0, 0)));
+    }
+
+    @Test
+    void findsLeapDayWithinHorizon() {
+        IconSchedule schedule = new IconSchedule(List.of(ScheduleRule.forDay(MonthDay.of(2, 29), "leap.png")));
+
+        assertTransition(LocalDateTime.of(2028, 2, 29, 0, 0), schedule.getRules().get(0),
+                schedule.next(LocalDateTime.of(2027, 3, 1, 0, 0)));
+        // The next leap day is further away than the horizon
+        assertNull(schedule.next(LocalDateTime.of(2024, 3, 1, 0, 0)));
+    }
+
+    @Test
+    void weekdayRuleRepeatsWeekly() {
+        ScheduleRule fridays = new ScheduleRule("fridays", "friday.png", 0, null, null, EnumSet.of(DayOfWeek.FRIDAY), null, null);
+        IconSchedule schedule = new IconSchedule(List.of(fridays));
+
+        // Monday, 4 March 2024
+        assertEquals(List.of(
+                new IconSchedule.Transition(LocalDateTime.of(2024, 3, 8, 0, 0), fridays),
+                new IconSchedule.Transition(LocalDateTime.of(2024, 3, 9, 0, 0), null),
+                new IconSchedule.Transition(LocalDateTime.of(2024, 3, 15, 0, 0), fridays)
+        ), schedule.preview(LocalDateTime.of(2024, 3, 4, 12, 0), 3));
+    }
+
+    @Test
+    void ruleActiveAllTheTimeHasNoTransition() {
+        ScheduleRule always = new ScheduleRule("always", "always.png", 0, null, null, Set.of(), null, null);
+
+        assertNull(new IconSchedule(List.of(always)).next(LocalDateTime.of(2024, 3, 1, 12, 0)));
+    }
+
+    private static void assertTransition(LocalDateTime at, ScheduleRule rule, IconSchedule.Transition transition) {
+        assertEquals(new IconSchedule.Transition(at, rule), transition);
+    }
+}
@@ -0,0 +1,180 @@
+package ch.stefo.mcplugins.schedule;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.time.MonthDay;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import ch.stefo.mcplugins.library.IconEntry;
+import ch.stefo.mcplugins.library.IconLibrary;
+import org.bukkit.util.CachedServerIcon;
+import org.junit.jupiter.api.Test;
+
+class ScheduleResolverTest {
+
+    private static final Logger LOGGER = Logger.getLogger("ScheduleResolverTest");
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 12, 24, 12, 0);
+
+    // Loads requested per hash
+    private final Map<String, Integer> loads = new HashMap<>();
+    // Futures the loader returns, by hash; a hash without one fails to load
+    private final Map<String, CompletableFuture<CachedServerIcon>> futures = new HashMap<>();
+    // Tasks handed to the main thread, run by runMainThread()
+    private final List<Runnable> mainThread = new ArrayList<>();
+    private int changes;
+
+    private final ScheduleResolver resolver = new ScheduleResolver(entry -> {
+        loads.merge(entry.hash(), 1, Integer::sum);
+        return futures.getOrDefault(entry.hash(), CompletableFuture.completedFuture(null));
+    }, mainThread::add, () -> changes++, LOGGER);
+
+    @Test
+    void compilesDayIconsBeforeScheduleRules() {
+        Map<String, String> dayIcons = new LinkedHashMap<>();
+        dayIcons.put("24.12", "christmas.png");
+        List<Map<?, ?>> configured = List.of(Map.of("icon", "weekend.png", "days", "saturday"), Map.of("name", "broken"),
+                Map.of("icon", "night.png", "time", "22:00-06:00"));
+
+        List<ScheduleRule> rules = ScheduleResolver.compile(dayIcons, configured, LOGGER);
+
+        assertEquals(List.of("christmas.png", "weekend.png", "night.png"), rules.stream().map(ScheduleRule::icon).toList());
+        assertEquals(MonthDay.of(12, 24), rules.get(0).from());
+    }
+
+    @Test
+    void rulesWaitForTheFirstLibrary() {
+        resolver.setRules(List.of(rule("a")));
+        assertEquals(0, changes);
+        assertNull(resolver.active(NOW));
+
+        IconEntry a = loaded("a");
+        resolver.resolve(new IconLibrary(List.of(a)));
+        assertEquals(1, changes);
+        assertSame(a, resolver.active(NOW));
+    }
+
+    @Test
+    void loadedIconsArePublishedAtOnce() {
+        IconEntry a = loaded("a");
+        resolver.setRules(List.of(rule("a")));
+        resolver.resolve(new IconLibrary(List.of(a)));
+
+        assertSame(a, resolver.active(NOW));
+        assertEquals(0, loads(a));
+        assertEquals(List.of(), mainThread);
+    }
+
+    @Test
+    void lazyIconsArePublishedOnceLoaded() {
+        IconEntry a = entry("a");
+        CompletableFuture<CachedServerIcon> pending = new CompletableFuture<>();
+        futures.put(a.hash(), pending);
+        resolver.setRules(List.of(rule("a")));
+        resolver.resolve(new IconLibrary(List.of(a)));
+        assertEquals(0, changes);
+        assertNull(resolver.active(NOW));
+
+        CachedServerIcon icon = icon();
+        pending.complete(icon);
+        assertEquals(0, changes);
+        runMainThread();
+        assertEquals(1, changes);
+        assertSame(icon, resolver.active(NOW).icon());
+        assertEquals(a.hash(), resolver.getIcons().get("a.png").hash());
+    }
+
+    @Test
+    void unchangedIconsAreNotLoadedAgain() {
+        IconEntry a = entry("a");
+        futures.put(a.hash(), CompletableFuture.completedFuture(icon()));
+        resolver.setRules(List.of(rule("a")));
+        resolver.resolve(new IconLibrary(List.of(a)));
+        runMainThread();
+        IconEntry published = resolver.active(NOW);
+
+        resolver.resolve(new IconLibrary(List.of(entry("a"), entry("b"))));
+        assertEquals(1, loads(a));
+        assertEquals(2, changes);
+        assertSame(published, resolver.active(NOW));
+    }
+
+    @Test
+    void rulesWithMissingOrFailedIconsAreSkipped() {
+        IconEntry failing = entry("failing");
+        resolver.setRules(List.of(rule("missing"), rule("failing"), rule("a")));
+        resolver.resolve(new IconLibrary(List.of(failing, loaded("a"))));
+        runMainThread();
+
+        assertEquals(List.of("a.png"), resolver.getSchedule().getRules().stream().map(ScheduleRule::icon).toList());
+        assertEquals(1, loads(failing));
+        assertEquals("a.png", resolver.active(NOW).name());
+    }
+
+    @Test
+    void loadsForAReplacedLibraryAreDiscarded() {
+        IconEntry a = entry("a");
+        CompletableFuture<CachedServerIcon> pending = new CompletableFuture<>();
+        futures.put(a.hash(), pending);
+        resolver.setRules(List.of(rule("a")));
+        resolver.resolve(new IconLibrary(List.of(a)));
+        IconEntry replacement = new IconEntry("a.png", new File("a.png"), 3000, "hash-new", icon());
+        resolver.resolve(new IconLibrary(List.of(replacement)));
+
+        pending.complete(icon());
+        runMainThread();
+        assertEquals(1, changes);
+        assertSame(replacement, resolver.active(NOW));
+    }
+
+    @Test
+    void updatesAtLeastOnceADay() {
+        resolver.setRules(List.of(ScheduleRule.parse(Map.of("icon", "a.png", "time", "13:00-14:00"))));
+        resolver.resolve(new IconLibrary(List.of(loaded("a"))));
+        assertEquals(NOW.withHour(13), resolver.nextUpdate(NOW));
+
+        resolver.setRules(List.of(rule("a")));
+        assertEquals(NOW.plusDays(1), resolver.nextUpdate(NOW));
+    }
+
+    private void runMainThread() {
+        List<Runnable> tasks = new ArrayList<>(mainThread);
+        mainThread.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    private int loads(IconEntry entry) {
+        return loads.getOrDefault(entry.hash(), 0);
+    }
+
+    private static ScheduleRule rule(String name) {
+        return ScheduleRule.parse(Map.of("icon", name + ".png"));
+    }
+
+    private static IconEntry entry(String name) {
+        return new IconEntry(name + ".png", new File(name + ".png"), 3000, "hash-" + name, null);
+    }
+
+    private static IconEntry loaded(String name) {
+        return new IconEntry(name + ".png", new File(name + ".png"), 3000, "hash-" + name, icon());
+    }
+
+    private static CachedServerIcon icon() {
+        return (CachedServerIcon) Proxy.newProxyInstance(ScheduleResolverTest.class.getClassLoader(), new Class<?>[]{CachedServerIcon.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> null;
+                });
+    }
+}
@@ -0,0 +1,101 @@
+package ch.stefo.mcplugins.schedule;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ScheduleRuleTest {
+
+    @Test
+    void parsesDay() {
+        assertEquals(MonthDay.of(12, 24), ScheduleRule.parseDay("24.12"));
+        assertEquals(MonthDay.of(2, 29), ScheduleRule.parseDay("29.02"));
+        assertEquals(MonthDay.of(10, 20), ScheduleRule.parseDay(" 20.10 "));
+    }
+
+    @Test
+    void acceptsDayWithoutLeadingZero() {
+        // YAML reads an unquoted 01.12 as the number 1.12
+        assertEquals(MonthDay.of(12, 1), ScheduleRule.parseDay("1.12"));
+    }
+
+    @Test
+    void acceptsSingleDigitDayAndMonth() {
+        assertEquals(MonthDay.of(5, 1), ScheduleRule.parseDay("1.5"));
+        assertEquals(MonthDay.of(1, 20), ScheduleRule.parseDay("20.1"));
+        assertEquals(MonthDay.of(5, 1), ScheduleRule.parseDay("1-5"));
+        assertEquals(MonthDay.of(12, 24), ScheduleRule.parseDay("24-12"));
+    }
+
+    @Test
+    void rejectsInvalidDays() {
+        for (String value : List.of("", "24", "24.12.2024", "31.02", "32.01", "00.01", "01.13", "ab.cd", "1.2.3", "+1.5", "24_12", "124.1")) {
+            assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parseDay(value), value);
+        }
+    }
+
+    @Test
+    void rejectsDatesReadAsNumbers() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("icon", "christmas.png");
+        map.put("date", 24.12);
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parse(map));
+        assertTrue(error.getMessage().contains("quoted"), error.getMessage());
+    }
+
+    @Test
+    void parsesRule() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", "Weekend nights");
+        map.put("icon", "night.png");
+        map.put("priority", 2);
+        map.put("from", "20.12");
+        map.put("to", "05.01");
+        map.put("days", "sat, Sunday");
+        map.put("time", "22:00-06:00");
+
+        ScheduleRule rule = ScheduleRule.parse(map);
+        assertEquals(new ScheduleRule("Weekend nights", "night.png", 2, MonthDay.of(12, 20), MonthDay.of(1, 5),
+                EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY), LocalTime.of(22, 0), LocalTime.of(6, 0)), rule);
+    }
+
+    @Test
+    void rejectsInvalidRules() {
+        assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parse(Map.of("date", "24.12")));
+        assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parse(Map.of("icon", "a.png", "from", "24.12")));
+        assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parse(Map.of("icon", "a.png", "days", "someday")));
+        assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parse(Map.of("icon", "a.png", "time", "10:00")));
+        assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parse(Map.of("icon", "a.png", "time", "10:00-10:00")));
+        assertThrows(IllegalArgumentException.class, () -> ScheduleRule.parse(Map.of("icon", "a.png", "priority", "high")));
+    }
+
+    @Test
+    void matchesRangesWrappingYearAndMidnight() {
+        ScheduleRule rule = new ScheduleRule("nights", "night.png", 0, MonthDay.of(12, 20), MonthDay.of(1, 5),
+                EnumSet.of(DayOfWeek.SATURDAY), LocalTime.of(22, 0), LocalTime.of(6, 0));
+
+        // Saturday, 21 December 2024
+        assertTrue(rule.matches(LocalDateTime.of(2024, 12, 21, 23, 0)));
+        assertTrue(rule.matches(LocalDateTime.of(2024, 12, 21, 5, 59)));
+        assertFalse(rule.matches(LocalDateTime.of(2024, 12, 21, 6, 0)));
+        assertFalse(rule.matches(LocalDateTime.of(2024, 12, 21, 12, 0)));
+        // Sunday morning after a Saturday night is no longer Saturday
+        assertFalse(rule.matches(LocalDateTime.of(2024, 12, 22, 1, 0)));
+        // Saturday, 4 January 2025, and Saturday, 11 January 2025
+        assertTrue(rule.matches(LocalDateTime.of(2025, 1, 4, 22, 0)));
+        assertFalse(rule.matches(LocalDateTime.of(2025, 1, 11, 22, 0)));
+    }
+}
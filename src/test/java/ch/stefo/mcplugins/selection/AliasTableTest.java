@@ -0,0 +1,64 @@
+package ch.stefo.mcplugins.selection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class AliasTableTest {
+
+    private static final int SAMPLES = 400_000;
+
+    @Test
+    void samplesInProportionToWeights() {
+        double[] weights = {1, 2, 3, 4, 10};
+        int[] counts = sample(new AliasTable(weights));
+
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 20, counts[i] / (double) SAMPLES, 0.005, "share of index " + i);
+        }
+    }
+
+    @Test
+    void neverSamplesZeroWeights() {
+        AliasTable table = new AliasTable(new double[]{0, 5, 0, 1, 0});
+        int[] counts = sample(table);
+
+        assertEquals(0, counts[0]);
+        assertEquals(0, counts[2]);
+        assertEquals(0, counts[4]);
+        assertFalse(table.isPositive(0));
+        assertTrue(table.isPositive(1));
+        assertTrue(table.isPositive(3));
+    }
+
+    @Test
+    void singleWeightAlwaysSampled() {
+        AliasTable table = new AliasTable(new double[]{0.001});
+
+        assertEquals(1, table.size());
+        assertEquals(SAMPLES, sample(table)[0]);
+    }
+
+    @Test
+    void equalWeightsAreUniform() {
+        double[] weights = new double[100];
+        Arrays.fill(weights, 7);
+        int[] counts = sample(new AliasTable(weights));
+
+        for (int count : counts) {
+            assertEquals(0.01, count / (double) SAMPLES, 0.002);
+        }
+    }
+
+    private static int[] sample(AliasTable table) {
+        int[] counts = new int[table.size()];
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[table.sample()]++;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,81 @@
+package ch.stefo.mcplugins.selection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+class IconSelectionTest {
+
+    @Test
+    void cycleAdvancesThroughEntries() {
+        IconSelection selection = IconSelection.compile("cycle", entries("a", "b", "c"), null);
+
+        assertEquals("a", selected(selection));
+        selection = selection.advance();
+        assertEquals("b", selected(selection));
+        assertEquals(List.of("b", "c", "a"), names(selection.upcoming(2)));
+        assertEquals("a", selected(selection.advance().advance()));
+    }
+
+    @Test
+    void cycleKeepsCurrentIconWhenEntriesChange() {
+        IconSelection selection = IconSelection.compile("cycle", entries("a", "b", "c"), null).advance();
+
+        // An icon added in front moves the current one, which keeps showing
+        IconSelection resumed = selection.withEntries(entries("0", "a", "b", "c"), null, IconResolver.LOADED);
+        assertEquals("b", selected(resumed));
+        assertEquals("c", selected(resumed.advance()));
+    }
+
+    @Test
+    void cycleContinuesAtSamePositionWhenCurrentIconIsRemoved() {
+        IconSelection selection = IconSelection.compile("cycle", entries("a", "b", "c"), null).advance().advance();
+
+        assertEquals("a", selected(selection.withEntries(entries("a", "b"), null, IconResolver.LOADED)));
+        assertEquals("d", selected(selection.withEntries(entries("a", "b", "d"), null, IconResolver.LOADED)));
+    }
+
+    @Test
+    void newModeStartsOver() {
+        IconSelection selection = IconSelection.compile("cycle", entries("a", "b", "c"), null).advance();
+
+        assertEquals("a", selected(selection.withMode("cycle")));
+        assertNull(selection.withMode("static").selectEntry());
+    }
+
+    @Test
+    void unknownModeAndEmptyLibraryShowDefaultIcon() {
+        assertNull(IconSelection.compile("unknown", entries("a"), null).selectEntry());
+        IconSelection empty = IconSelection.compile("cycle", List.of(), null);
+        assertNull(empty.selectEntry());
+        assertSame(empty, empty.advance());
+    }
+
+    private static String selected(IconSelection selection) {
+        return selection.selectEntry().name();
+    }
+
+    private static List<IconEntry> entries(String... names) {
+        List<IconEntry> entries = new ArrayList<>();
+        for (String name : names) {
+            entries.add(new IconEntry(name, new File(name), 100, "hash-" + name, null));
+        }
+        return entries;
+    }
+
+    private static List<String> names(List<IconEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (IconEntry entry : entries) {
+            names.add(entry.name());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,106 @@
+package ch.stefo.mcplugins.selection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import ch.stefo.mcplugins.library.IconEntry;
+
+class RotatingRandomSelectorTest {
+
+    private static final List<IconEntry> ENTRIES = entries("a", "b", "c");
+
+    @Test
+    void showsSameIconUntilAdvanced() {
+        IconSelection selection = random(ENTRIES, Map.of(), false);
+        String current = selected(selection);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(current, selected(selection));
+        }
+        // The next icon is drawn in advance
+        assertEquals(selected(selection.advance()), selection.upcoming(1).get(1).name());
+    }
+
+    @Test
+    void noRepeatNeverShowsSameIconTwice() {
+        IconSelection selection = random(ENTRIES, Map.of("a", 100.0), true);
+
+        for (int i = 0; i < 1000; i++) {
+            IconSelection next = selection.advance();
+            assertNotEquals(selected(selection), selected(next));
+            selection = next;
+        }
+    }
+
+    @Test
+    void neverShowsIconsWithoutWeight() {
+        IconSelection selection = random(ENTRIES, Map.of("a", 0.0, "c", 0.0), false);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("b", selected(selection));
+            selection = selection.advance();
+        }
+    }
+
+    @Test
+    void resumeKeepsIconStillInLibrary() {
+        IconSelection selection = random(ENTRIES, Map.of(), false);
+        String current = selected(selection);
+
+        for (int i = 0; i < 100; i++) {
+            List<IconEntry> changed = new ArrayList<>(ENTRIES);
+            changed.add(0, entry("new" + i));
+            assertEquals(current, selected(selection.withEntries(changed, null, IconResolver.LOADED)));
+        }
+    }
+
+    @Test
+    void resumeRedrawsIconWhoseWeightBecameZero() {
+        for (int i = 0; i < 100; i++) {
+            IconSelection selection = random(ENTRIES, Map.of(), false);
+            String current = selected(selection);
+
+            IconSelection resumed = selection.withOptions(new SelectionOptions(Map.of(current, 0.0), false));
+            assertNotEquals(current, selected(resumed));
+        }
+    }
+
+    @Test
+    void resumeRedrawsRemovedIcon() {
+        for (int i = 0; i < 100; i++) {
+            IconSelection selection = random(ENTRIES, Map.of(), false);
+            String current = selected(selection);
+            List<IconEntry> remaining = new ArrayList<>(ENTRIES);
+            remaining.removeIf(entry -> entry.name().equals(current));
+
+            assertNotEquals(current, selected(selection.withEntries(remaining, null, IconResolver.LOADED)));
+        }
+    }
+
+    private static IconSelection random(List<IconEntry> entries, Map<String, Double> weights, boolean noRepeat) {
+        return IconSelection.compile("random", entries, null, IconResolver.LOADED, new SelectionOptions(weights, noRepeat));
+    }
+
+    private static String selected(IconSelection selection) {
+        return selection.selectEntry().name();
+    }
+
+    private static List<IconEntry> entries(String... names) {
+        List<IconEntry> entries = new ArrayList<>();
+        for (String name : names) {
+            entries.add(entry(name));
+        }
+        return List.copyOf(entries);
+    }
+
+    private static IconEntry entry(String name) {
+        return new IconEntry(name, new File(name), 100, "hash-" + name, null);
+    }
+}
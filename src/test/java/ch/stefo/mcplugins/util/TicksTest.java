@@ -0,0 +1,41 @@
+package ch.stefo.mcplugins.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+class TicksTest {
+
+    private static final ZoneId ZURICH = ZoneId.of("Europe/Zurich");
+
+    @Test
+    void roundsUpToWholeTicks() {
+        LocalDateTime now = LocalDateTime.of(2024, 6, 1, 23, 0);
+
+        assertEquals(72_000, Ticks.until(now, now.plusHours(1), ZoneOffset.UTC));
+        assertEquals(1, Ticks.until(now, now.plusNanos(1_000_000), ZoneOffset.UTC));
+        assertEquals(2, Ticks.until(now, now.plusNanos(51_000_000), ZoneOffset.UTC));
+    }
+
+    @Test
+    void countsRealTimeAcrossDaylightSavingChanges() {
+        // The clocks skip from 02:00 to 03:00, so the day has 23 hours
+        LocalDateTime spring = LocalDateTime.of(2024, 3, 31, 0, 0);
+        assertEquals(23 * 72_000, Ticks.until(spring, spring.plusDays(1), ZURICH));
+        // The clocks go back from 03:00 to 02:00, so the day has 25 hours
+        LocalDateTime autumn = LocalDateTime.of(2024, 10, 27, 0, 0);
+        assertEquals(25 * 72_000, Ticks.until(autumn, autumn.plusDays(1), ZURICH));
+    }
+
+    @Test
+    void pastTimesRunOnNextTick() {
+        LocalDateTime now = LocalDateTime.of(2024, 6, 1, 12, 0);
+
+        assertEquals(1, Ticks.until(now, now.minusHours(1), ZoneOffset.UTC));
+        assertEquals(1, Ticks.until(now, now, ZoneOffset.UTC));
+    }
+}